@@ -0,0 +1,65 @@
+package org.trostheide.lif.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares two JMH JSON result files (e.g. from two commits) and flags regressions.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar org.trostheide.lif.bench.BenchCompare baseline.json current.json [thresholdPercent]}
+ * <p>
+ * Exits with 1 if any benchmark got slower by more than the threshold (default 10%).
+ */
+public class BenchCompare {
+
+    private record Score(double value, double error, String unit, boolean higherIsBetter) {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: BenchCompare <baseline.json> <current.json> [thresholdPercent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+        Map<String, Score> baseline = read(new File(args[0]));
+        Map<String, Score> current = read(new File(args[1]));
+
+        int regressions = 0;
+        System.out.printf("%-70s %14s %14s %9s%n", "Benchmark", "baseline", "current", "change");
+        for (Map.Entry<String, Score> e : current.entrySet()) {
+            Score now = e.getValue();
+            Score before = baseline.get(e.getKey());
+            if (before == null) {
+                System.out.printf("%-70s %14s %14.3f %9s  %s%n", e.getKey(), "-", now.value(), "new", now.unit());
+                continue;
+            }
+            // positive = better, regardless of whether the mode is a rate or a time
+            double change = (now.value() - before.value()) / before.value() * 100;
+            if (!now.higherIsBetter()) change = -change;
+            boolean regressed = change < -threshold;
+            if (regressed) regressions++;
+            System.out.printf("%-70s %14.3f %14.3f %+8.1f%%  %s%s%n", e.getKey(), before.value(), now.value(),
+                    change, now.unit(), regressed ? "  REGRESSION" : "");
+        }
+        System.out.println(regressions == 0 ? "No regressions above " + threshold + "%."
+                : regressions + " regression(s) above " + threshold + "%.");
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    private static Map<String, Score> read(File file) throws Exception {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (JsonNode run : new ObjectMapper().readTree(file)) {
+            StringBuilder key = new StringBuilder(run.path("benchmark").asText());
+            run.path("params").fields().forEachRemaining(p ->
+                    key.append(' ').append(p.getKey()).append('=').append(p.getValue().asText()));
+            JsonNode metric = run.path("primaryMetric");
+            boolean higherIsBetter = "thrpt".equals(run.path("mode").asText());
+            scores.put(key.toString(), new Score(metric.path("score").asDouble(), metric.path("scoreError").asDouble(),
+                    metric.path("scoreUnit").asText(), higherIsBetter));
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,30 @@
+package org.trostheide.lif.bench;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of {@code benchmarks.jar}: runs JMH and, unless the caller chose a result
+ * format, writes the results as JSON to {@code bench-results/<timestamp>.json} so runs
+ * of different commits can be compared with {@link BenchCompare}.
+ * <p>
+ * Usage: {@code java -jar lif-bench/target/benchmarks.jar [jmh options] [benchmark regex]}
+ */
+public class BenchRunner {
+
+    public static void main(String[] args) throws Exception {
+        List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+        if (!jmhArgs.contains("-rf") && !jmhArgs.contains("-h") && !jmhArgs.contains("-l")) {
+            File dir = new File("bench-results");
+            dir.mkdirs();
+            String name = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json";
+            jmhArgs.addAll(0, List.of("-rf", "json", "-rff", new File(dir, name).getPath()));
+            System.out.println("Results will be written to " + new File(dir, name).getPath());
+        }
+        org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+    }
+}
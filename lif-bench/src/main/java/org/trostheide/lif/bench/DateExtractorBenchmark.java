@@ -0,0 +1,133 @@
+package org.trostheide.lif.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.trostheide.lif.core.ExifHeaderReader;
+import org.trostheide.lif.core.MetadataCache;
+import org.trostheide.lif.core.PhotoMetadata;
+import org.trostheide.lif.photoorg.DateExtractor;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DateExtractor#extractPathInfo}: folder-name rules of different priority versus
+ * the EXIF fallback, served from the metadata cache or parsed from the file
+ * ({@code exifParse} with commons-imaging, {@code exifHeader} from the header only).
+ * {@code classifyNames} and {@code regexCascade} classify the same mix of folder names
+ * (one of each rule, plus a miss) with the single-pass rules and with the regular
+ * expressions they replaced ({@link RegexDateRules}; DateExtractorTest in lif-photo-org checks both
+ * agree); {@code filesInOneFolder} is the common case of many files
+ * in a folder, answered from the per-name cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DateExtractorBenchmark {
+
+    private Path dir;
+    private DateExtractor extractor;
+    private File firstRule;
+    private File yearQualifier;
+    private File folderOnly;
+    private File exifFallback;
+    private File[] folderFiles;
+    private int nextFile;
+
+    private static final String[] NAMES = {
+            "Hochzeit Dirk Mai 2019", "2019 März Ostern", "Dezember 2018", "2020 july",
+            "2017-05 Toskana", "2017_11", "2016 - Rom", "2015", "Unsortiert"
+    };
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        // keep the shared on-disk cache out of the measurement
+        System.setProperty(MetadataCache.LOCATION_PROPERTY, "none");
+        Quiet.on();
+        dir = TempDirs.create("dates");
+        firstRule = touch(dir.resolve("Hochzeit Dirk Mai 2019/IMG_0001.jpg"));
+        yearQualifier = touch(dir.resolve("2016 - Rom/IMG_0002.jpg"));
+        folderOnly = dir.resolve("Dezember 2018").toFile();
+        folderOnly.mkdirs();
+        exifFallback = SampleImages.jpegWithExif(dir.resolve("unsorted/IMG_0003.jpg"), 1).toFile();
+        extractor = new DateExtractor();
+        folderFiles = new File[1000];
+        for (int i = 0; i < folderFiles.length; i++) {
+            folderFiles[i] = dir.resolve("Sommerfest August 2021/IMG_" + i + ".jpg").toFile();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        TempDirs.delete(dir);
+        Quiet.off();
+    }
+
+    private static File touch(Path file) throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[0]);
+        return file.toFile();
+    }
+
+    @Benchmark
+    public DateExtractor.PathInfo pathRuleFirst() {
+        return extractor.extractPathInfo(firstRule);
+    }
+
+    @Benchmark
+    public DateExtractor.PathInfo pathRuleLate() {
+        return extractor.extractPathInfo(yearQualifier);
+    }
+
+    @Benchmark
+    public DateExtractor.PathInfo directory() {
+        return extractor.extractPathInfo(folderOnly);
+    }
+
+    @Benchmark
+    public DateExtractor.PathInfo exifFallbackCached() {
+        return extractor.extractPathInfo(exifFallback);
+    }
+
+    @Benchmark
+    public PhotoMetadata exifParse() throws Exception {
+        return PhotoMetadata.read(exifFallback);
+    }
+
+    @Benchmark
+    public ExifHeaderReader.Header exifHeader() throws Exception {
+        return ExifHeaderReader.read(exifFallback);
+    }
+
+    @Benchmark
+    public void classifyNames(Blackhole bh) {
+        for (String name : NAMES) bh.consume(DateExtractor.classify(name));
+    }
+
+    @Benchmark
+    public void regexCascade(Blackhole bh) {
+        for (String name : NAMES) bh.consume(RegexDateRules.classify(name));
+    }
+
+    @Benchmark
+    public DateExtractor.PathInfo filesInOneFolder() {
+        File file = folderFiles[nextFile++ % folderFiles.length];
+        return extractor.extractPathInfo(file);
+    }
+}
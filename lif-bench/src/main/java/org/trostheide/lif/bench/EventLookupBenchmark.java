@@ -0,0 +1,80 @@
+package org.trostheide.lif.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.trostheide.lif.photoorg.EventManager;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EventManager#findBestEventForDate} against calendars of growing size, with
+ * random dates from the calendar's range (most hit an event, some fall between).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventLookupBenchmark {
+    private static final LocalDate FIRST = LocalDate.of(1990, 1, 1);
+    private static final int DAYS = 36 * 365;
+
+    @Param({"100", "10000", "100000"})
+    public int events;
+
+    private Path dir;
+    private EventManager manager;
+    private LocalDate[] dates;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Quiet.on();
+        dir = TempDirs.create("events");
+        Random random = new Random(7);
+        List<EventManager.Event> calendar = new ArrayList<>(events);
+        for (int i = 0; i < events; i++) {
+            LocalDate start = FIRST.plusDays(random.nextInt(DAYS));
+            calendar.add(new EventManager.Event("Event " + i, start, start.plusDays(random.nextInt(21))));
+        }
+        ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        mapper.writeValue(dir.resolve("lif-events.json").toFile(), calendar);
+
+        manager = new EventManager(dir.toFile());
+        manager.loadEvents();
+        dates = new LocalDate[4096];
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = FIRST.plusDays(random.nextInt(DAYS));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        TempDirs.delete(dir);
+        Quiet.off();
+    }
+
+    @Benchmark
+    public EventManager.Event findBestEventForDate() {
+        return manager.findBestEventForDate(dates[next++ & (dates.length - 1)]);
+    }
+}
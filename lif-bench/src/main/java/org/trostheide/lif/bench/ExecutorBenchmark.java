@@ -0,0 +1,124 @@
+package org.trostheide.lif.bench;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.trostheide.lif.core.ExecutionMode;
+import org.trostheide.lif.core.ExecutorFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Request throughput of the executor modes against a mock high-latency HTTP backend
+ * (an in-process server that answers every request after a fixed delay, like an LLM
+ * endpoint or a slow NAS gateway). {@code concurrency} 0 means one thread per core.
+ * A failed request fails the benchmark, so a rate is never inflated by fast failures.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ExecutorBenchmark {
+    private static final int BATCH = 200;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public ExecutionMode mode;
+
+    @Param({"0", "256"})
+    public int concurrency;
+
+    @Param({"50"})
+    public int latencyMs;
+
+    private HttpServer server;
+    private ExecutorService backend;
+    private HttpClient client;
+    private HttpRequest request;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "{\"response\":\"ok\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        // the backend itself must not be the bottleneck
+        backend = Executors.newCachedThreadPool();
+        server.setExecutor(backend);
+        server.start();
+        client = HttpClient.newHttpClient();
+        request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/")).GET().build();
+        int threads = concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors();
+        executor = ExecutorFactory.newBoundedExecutor(mode, threads, "bench");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        server.stop(0);
+        backend.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void requests() throws Exception {
+        CountDownLatch done = new CountDownLatch(BATCH);
+        AtomicInteger failures = new AtomicInteger();
+        AtomicReference<IOException> firstFailure = new AtomicReference<>();
+        for (int i = 0; i < BATCH; i++) {
+            executor.execute(() -> {
+                try {
+                    client.send(request, HttpResponse.BodyHandlers.ofString());
+                } catch (IOException e) {
+                    failures.incrementAndGet();
+                    firstFailure.compareAndSet(null, e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        if (failures.get() > 0) {
+            throw new IOException(failures.get() + " of " + BATCH + " requests failed", firstFailure.get());
+        }
+    }
+}
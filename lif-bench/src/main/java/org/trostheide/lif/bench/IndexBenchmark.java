@@ -0,0 +1,95 @@
+package org.trostheide.lif.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.trostheide.lif.core.LifIndexManager;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LifIndexManager}: appending an entry and looking up a source, against indexes
+ * that already hold 1k, 100k and 1M entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g"})
+public class IndexBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int entries;
+
+    private Path dir;
+    private LifIndexManager index;
+    private File source;
+    private File output;
+    private File missing;
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Quiet.on();
+        dir = TempDirs.create("index");
+        source = dir.resolve("source.jpg").toFile();
+        Files.write(source.toPath(), new byte[1024]);
+        output = dir.resolve("out/source.jpg").toFile();
+        missing = dir.resolve("missing.jpg").toFile();
+
+        ObjectMapper mapper = new ObjectMapper();
+        List<JsonNode> existing = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            existing.add(mapper.createObjectNode()
+                    .put("source", "/photos/" + (i / 1000) + "/IMG_" + i + ".CR2")
+                    .put("output", "/archive/" + (i / 1000) + "/IMG_" + i + ".jpg")
+                    .put("timestamp", "2024-01-01T00:00:00Z")
+                    .put("size", 20_000_000L + i)
+                    .put("mtime", 1_700_000_000_000L + i));
+        }
+        index = new LifIndexManager(dir.resolve(".lif-index.json").toFile(), true);
+        index.writeIndex(existing);
+        index.writeIndexEntry(source, output);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        index.close();
+        TempDirs.delete(dir);
+        Quiet.off();
+    }
+
+    @Benchmark
+    public void writeIndexEntry() throws Exception {
+        // distinct outputs, so each call is a real append
+        index.writeIndexEntry(source, new File(output.getPath() + (counter++)));
+    }
+
+    @Benchmark
+    public String lookupHit() {
+        return index.lookupOutput(source);
+    }
+
+    @Benchmark
+    public String lookupMiss() {
+        return index.lookupOutput(missing);
+    }
+}
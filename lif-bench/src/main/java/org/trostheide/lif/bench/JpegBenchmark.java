@@ -0,0 +1,100 @@
+package org.trostheide.lif.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.trostheide.lif.core.MetadataCache;
+import org.trostheide.lif.photoorg.ChunkedBuffer;
+import org.trostheide.lif.photoorg.ExifPreservingWriter;
+import org.trostheide.lif.photoorg.JpegDecoder;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The jpeg-mode hot path per image: {@link JpegDecoder} decode and resize to a 2048 px
+ * long side, then {@link ExifPreservingWriter} encode with the source's EXIF.
+ * {@code decodeFull} decodes every pixel, as {@code decode} did before subsampling. With
+ * {@code noise} 24 the sample has too much fine detail to subsample, so {@code decode}
+ * decodes in full as well; with 2 it is smooth enough to be decoded reduced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class JpegBenchmark {
+
+    @Param({"2", "12", "24"})
+    public double megapixels;
+
+    @Param({"24", "2"})
+    public int noise;
+
+    private Path dir;
+    private File source;
+    private byte[] sourceBytes;
+    private JpegDecoder decoder;
+    private JpegDecoder fullDecoder;
+    private BufferedImage decoded;
+    private BufferedImage resized;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        System.setProperty(MetadataCache.LOCATION_PROPERTY, "none");
+        Quiet.on();
+        dir = TempDirs.create("jpeg");
+        source = SampleImages.jpegWithExif(dir.resolve("IMG_0001.jpg"), megapixels, noise).toFile();
+        sourceBytes = Files.readAllBytes(source.toPath());
+        decoder = new JpegDecoder(2048, 90);
+        fullDecoder = new JpegDecoder(0, 90);
+        decoded = decoder.decode(sourceBytes, source);
+        resized = decoder.resize(decoded);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        TempDirs.delete(dir);
+        Quiet.off();
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws Exception {
+        return decoder.decode(sourceBytes, source);
+    }
+
+    @Benchmark
+    public BufferedImage decodeFull() throws Exception {
+        return fullDecoder.decode(sourceBytes, source);
+    }
+
+    @Benchmark
+    public BufferedImage resize() throws Exception {
+        return decoder.resize(decoded);
+    }
+
+    @Benchmark
+    public ChunkedBuffer encodeWithExif() throws Exception {
+        return ExifPreservingWriter.encodeWithExif(source, sourceBytes, resized, decoder.encoder());
+    }
+
+    @Benchmark
+    public ChunkedBuffer endToEnd() throws Exception {
+        BufferedImage img = decoder.resize(decoder.decode(sourceBytes, source));
+        return ExifPreservingWriter.encodeWithExif(source, sourceBytes, img, decoder.encoder());
+    }
+}
@@ -0,0 +1,33 @@
+package org.trostheide.lif.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Silences the console output of the code under test (photo-org logs every file),
+ * which would otherwise dominate the measurements.
+ */
+final class Quiet {
+    private static PrintStream out;
+    private static PrintStream err;
+
+    private Quiet() {
+    }
+
+    static synchronized void on() {
+        if (out != null) return;
+        out = System.out;
+        err = System.err;
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+        System.setOut(sink);
+        System.setErr(sink);
+    }
+
+    static synchronized void off() {
+        if (out == null) return;
+        System.setOut(out);
+        System.setErr(err);
+        out = null;
+        err = null;
+    }
+}
@@ -0,0 +1,62 @@
+package org.trostheide.lif.bench;
+
+import org.trostheide.lif.core.DirectorySnapshot;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The recursive walk photo-org's DirectoryScanner did before the source was scanned
+ * through {@link DirectorySnapshot}, kept verbatim (default extensions, no date filter)
+ * as the baseline for {@link ScanBenchmark}.
+ */
+final class RecursiveScan {
+    private static final Set<String> DEFAULT_IMAGE_EXTS = Set.of(
+            "jpg","jpeg","png","tif","tiff",
+            "cr2","nef","arw","dng","orf","raf","rw2","pef","srw","kdc"
+    );
+
+    private RecursiveScan() {
+    }
+
+    static List<File> scan(File sourceDir) {
+        if (!sourceDir.isDirectory()) {
+            System.err.println("Source is not a directory: " + sourceDir);
+            return Collections.emptyList();
+        }
+
+        List<File> result = new ArrayList<>();
+        scanRecursive(sourceDir.toPath(), result);
+        System.out.println("Queued " + result.size() + " files for processing");
+        return result;
+    }
+
+    private static void scanRecursive(Path dir, List<File> out) {
+        try {
+            Files.list(dir).forEach(path -> {
+                File f = path.toFile();
+                if (f.isDirectory()) {
+                    scanRecursive(path, out);
+                } else if (matches(f)) {
+                    out.add(f);
+                    System.out.println("  + " + f.getAbsolutePath());
+                }
+            });
+        } catch (Exception e) {
+            System.err.println("Error scanning directory: " + dir);
+            e.printStackTrace(System.err);
+        }
+    }
+
+    private static boolean matches(File f) {
+        String name = f.getName().toLowerCase();
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) return false;
+        return DEFAULT_IMAGE_EXTS.contains(name.substring(dot + 1));
+    }
+}
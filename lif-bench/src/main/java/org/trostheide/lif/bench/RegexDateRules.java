@@ -0,0 +1,113 @@
+package org.trostheide.lif.bench;
+
+import org.trostheide.lif.photoorg.DateExtractor;
+
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The cascade of regular expressions {@link DateExtractor} classified folder names with
+ * before {@link DateExtractor#classify}, kept verbatim (patterns, order and qualifier
+ * clean-up) as the baseline for {@link DateExtractorBenchmark}. lif-photo-org's
+ * DateExtractorTest checks {@link DateExtractor#classify} against the same copy.
+ */
+final class RegexDateRules {
+    private static final Map<String, Month> ALL_MONTHS = new HashMap<>();
+    static {
+        String[][] names = {
+                {"januar", "january"}, {"februar", "february"}, {"märz", "maerz", "march"},
+                {"april"}, {"mai", "may"}, {"juni", "june"}, {"juli", "july"}, {"august"},
+                {"september"}, {"oktober", "october"}, {"november"}, {"dezember", "december"}
+        };
+        for (int i = 0; i < names.length; i++) {
+            for (String name : names[i]) ALL_MONTHS.put(name, Month.of(i + 1));
+        }
+    }
+
+    private static final String MONTH_REGEX_PART = String.join("|", ALL_MONTHS.keySet());
+    private static final String YEAR_REGEX_PART = "(19[89]\\d|20\\d\\d)";
+
+    private static final Pattern QUALIFIER_MONTH_YEAR_PATTERN = Pattern.compile(
+            "^(.*?)\\s+(" + MONTH_REGEX_PART + ")\\s+" + YEAR_REGEX_PART + "\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern YEAR_MONTH_QUALIFIER_PATTERN = Pattern.compile(
+            "^" + YEAR_REGEX_PART + "\\s+(" + MONTH_REGEX_PART + ")\\s+(.*?)\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern YYYY_MM_QUALIFIER_PATTERN = Pattern.compile(
+            "^" + YEAR_REGEX_PART + "[-_](\\d{1,2})\\s+(.*?)\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern MONTH_YEAR_PATTERN = Pattern.compile(
+            "^(" + MONTH_REGEX_PART + ")\\s+" + YEAR_REGEX_PART + "\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern YEAR_MONTH_PATTERN = Pattern.compile(
+            "^" + YEAR_REGEX_PART + "\\s+(" + MONTH_REGEX_PART + ")\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern YYYY_MM_ONLY_PATTERN = Pattern.compile(
+            "^" + YEAR_REGEX_PART + "[-_](\\d{1,2})\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern YYYY_QUALIFIER_PATTERN = Pattern.compile(
+            "^" + YEAR_REGEX_PART + "\\s+[-_]?\\s+(.*?)\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern YYYY_ONLY_PATTERN = Pattern.compile(
+            "^" + YEAR_REGEX_PART + "$");
+
+    private RegexDateRules() {
+    }
+
+    static DateExtractor.PathInfo classify(String dirName) {
+        Matcher m;
+
+        // PRIORITY 1: Patterns with month names are most specific.
+        m = QUALIFIER_MONTH_YEAR_PATTERN.matcher(dirName);
+        if (m.matches()) {
+            return monthName(m.group(3), m.group(2), sanitizeQualifier(m.group(1)));
+        }
+        m = YEAR_MONTH_QUALIFIER_PATTERN.matcher(dirName);
+        if (m.matches()) {
+            return monthName(m.group(1), m.group(2), sanitizeQualifier(m.group(3)));
+        }
+        m = MONTH_YEAR_PATTERN.matcher(dirName);
+        if (m.matches()) {
+            return monthName(m.group(2), m.group(1), null);
+        }
+        m = YEAR_MONTH_PATTERN.matcher(dirName);
+        if (m.matches()) {
+            return monthName(m.group(1), m.group(2), null);
+        }
+
+        // PRIORITY 2: Patterns with YYYY-MM format.
+        m = YYYY_MM_QUALIFIER_PATTERN.matcher(dirName);
+        if (m.matches()) {
+            return numeric(m.group(1), m.group(2), sanitizeQualifier(m.group(3)));
+        }
+        m = YYYY_MM_ONLY_PATTERN.matcher(dirName);
+        if (m.matches()) {
+            return numeric(m.group(1), m.group(2), null);
+        }
+
+        // PRIORITY 3: Generic patterns as a last resort.
+        m = YYYY_QUALIFIER_PATTERN.matcher(dirName);
+        if (m.matches()) {
+            return numeric(m.group(1), "1", sanitizeQualifier(m.group(2)));
+        }
+        m = YYYY_ONLY_PATTERN.matcher(dirName);
+        if (m.matches()) {
+            return numeric(m.group(1), "1", null);
+        }
+        return null;
+    }
+
+    private static DateExtractor.PathInfo monthName(String year, String month, String qualifier) {
+        return new DateExtractor.PathInfo(
+                LocalDate.of(Integer.parseInt(year), ALL_MONTHS.get(month.toLowerCase()), 1), qualifier);
+    }
+
+    private static DateExtractor.PathInfo numeric(String year, String month, String qualifier) {
+        return new DateExtractor.PathInfo(LocalDate.of(Integer.parseInt(year), Integer.parseInt(month), 1), qualifier);
+    }
+
+    private static String sanitizeQualifier(String raw) {
+        if (raw == null) return null;
+        String cleaned = raw.trim()
+                .replaceAll("[^a-zA-Z0-9\\säöüÄÖÜß-]", "")
+                .replaceAll("\\s+", " ");
+        return cleaned.isEmpty() ? null : cleaned;
+    }
+}
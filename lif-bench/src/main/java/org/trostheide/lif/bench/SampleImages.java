@@ -0,0 +1,74 @@
+package org.trostheide.lif.bench;
+
+import org.apache.commons.imaging.formats.jpeg.exif.ExifRewriter;
+import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
+import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates camera-like JPEGs (noise over a gradient, so they compress like photos)
+ * with an EXIF block, since the repository ships no sample images.
+ */
+final class SampleImages {
+
+    private SampleImages() {
+    }
+
+    /**
+     * Writes a 3:2 JPEG of roughly {@code megapixels} with DateTimeOriginal, Make and Model.
+     */
+    static Path jpegWithExif(Path file, double megapixels) throws Exception {
+        return jpegWithExif(file, megapixels, 24);
+    }
+
+    /**
+     * Like {@link #jpegWithExif(Path, double)}, with noise of {@code noise} levels peak to
+     * peak; the less noise, the less fine detail the image has.
+     */
+    static Path jpegWithExif(Path file, double megapixels, int noise) throws Exception {
+        int width = (int) Math.sqrt(megapixels * 1_000_000 * 3 / 2);
+        int height = width * 2 / 3;
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, new Color(40, 90, 160), width, height, new Color(230, 200, 120)));
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int n = random.nextInt(noise) - noise / 2;
+                int rgb = img.getRGB(x, y);
+                int r = clamp(((rgb >> 16) & 0xFF) + n);
+                int gr = clamp(((rgb >> 8) & 0xFF) + n);
+                int b = clamp((rgb & 0xFF) + n);
+                img.setRGB(x, y, (r << 16) | (gr << 8) | b);
+            }
+        }
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        ImageIO.write(img, "jpg", plain);
+
+        TiffOutputSet exif = new TiffOutputSet();
+        exif.getOrCreateRootDirectory().add(TiffTagConstants.TIFF_TAG_MAKE, "Canon");
+        exif.getOrCreateRootDirectory().add(TiffTagConstants.TIFF_TAG_MODEL, "Canon EOS R5");
+        exif.getOrCreateExifDirectory().add(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL, "2021:07:14 18:30:05");
+        ByteArrayOutputStream withExif = new ByteArrayOutputStream(plain.size() + 4096);
+        new ExifRewriter().updateExifMetadataLossy(plain.toByteArray(), withExif, exif);
+        Files.createDirectories(file.getParent());
+        Files.write(file, withExif.toByteArray());
+        return file;
+    }
+
+    private static int clamp(int v) {
+        return Math.max(0, Math.min(255, v));
+    }
+}
@@ -0,0 +1,88 @@
+package org.trostheide.lif.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.trostheide.lif.core.ChangeSet;
+import org.trostheide.lif.core.DirectorySnapshot;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scanning generated trees: the recursive walk photo-org did before snapshots
+ * ({@link RecursiveScan}), a full {@link DirectorySnapshot} scan (what a first run costs)
+ * and a rescan of the unchanged tree (what a delta run costs).
+ * {@code tree} is "directories x files per directory", spread over two levels.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanBenchmark {
+
+    @Param({"50x20", "200x50", "1000x50"})
+    public String tree;
+
+    private Path root;
+    private DirectorySnapshot snapshot;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Quiet.on();
+        String[] dims = tree.split("x");
+        int dirs = Integer.parseInt(dims[0]);
+        int files = Integer.parseInt(dims[1]);
+        root = TempDirs.create("scan");
+        // old enough that the snapshot does not treat the directories as recently modified
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 3_600_000);
+        for (int d = 0; d < dirs; d++) {
+            Path dir = Files.createDirectories(root.resolve(String.valueOf(2000 + d % 25)).resolve("Event " + d));
+            for (int f = 0; f < files; f++) {
+                String ext = f % 5 == 0 ? ".CR2" : f % 7 == 0 ? ".xmp" : ".jpg";
+                Files.write(dir.resolve("IMG_" + f + ext), new byte[0]);
+            }
+        }
+        try (var paths = Files.walk(root)) {
+            paths.filter(Files::isDirectory).forEach(p -> p.toFile().setLastModified(old.toMillis()));
+        }
+        snapshot = DirectorySnapshot.scan(root, null).snapshot();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        TempDirs.delete(root);
+        Quiet.off();
+    }
+
+    @Benchmark
+    public List<File> recursiveScan() {
+        return RecursiveScan.scan(root.toFile());
+    }
+
+    @Benchmark
+    public ChangeSet snapshotFullScan() throws Exception {
+        return DirectorySnapshot.scan(root, null);
+    }
+
+    @Benchmark
+    public ChangeSet snapshotDeltaScan() throws Exception {
+        return DirectorySnapshot.scan(root, snapshot);
+    }
+}
@@ -0,0 +1,27 @@
+package org.trostheide.lif.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Scratch directories for generated fixtures.
+ */
+final class TempDirs {
+
+    private TempDirs() {
+    }
+
+    static Path create(String prefix) throws IOException {
+        return Files.createTempDirectory("lif-bench-" + prefix);
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
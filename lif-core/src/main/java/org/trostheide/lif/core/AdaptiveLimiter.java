@@ -0,0 +1,212 @@
+package org.trostheide.lif.core;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Concurrency limit that adapts to how the work behaves, instead of a fixed thread count.
+ * <p>
+ * Callers wrap each task in {@link #acquire()} / {@link #release(long)}. After every
+ * window of completed tasks the limit is adjusted AIMD-style:
+ * <ul>
+ *   <li>decreased by a quarter if the window's mean latency exceeds
+ *       {@code LATENCY_TOLERANCE} times the baseline (the lowest latency seen, drifting
+ *       slowly upwards), or if heap after GC or free physical memory runs short;</li>
+ *   <li>increased by one if the limit was actually reached during the window and the
+ *       CPU is not saturated;</li>
+ *   <li>kept otherwise.</li>
+ * </ul>
+ * So I/O-bound work (e.g. a NAS) grows until latency starts to climb, CPU-bound work
+ * settles where the CPU is busy, and memory-hungry work (darktable) backs off before
+ * the machine swaps. A limiter with {@code min == max} never changes, see {@link #fixed}.
+ */
+public class AdaptiveLimiter {
+    private static final Logger log = LoggerService.getLogger(AdaptiveLimiter.class);
+    private static final double LATENCY_TOLERANCE = 1.5;
+    private static final double DECREASE_FACTOR = 0.75;
+    private static final double BASELINE_DRIFT = 0.02;
+    private static final int MIN_WINDOW_SAMPLES = 8;
+    private static final long MIN_WINDOW_NANOS = 500_000_000L;
+    private static final double CPU_SATURATED = 0.95;
+    private static final double HEAP_PRESSURE = 0.85;
+    private static final double FREE_MEMORY_RESERVE = 0.05;
+
+    private final String name;
+    private final int min;
+    private final int max;
+    private int limit;
+    private int inFlight;
+    private int peakInFlight;
+    private long windowStart = System.nanoTime();
+    private long windowSamples;
+    private long windowNanos;
+    private double baselineNanos = Double.NaN;
+
+    /**
+     * @param name    used in logs and progress output
+     * @param initial starting limit
+     * @param min     lower bound of the limit
+     * @param max     upper bound of the limit; callers need at least this many threads
+     */
+    public AdaptiveLimiter(String name, int initial, int min, int max) {
+        this.name = name;
+        this.min = Math.max(1, min);
+        this.max = Math.max(this.min, max);
+        this.limit = Math.max(this.min, Math.min(this.max, initial));
+    }
+
+    /**
+     * A limiter that stays at {@code limit}, for an explicit thread count.
+     */
+    public static AdaptiveLimiter fixed(String name, int limit) {
+        return new AdaptiveLimiter(name, limit, limit, limit);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public synchronized int limit() {
+        return limit;
+    }
+
+    public int max() {
+        return max;
+    }
+
+    public boolean isAdaptive() {
+        return min < max;
+    }
+
+    /**
+     * Blocks until fewer than {@link #limit()} tasks are in flight.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= limit) {
+            wait();
+        }
+        inFlight++;
+        peakInFlight = Math.max(peakInFlight, inFlight);
+    }
+
+    /**
+     * Ends a task that completed normally.
+     *
+     * @param latencyNanos time the task took, excluding time spent in {@link #acquire()}
+     */
+    public synchronized void release(long latencyNanos) {
+        inFlight--;
+        windowSamples++;
+        windowNanos += latencyNanos;
+        long now = System.nanoTime();
+        if (isAdaptive() && windowSamples >= Math.max(MIN_WINDOW_SAMPLES, limit) && now - windowStart >= MIN_WINDOW_NANOS) {
+            adjust(now);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Ends a task that failed. Its latency says nothing about load, so it is not sampled.
+     */
+    public synchronized void releaseFailed() {
+        inFlight--;
+        notifyAll();
+    }
+
+    private void adjust(long now) {
+        double mean = (double) windowNanos / windowSamples;
+        if (Double.isNaN(baselineNanos) || mean < baselineNanos) {
+            baselineNanos = mean;
+        } else {
+            // lets the baseline follow lasting changes, e.g. larger files later in the run
+            baselineNanos += (mean - baselineNanos) * BASELINE_DRIFT;
+        }
+        int previous = limit;
+        String reason = null;
+        if (mean > baselineNanos * LATENCY_TOLERANCE) {
+            reason = String.format("latency %.0f ms vs baseline %.0f ms", mean / 1e6, baselineNanos / 1e6);
+        } else if (memoryShort()) {
+            reason = "memory headroom low";
+        }
+        if (reason != null) {
+            limit = Math.max(min, (int) (limit * DECREASE_FACTOR));
+        } else if (peakInFlight >= limit && cpuLoad() < CPU_SATURATED) {
+            limit = Math.min(max, limit + 1);
+        }
+        if (limit != previous) {
+            log.debug("{} limit {} -> {}{}", name, previous, limit, reason != null ? " (" + reason + ")" : "");
+        }
+        windowStart = now;
+        windowSamples = 0;
+        windowNanos = 0;
+        peakInFlight = inFlight;
+    }
+
+    /**
+     * System-wide CPU load between 0 and 1, or 0 if the JVM cannot tell.
+     */
+    private static double cpuLoad() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean sun) {
+            double load = sun.getCpuLoad();
+            return load >= 0 ? load : 0;
+        }
+        return 0;
+    }
+
+    /**
+     * True if the heap is nearly full even right after GC, or the machine (including
+     * child processes such as darktable) is about to run out of physical memory.
+     */
+    private static boolean memoryShort() {
+        long usedAfterGc = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null) {
+                usedAfterGc += pool.getCollectionUsage().getUsed();
+            }
+        }
+        long maxHeap = Runtime.getRuntime().maxMemory();
+        if (maxHeap != Long.MAX_VALUE && usedAfterGc > maxHeap * HEAP_PRESSURE) {
+            return true;
+        }
+        return availableMemoryRatio() < FREE_MEMORY_RESERVE;
+    }
+
+    /**
+     * Share of physical memory still available. On Linux this is MemAvailable, which
+     * counts reclaimable page cache; the JVM's free memory figure does not, and is
+     * close to zero on any machine that has been reading files for a while.
+     */
+    private static double availableMemoryRatio() {
+        Path meminfo = Path.of("/proc/meminfo");
+        if (Files.isReadable(meminfo)) {
+            try {
+                long total = -1;
+                long available = -1;
+                for (String line : Files.readAllLines(meminfo)) {
+                    if (line.startsWith("MemTotal:")) total = parseKb(line);
+                    else if (line.startsWith("MemAvailable:")) available = parseKb(line);
+                }
+                if (total > 0 && available >= 0) return (double) available / total;
+            } catch (IOException | NumberFormatException e) {
+                // fall back to the JVM's view
+            }
+        }
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean sun && sun.getTotalMemorySize() > 0) {
+            return (double) sun.getFreeMemorySize() / sun.getTotalMemorySize();
+        }
+        return 1;
+    }
+
+    private static long parseKb(String line) {
+        return Long.parseLong(line.replaceAll("[^0-9]", ""));
+    }
+}
@@ -0,0 +1,342 @@
+package org.trostheide.lif.core;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Read-only, memory-mapped index answering "has this source (with this size and mtime)
+ * already been rendered?" without parsing the JSON index.
+ * <p>
+ * Layout (little endian):
+ * <pre>
+ * header    magic, version, count, slots, restart interval, section offsets
+ * records   count x 32 bytes: pathHash, size, mtime, contentHash
+ * table     slots x int: record number + 1 (0 = empty), open addressing on pathHash
+ * restarts  per block of {@value #RESTART_INTERVAL} entries: offset into sources, offset into outputs
+ * sources   front-coded source paths, sorted (varint shared, varint suffix length, suffix bytes)
+ * outputs   front-coded output paths in record order
+ * </pre>
+ * Lookups hash the path string directly and compare it against the decoded entry in a
+ * per-thread scratch buffer, so {@link #contains} does not allocate.
+ */
+public class BinaryIndex implements Closeable {
+    private static final long MAGIC = 0x313058444946494CL; // "LIFIDX01"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 32;
+    private static final int RESTART_INTERVAL = 16;
+    private static final double MAX_LOAD = 0.7;
+
+    /**
+     * One index row. {@code contentHash} is 0 when unknown.
+     */
+    public record Entry(String source, String output, long size, long mtime, long contentHash) {}
+
+    private final FileChannel channel;
+    private final int count;
+    private final int slotMask;
+    private final ByteBuffer records;
+    private final ByteBuffer table;
+    private final ByteBuffer restarts;
+    private final ByteBuffer sources;
+    private final ByteBuffer outputs;
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    /** Per-thread decode buffer, reused across lookups. */
+    private static final class Scratch {
+        byte[] buf = new byte[512];
+        int len;
+    }
+
+    private BinaryIndex(FileChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = map(channel, 0, HEADER_SIZE);
+        if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION) {
+            throw new IOException("Not a lif binary index (or unsupported version)");
+        }
+        this.count = header.getInt(12);
+        int slots = header.getInt(16);
+        this.slotMask = slots - 1;
+        long sourcesOffset = header.getLong(24);
+        long outputsOffset = header.getLong(32);
+        long end = header.getLong(40);
+
+        long recordsOffset = HEADER_SIZE;
+        long tableOffset = recordsOffset + (long) count * RECORD_SIZE;
+        long restartsOffset = tableOffset + (long) slots * Integer.BYTES;
+        this.records = map(channel, recordsOffset, tableOffset - recordsOffset);
+        this.table = map(channel, tableOffset, restartsOffset - tableOffset);
+        this.restarts = map(channel, restartsOffset, sourcesOffset - restartsOffset);
+        this.sources = map(channel, sourcesOffset, outputsOffset - sourcesOffset);
+        this.outputs = map(channel, outputsOffset, end - outputsOffset);
+    }
+
+    /**
+     * Maps an index file. Only the header is touched; pages are faulted in on demand.
+     */
+    public static BinaryIndex open(File file) throws IOException {
+        FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new BinaryIndex(ch);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * True if {@code source} is indexed with exactly this size and mtime.
+     */
+    public boolean contains(String source, long size, long mtime) {
+        return find(source, size, mtime) >= 0;
+    }
+
+    /**
+     * Returns the recorded output for {@code source} if its size and mtime still match, else null.
+     */
+    public String outputFor(String source, long size, long mtime) {
+        int rec = find(source, size, mtime);
+        if (rec < 0) return null;
+        Scratch s = decode(outputs, restarts.getInt((rec / RESTART_INTERVAL) * 8 + 4), rec % RESTART_INTERVAL);
+        return new String(s.buf, 0, s.len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the recorded content hash for {@code source}, or 0 if unknown or stale.
+     */
+    public long contentHash(String source, long size, long mtime) {
+        int rec = find(source, size, mtime);
+        return rec < 0 ? 0 : records.getLong(rec * RECORD_SIZE + 24);
+    }
+
+    private int find(String source, long size, long mtime) {
+        if (count == 0) return -1;
+        long hash = hash(source);
+        int slot = (int) mix(hash) & slotMask;
+        while (true) {
+            int ref = table.getInt(slot * Integer.BYTES);
+            if (ref == 0) return -1;
+            int rec = ref - 1;
+            int base = rec * RECORD_SIZE;
+            if (records.getLong(base) == hash && pathEquals(rec, source)) {
+                if (records.getLong(base + 8) == size && records.getLong(base + 16) == mtime) {
+                    return rec;
+                }
+                return -1;
+            }
+            slot = (slot + 1) & slotMask;
+        }
+    }
+
+    private boolean pathEquals(int rec, String source) {
+        Scratch s = decode(sources, restarts.getInt((rec / RESTART_INTERVAL) * 8), rec % RESTART_INTERVAL);
+        return utf8Equals(s.buf, s.len, source);
+    }
+
+    /**
+     * Decodes the entry {@code skip} positions after a restart point into the scratch buffer.
+     */
+    private Scratch decode(ByteBuffer section, int offset, int skip) {
+        Scratch holder = scratch.get();
+        byte[] buf = holder.buf;
+        int pos = offset;
+        int len = 0;
+        for (int i = 0; i <= skip; i++) {
+            int shared = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = section.get(pos++);
+                shared |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            int suffix = 0;
+            shift = 0;
+            do {
+                b = section.get(pos++);
+                suffix |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            len = shared + suffix;
+            if (len > buf.length) {
+                byte[] grown = new byte[Math.max(len, buf.length * 2)];
+                System.arraycopy(buf, 0, grown, 0, shared);
+                buf = grown;
+                holder.buf = buf;
+            }
+            section.get(pos, buf, shared, suffix);
+            pos += suffix;
+        }
+        holder.len = len;
+        return holder;
+    }
+
+    private static boolean utf8Equals(byte[] b, int len, String s) {
+        int i = 0;
+        int j = 0;
+        int n = s.length();
+        while (i < len) {
+            int c = b[i] & 0xFF;
+            int cp;
+            if (c < 0x80) {
+                cp = c;
+                i += 1;
+            } else if (c < 0xE0) {
+                cp = ((c & 0x1F) << 6) | (b[i + 1] & 0x3F);
+                i += 2;
+            } else if (c < 0xF0) {
+                cp = ((c & 0x0F) << 12) | ((b[i + 1] & 0x3F) << 6) | (b[i + 2] & 0x3F);
+                i += 3;
+            } else {
+                cp = ((c & 0x07) << 18) | ((b[i + 1] & 0x3F) << 12) | ((b[i + 2] & 0x3F) << 6) | (b[i + 3] & 0x3F);
+                i += 4;
+            }
+            if (j >= n) return false;
+            int sc = s.codePointAt(j);
+            if (sc != cp) return false;
+            j += Character.charCount(sc);
+        }
+        return j == n;
+    }
+
+    /**
+     * FNV-1a over the UTF-16 code units; computed identically by writer and reader.
+     */
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Writes a new index file atomically. When a source occurs several times the last entry wins.
+     */
+    public static void write(File file, List<Entry> entries) throws IOException {
+        List<Entry> sorted = new ArrayList<>(entries.size());
+        // stable sort keeps the original order among equal sources, so the last one is the newest
+        List<Entry> bySource = new ArrayList<>(entries);
+        bySource.sort(Comparator.comparing(Entry::source));
+        for (int i = 0; i < bySource.size(); i++) {
+            if (i + 1 < bySource.size() && bySource.get(i + 1).source().equals(bySource.get(i).source())) continue;
+            sorted.add(bySource.get(i));
+        }
+
+        int count = sorted.size();
+        int slots = Integer.highestOneBit(Math.max(2, (int) Math.ceil(count / MAX_LOAD)) - 1) << 1;
+        int blocks = (count + RESTART_INTERVAL - 1) / RESTART_INTERVAL;
+
+        ByteBuffer recordBuf = ByteBuffer.allocate(count * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer tableBuf = ByteBuffer.allocate(slots * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer restartBuf = ByteBuffer.allocate(blocks * 8).order(ByteOrder.LITTLE_ENDIAN);
+        ByteArrayOutputStream sourceBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream outputBytes = new ByteArrayOutputStream();
+        byte[] prevSource = new byte[0];
+        byte[] prevOutput = new byte[0];
+
+        for (int i = 0; i < count; i++) {
+            Entry e = sorted.get(i);
+            long hash = hash(e.source());
+            recordBuf.putLong(hash).putLong(e.size()).putLong(e.mtime()).putLong(e.contentHash());
+
+            int slot = (int) mix(hash) & (slots - 1);
+            while (tableBuf.getInt(slot * Integer.BYTES) != 0) {
+                slot = (slot + 1) & (slots - 1);
+            }
+            tableBuf.putInt(slot * Integer.BYTES, i + 1);
+
+            if (i % RESTART_INTERVAL == 0) {
+                restartBuf.putInt(sourceBytes.size()).putInt(outputBytes.size());
+                prevSource = new byte[0];
+                prevOutput = new byte[0];
+            }
+            prevSource = appendFrontCoded(sourceBytes, prevSource, e.source());
+            prevOutput = appendFrontCoded(outputBytes, prevOutput, e.output() != null ? e.output() : "");
+        }
+
+        long sourcesOffset = HEADER_SIZE + (long) count * RECORD_SIZE + (long) slots * Integer.BYTES + (long) blocks * 8;
+        long outputsOffset = sourcesOffset + sourceBytes.size();
+        long end = outputsOffset + outputBytes.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(MAGIC).putInt(VERSION).putInt(count).putInt(slots).putInt(RESTART_INTERVAL)
+                .putLong(sourcesOffset).putLong(outputsOffset).putLong(end);
+
+        File parent = file.getParentFile();
+        if (parent != null) parent.mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath()), 1 << 16))) {
+            out.write(header.array());
+            out.write(recordBuf.array());
+            out.write(tableBuf.array());
+            out.write(restartBuf.array());
+            sourceBytes.writeTo(out);
+            outputBytes.writeTo(out);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static byte[] appendFrontCoded(ByteArrayOutputStream out, byte[] prev, String value) {
+        byte[] cur = value.getBytes(StandardCharsets.UTF_8);
+        int shared = 0;
+        int max = Math.min(prev.length, cur.length);
+        while (shared < max && prev[shared] == cur[shared]) shared++;
+        // never split a multi-byte UTF-8 sequence between prefix and suffix
+        while (shared > 0 && shared < cur.length && (cur[shared] & 0xC0) == 0x80) shared--;
+        writeVarInt(out, shared);
+        writeVarInt(out, cur.length - shared);
+        out.write(cur, shared, cur.length - shared);
+        return cur;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static ByteBuffer map(FileChannel ch, long offset, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Index section too large to map: " + length + " bytes");
+        }
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        return buf;
+    }
+}
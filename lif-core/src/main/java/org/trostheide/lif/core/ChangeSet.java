@@ -0,0 +1,33 @@
+package org.trostheide.lif.core;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Difference between two {@link DirectorySnapshot}s of the same tree.
+ *
+ * @param snapshot           the new snapshot; save it once the changes have been handled
+ * @param added              files that did not exist before
+ * @param changed            files whose size or mtime differ
+ * @param removed            files that no longer exist
+ * @param listedDirectories  directories that were new or modified and therefore re-listed
+ * @param unchangedFiles     number of files carried over without looking at them
+ * @param visitedDirectories number of directories checked (stat only, unless listed)
+ */
+public record ChangeSet(DirectorySnapshot snapshot,
+                        List<Path> added,
+                        List<Path> changed,
+                        List<Path> removed,
+                        List<Path> listedDirectories,
+                        long unchangedFiles,
+                        long visitedDirectories) {
+
+    public boolean isEmpty() {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+
+    public String summary() {
+        return String.format("%d added, %d changed, %d removed, %d unchanged (%d of %d directories listed)",
+                added.size(), changed.size(), removed.size(), unchangedFiles, listedDirectories.size(), visitedDirectories);
+    }
+}
@@ -0,0 +1,174 @@
+package org.trostheide.lif.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Crash-resumable record of a long run.
+ * <p>
+ * {@link #begin} writes the planned work units (file paths) once, or a scan adds them
+ * with {@link #plan(Path)} as it finds them and {@link #sealPlan()} ends the plan; {@link #complete}
+ * appends each finished unit to a group-committed {@link JsonLinesJournal}, so
+ * completions are flushed in batches rather than one {@code fsync} per file. After a
+ * crash, {@link #resume} recovers the journal and {@link #remaining()} yields the
+ * unfinished units without touching the filesystem for the finished ones.
+ */
+public class Checkpoint implements Closeable {
+    private static final Logger log = LoggerService.getLogger(Checkpoint.class);
+    private static final String PLAN_FILE = "plan.txt";
+    private static final String DONE_FILE = "done.jsonl";
+
+    private final File dir;
+    private final List<Path> plan;
+    /** Open while the plan is being added to, see {@link #begin(File)}. */
+    private BufferedWriter planWriter;
+    private final Set<String> done;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonLinesJournal journal;
+
+    private Checkpoint(File dir, List<Path> plan, Set<String> done) throws IOException {
+        this.dir = dir;
+        this.plan = plan;
+        this.done = done;
+        this.journal = new JsonLinesJournal(new File(dir, DONE_FILE), mapper);
+    }
+
+    /**
+     * Starts a new checkpoint for the given units, replacing any previous one in {@code dir}.
+     */
+    public static Checkpoint begin(File dir, Collection<Path> units) throws IOException {
+        Checkpoint checkpoint = begin(dir);
+        for (Path unit : units) checkpoint.plan(unit);
+        checkpoint.sealPlan();
+        return checkpoint;
+    }
+
+    /**
+     * Starts a new checkpoint whose units are added with {@link #plan(Path)} while they are
+     * discovered. Until {@link #sealPlan()}, there is nothing to {@link #resume}: a run
+     * interrupted before its plan was complete starts over.
+     */
+    public static Checkpoint begin(File dir) throws IOException {
+        Files.createDirectories(dir.toPath());
+        // the old plan goes first, so no crash in between leaves a resumable mix
+        Files.deleteIfExists(new File(dir, PLAN_FILE).toPath());
+        Files.deleteIfExists(new File(dir, DONE_FILE).toPath());
+        Checkpoint checkpoint = new Checkpoint(dir, new ArrayList<>(), new HashSet<>());
+        checkpoint.planWriter = Files.newBufferedWriter(new File(dir, PLAN_FILE + ".tmp").toPath(), StandardCharsets.UTF_8);
+        return checkpoint;
+    }
+
+    /**
+     * Adds a unit to a plan started with {@link #begin(File)}.
+     */
+    public synchronized void plan(Path unit) throws IOException {
+        if (planWriter == null) throw new IllegalStateException("Plan of " + dir + " is already sealed");
+        planWriter.write(unit.toAbsolutePath().toString());
+        planWriter.newLine();
+        plan.add(unit);
+    }
+
+    /**
+     * Completes the plan; from now on an interrupted run can be resumed.
+     */
+    public synchronized void sealPlan() throws IOException {
+        if (planWriter == null) return;
+        planWriter.close();
+        planWriter = null;
+        Files.move(new File(dir, PLAN_FILE + ".tmp").toPath(), new File(dir, PLAN_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reopens the checkpoint left in {@code dir} by an interrupted run.
+     *
+     * @return the checkpoint, or null if there is none
+     */
+    public static Checkpoint resume(File dir) throws IOException {
+        File planFile = new File(dir, PLAN_FILE);
+        if (!planFile.exists()) return null;
+        List<Path> plan = new ArrayList<>();
+        try (Stream<String> lines = Files.lines(planFile.toPath(), StandardCharsets.UTF_8)) {
+            lines.filter(l -> !l.isEmpty()).forEach(l -> plan.add(Path.of(l)));
+        }
+        Checkpoint checkpoint = new Checkpoint(dir, plan, new HashSet<>());
+        for (JsonNode e : checkpoint.journal.recover()) {
+            checkpoint.done.add(e.path("unit").asText());
+        }
+        log.info("Resuming checkpoint in {}: {} of {} units done", dir, checkpoint.done.size(), plan.size());
+        return checkpoint;
+    }
+
+    /**
+     * Planned units not recorded as completed, in plan order.
+     */
+    public synchronized List<Path> remaining() {
+        List<Path> remaining = new ArrayList<>();
+        for (Path unit : plan) {
+            if (!done.contains(unit.toAbsolutePath().toString())) remaining.add(unit);
+        }
+        return remaining;
+    }
+
+    public synchronized int planned() {
+        return plan.size();
+    }
+
+    public int completed() {
+        return done.size();
+    }
+
+    /**
+     * Records a unit as finished. Durable after the next group commit; call
+     * {@link #flush()} to wait for it.
+     */
+    public void complete(Path unit) throws IOException {
+        journal.append(mapper.createObjectNode().put("unit", unit.toAbsolutePath().toString()));
+    }
+
+    public void flush() throws IOException {
+        journal.flush();
+    }
+
+    /**
+     * Closes the checkpoint and deletes it; call once the run completed.
+     */
+    public void finish() throws IOException {
+        close();
+        Files.deleteIfExists(new File(dir, PLAN_FILE + ".tmp").toPath());
+        Files.deleteIfExists(new File(dir, DONE_FILE).toPath());
+        Files.deleteIfExists(new File(dir, PLAN_FILE).toPath());
+        Files.deleteIfExists(dir.toPath());
+    }
+
+    /**
+     * Flushes and closes the journal, keeping the checkpoint for a later {@link #resume}
+     * if its plan was sealed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (planWriter != null) {
+                planWriter.close();
+                planWriter = null;
+            }
+        }
+        journal.close();
+    }
+}
@@ -0,0 +1,90 @@
+package org.trostheide.lif.core;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+
+/**
+ * Fails calls fast once an endpoint is clearly down.
+ * <p>
+ * After {@code failureThreshold} consecutive failures the breaker opens and rejects
+ * calls for {@code openMillis}. Then a single trial call is let through (half-open):
+ * success closes the breaker again, failure re-opens it.
+ */
+public class CircuitBreaker {
+    private static final Logger log = LoggerService.getLogger(CircuitBreaker.class);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * Thrown instead of calling the endpoint while the breaker is open.
+     */
+    public static class OpenException extends IOException {
+        public OpenException(String name) {
+            super("Circuit '" + name + "' is open, failing fast");
+        }
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @return true if a call may proceed now; callers must report its result via
+     * {@link #onSuccess()} or {@link #onFailure()}
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < openMillis) return false;
+                state = State.HALF_OPEN;
+                trialInFlight = true;
+                return true;
+            default:
+                if (trialInFlight) return false;
+                trialInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            log.info("Circuit '{}' closed again", name);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        trialInFlight = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                log.warn("Circuit '{}' opened after {} consecutive failures", name, consecutiveFailures);
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    public String name() {
+        return name;
+    }
+}
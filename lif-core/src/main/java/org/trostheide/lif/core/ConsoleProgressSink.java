@@ -0,0 +1,11 @@
+package org.trostheide.lif.core;
+
+/**
+ * Prints progress lines to stdout.
+ */
+public class ConsoleProgressSink implements ProgressSink {
+    @Override
+    public void report(ProgressSnapshot snapshot) {
+        System.out.println(snapshot.format());
+    }
+}
@@ -0,0 +1,104 @@
+package org.trostheide.lif.core;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Lists one directory with the attributes of each entry, stat-ing every entry exactly once.
+ * <p>
+ * Meant to be called from the tasks of a {@link #newPool(String) scan pool}: in directories
+ * with many entries the stat calls are split into chunks that run in parallel, which pays
+ * off on network file systems where each stat is a round trip.
+ */
+public final class DirectoryListing {
+    /** Entries per parallel stat chunk; smaller directories are stat-ed by the listing thread. */
+    private static final int STAT_CHUNK = 512;
+
+    /** One entry; for a symbolic link, {@code attrs} describe its target. */
+    public record Entry(Path path, BasicFileAttributes attrs) {
+        public String name() {
+            return path.getFileName().toString();
+        }
+    }
+
+    private DirectoryListing() {
+    }
+
+    /**
+     * Pool for walking trees: more threads than cores, since the walk mostly waits for the
+     * file system. Its threads are daemons, so an abandoned walk does not keep the JVM alive.
+     */
+    public static ForkJoinPool newPool(String name) {
+        int parallelism = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        return new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName(name + "-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+    }
+
+    /**
+     * Entries of {@code dir} in directory order. Entries that vanish between listing and
+     * stat, and dangling links, are left out.
+     */
+    public static List<Entry> list(Path dir) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path p : stream) paths.add(p);
+        }
+        BasicFileAttributes[] attrs = new BasicFileAttributes[paths.size()];
+        if (paths.size() <= STAT_CHUNK || !(Thread.currentThread() instanceof ForkJoinWorkerThread)) {
+            stat(paths, attrs, 0, paths.size());
+        } else {
+            new StatChunk(paths, attrs, 0, paths.size()).invoke();
+        }
+        List<Entry> entries = new ArrayList<>(paths.size());
+        for (int i = 0; i < attrs.length; i++) {
+            if (attrs[i] != null) entries.add(new Entry(paths.get(i), attrs[i]));
+        }
+        return entries;
+    }
+
+    private static void stat(List<Path> paths, BasicFileAttributes[] attrs, int from, int to) {
+        for (int i = from; i < to; i++) {
+            try {
+                attrs[i] = Files.readAttributes(paths.get(i), BasicFileAttributes.class);
+            } catch (IOException e) {
+                // deleted while listing, or a dangling link
+            }
+        }
+    }
+
+    private static final class StatChunk extends RecursiveAction {
+        private final List<Path> paths;
+        private final BasicFileAttributes[] attrs;
+        private final int from;
+        private final int to;
+
+        StatChunk(List<Path> paths, BasicFileAttributes[] attrs, int from, int to) {
+            this.paths = paths;
+            this.attrs = attrs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= STAT_CHUNK) {
+                stat(paths, attrs, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new StatChunk(paths, attrs, from, mid), new StatChunk(paths, attrs, mid, to));
+        }
+    }
+}
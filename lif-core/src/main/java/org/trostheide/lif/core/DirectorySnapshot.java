@@ -0,0 +1,429 @@
+package org.trostheide.lif.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Persistent picture of a directory tree that makes delta runs cheap.
+ * <p>
+ * For every directory the snapshot keeps its mtime, entry count, the files it contains
+ * (name, size, mtime) and a Merkle-style hash over that metadata and the hashes of its
+ * subdirectories, so the root hash changes whenever anything below it changes.
+ * <p>
+ * Adding, removing or renaming an entry updates the parent directory's mtime. A rescan
+ * therefore only stats known directories and lists just those whose mtime moved; files
+ * of unchanged directories are carried over without being touched. In-place content
+ * edits that keep the directory mtime are not detected (tools that rewrite files via
+ * a temporary file and rename are).
+ */
+public class DirectorySnapshot {
+    private static final Logger log = LoggerService.getLogger(DirectorySnapshot.class);
+    private static final int FORMAT_VERSION = 1;
+    /**
+     * Directories modified this close to the previous scan are re-listed anyway, since a
+     * change within the same mtime tick would be invisible (coarse NAS timestamps).
+     */
+    private static final long RACY_WINDOW_MILLIS = 2_000;
+
+    /** One file in a directory. */
+    public record FileEntry(String name, long size, long mtime) {}
+
+    /** One directory; {@code path} is relative to the root, "" for the root itself. */
+    public record DirEntry(String path, long mtime, int entryCount, long hash,
+                           List<FileEntry> files, List<String> subdirs) {}
+
+    private final Path root;
+    private final long takenAt;
+    private final Map<String, DirEntry> dirs;
+
+    private DirectorySnapshot(Path root, long takenAt, Map<String, DirEntry> dirs) {
+        this.root = root;
+        this.takenAt = takenAt;
+        this.dirs = dirs;
+    }
+
+    /**
+     * A snapshot that knows nothing; scanning against it reports every file as added.
+     */
+    public static DirectorySnapshot empty(Path root) {
+        return new DirectorySnapshot(root.toAbsolutePath().normalize(), 0, new HashMap<>());
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    public long rootHash() {
+        DirEntry r = dirs.get("");
+        return r != null ? r.hash() : 0;
+    }
+
+    public int directoryCount() {
+        return dirs.size();
+    }
+
+    public DirEntry directory(String relativePath) {
+        return dirs.get(relativePath);
+    }
+
+    /**
+     * Forgets a file so the next scan reports it as added again, e.g. because processing
+     * it failed. Its directory is marked modified, forcing a re-listing.
+     */
+    public synchronized void invalidate(Path file) {
+        String rel = relative(file.toAbsolutePath().normalize().getParent());
+        DirEntry d = rel != null ? dirs.get(rel) : null;
+        if (d == null) return;
+        String name = file.getFileName().toString();
+        List<FileEntry> files = new ArrayList<>(d.files());
+        files.removeIf(f -> f.name().equals(name));
+        dirs.put(rel, new DirEntry(rel, -1, d.entryCount(), d.hash(), files, d.subdirs()));
+    }
+
+    /**
+     * Makes the next scan re-list {@code dir} and compare its files, even if the
+     * directory's mtime did not move (as with in-place edits reported by a file watcher).
+     */
+    public synchronized void markModified(Path dir) {
+        String rel = relative(dir.toAbsolutePath().normalize());
+        DirEntry d = rel != null ? dirs.get(rel) : null;
+        if (d == null) return;
+        dirs.put(rel, new DirEntry(rel, -1, d.entryCount(), d.hash(), d.files(), d.subdirs()));
+    }
+
+    /**
+     * The key of {@code path} for {@link #directory(String)}, or null if it lies outside the root.
+     */
+    public String relativePath(Path path) {
+        return path != null ? relative(path.toAbsolutePath().normalize()) : null;
+    }
+
+    private String relative(Path absolute) {
+        if (absolute == null || !absolute.startsWith(root)) return null;
+        return root.relativize(absolute).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Loads a snapshot saved by {@link #save(File)}. Returns an empty snapshot if the file is
+     * missing, unreadable or belongs to a different root.
+     */
+    public static DirectorySnapshot load(File file, Path root) {
+        Path absRoot = root.toAbsolutePath().normalize();
+        if (!file.exists()) {
+            return empty(absRoot);
+        }
+        ObjectMapper mapper = new ObjectMapper();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            JsonNode header = mapper.readTree(reader.readLine());
+            if (header.path("version").asInt() != FORMAT_VERSION || !absRoot.toString().equals(header.path("root").asText())) {
+                log.info("Snapshot {} is for a different tree or format, ignoring it", file.getName());
+                return empty(absRoot);
+            }
+            Map<String, DirEntry> dirs = new HashMap<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                JsonNode n = mapper.readTree(line);
+                List<FileEntry> files = new ArrayList<>(n.path("files").size());
+                for (JsonNode f : n.path("files")) {
+                    files.add(new FileEntry(f.get(0).asText(), f.get(1).asLong(), f.get(2).asLong()));
+                }
+                List<String> subdirs = new ArrayList<>(n.path("dirs").size());
+                for (JsonNode d : n.path("dirs")) subdirs.add(d.asText());
+                String path = n.path("path").asText();
+                dirs.put(path, new DirEntry(path, n.path("mtime").asLong(), n.path("count").asInt(),
+                        n.path("hash").asLong(), files, subdirs));
+            }
+            return new DirectorySnapshot(absRoot, header.path("takenAt").asLong(), dirs);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not read snapshot {}, doing a full scan: {}", file.getName(), e.getMessage());
+            return empty(absRoot);
+        }
+    }
+
+    /**
+     * Writes the snapshot as JSON Lines (a header, then one line per directory), atomically.
+     */
+    public synchronized void save(File file) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        File parent = file.getParentFile();
+        if (parent != null) parent.mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            ObjectNode header = mapper.createObjectNode()
+                    .put("version", FORMAT_VERSION)
+                    .put("root", root.toString())
+                    .put("takenAt", takenAt)
+                    .put("rootHash", rootHash());
+            out.write(mapper.writeValueAsString(header));
+            out.newLine();
+            for (DirEntry d : dirs.values()) {
+                ObjectNode n = mapper.createObjectNode()
+                        .put("path", d.path())
+                        .put("mtime", d.mtime())
+                        .put("count", d.entryCount())
+                        .put("hash", d.hash());
+                ArrayNode subdirs = n.putArray("dirs");
+                d.subdirs().forEach(subdirs::add);
+                ArrayNode files = n.putArray("files");
+                for (FileEntry f : d.files()) {
+                    files.addArray().add(f.name()).add(f.size()).add(f.mtime());
+                }
+                out.write(mapper.writeValueAsString(n));
+                out.newLine();
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Scans {@code root}, descending into every known directory but listing only the new
+     * and modified ones, and reports what changed relative to {@code previous}.
+     */
+    public static ChangeSet scan(Path root, DirectorySnapshot previous) throws IOException {
+        return scan(root, previous, null);
+    }
+
+    /**
+     * Called for each added or changed file as soon as its directory has been listed, from
+     * the scan's threads and possibly concurrently. May block to slow the scan down.
+     */
+    @FunctionalInterface
+    public interface FileListener {
+        void found(Path file, FileEntry entry) throws InterruptedException;
+    }
+
+    /**
+     * Like {@link #scan(Path, DirectorySnapshot)}, and also reports added and changed files
+     * to {@code listener} while the scan is running, so they can be processed before it ends.
+     * <p>
+     * Subdirectories are scanned in parallel on a {@link DirectoryListing#newPool pool} of
+     * its own. The lists in the returned {@link ChangeSet} are sorted by path.
+     */
+    public static ChangeSet scan(Path root, DirectorySnapshot previous, FileListener listener) throws IOException {
+        Path absRoot = root.toAbsolutePath().normalize();
+        if (previous == null || !previous.root.equals(absRoot)) {
+            previous = empty(absRoot);
+        }
+        Scan scan = new Scan(previous, listener);
+        long started = System.currentTimeMillis();
+        ForkJoinPool pool = DirectoryListing.newPool("lif-scan");
+        try {
+            Visit visit = new Visit(scan, "", absRoot);
+            pool.invoke(visit);
+            if (visit.error != null) throw visit.error;
+        } finally {
+            pool.shutdownNow();
+        }
+        DirectorySnapshot next = new DirectorySnapshot(absRoot, started, new HashMap<>(scan.dirs));
+        return new ChangeSet(next, sorted(scan.added), sorted(scan.changed), sorted(scan.removed),
+                sorted(scan.listed), scan.unchangedFiles.sum(), scan.visited.sum());
+    }
+
+    private static List<Path> sorted(Collection<Path> paths) {
+        List<Path> list = new ArrayList<>(paths);
+        Collections.sort(list);
+        return list;
+    }
+
+    /** State shared by the tasks of one scan. */
+    private static final class Scan {
+        final DirectorySnapshot previous;
+        final FileListener listener;
+        final Map<String, DirEntry> dirs = new ConcurrentHashMap<>();
+        final Queue<Path> added = new ConcurrentLinkedQueue<>();
+        final Queue<Path> changed = new ConcurrentLinkedQueue<>();
+        final Queue<Path> removed = new ConcurrentLinkedQueue<>();
+        final Queue<Path> listed = new ConcurrentLinkedQueue<>();
+        final LongAdder unchangedFiles = new LongAdder();
+        final LongAdder visited = new LongAdder();
+
+        Scan(DirectorySnapshot previous, FileListener listener) {
+            this.previous = previous;
+            this.listener = listener;
+        }
+
+        private void list(Path dir, List<FileEntry> files, List<String> subdirs) throws IOException {
+            for (DirectoryListing.Entry e : DirectoryListing.list(dir)) {
+                if (e.attrs().isDirectory()) {
+                    subdirs.add(e.name());
+                } else if (e.attrs().isRegularFile()) {
+                    files.add(new FileEntry(e.name(), e.attrs().size(), e.attrs().lastModifiedTime().toMillis()));
+                }
+            }
+            files.sort((a, b) -> a.name().compareTo(b.name()));
+            Collections.sort(subdirs);
+        }
+
+        private void diffFiles(Path dir, DirEntry prev, List<FileEntry> files) throws InterruptedIOException {
+            Map<String, FileEntry> before = new HashMap<>();
+            if (prev != null) {
+                for (FileEntry f : prev.files()) before.put(f.name(), f);
+            }
+            for (FileEntry f : files) {
+                FileEntry old = before.remove(f.name());
+                if (old == null) {
+                    found(added, dir.resolve(f.name()), f);
+                } else if (old.size() != f.size() || old.mtime() != f.mtime()) {
+                    found(changed, dir.resolve(f.name()), f);
+                } else {
+                    unchangedFiles.increment();
+                }
+            }
+            for (String gone : before.keySet()) {
+                removed.add(dir.resolve(gone));
+            }
+        }
+
+        private void found(Queue<Path> list, Path file, FileEntry entry) throws InterruptedIOException {
+            list.add(file);
+            if (listener == null) return;
+            try {
+                listener.found(file, entry);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Scan interrupted at " + file);
+            }
+        }
+
+        private void removeTree(String rel, Path dir) {
+            DirEntry old = previous.dirs.get(rel);
+            if (old == null) return;
+            for (FileEntry f : old.files()) removed.add(dir.resolve(f.name()));
+            for (String sub : old.subdirs()) removeTree(child(rel, sub), dir.resolve(sub));
+        }
+
+        private void copyTree(String rel) {
+            DirEntry old = previous.dirs.get(rel);
+            if (old == null) return;
+            dirs.put(rel, old);
+            for (String sub : old.subdirs()) copyTree(child(rel, sub));
+        }
+
+        private static String child(String rel, String name) {
+            return rel.isEmpty() ? name : rel + "/" + name;
+        }
+    }
+
+    /**
+     * Scans one directory, forks a task per subdirectory and returns the directory's hash
+     * once they are done. A failure is kept in {@link #error} for the parent to handle.
+     */
+    private static final class Visit extends RecursiveTask<Long> {
+        final Scan scan;
+        final String rel;
+        final Path dir;
+        IOException error;
+
+        Visit(Scan scan, String rel, Path dir) {
+            this.scan = scan;
+            this.rel = rel;
+            this.dir = dir;
+        }
+
+        @Override
+        protected Long compute() {
+            try {
+                return visit();
+            } catch (IOException e) {
+                error = e;
+                return 0L;
+            }
+        }
+
+        private long visit() throws IOException {
+            scan.visited.increment();
+            long mtime = Files.getLastModifiedTime(dir).toMillis();
+            DirEntry prev = scan.previous.dirs.get(rel);
+            List<FileEntry> files;
+            List<String> subdirs;
+            if (prev != null && prev.mtime() == mtime && mtime < scan.previous.takenAt - RACY_WINDOW_MILLIS) {
+                files = prev.files();
+                subdirs = prev.subdirs();
+                scan.unchangedFiles.add(files.size());
+            } else {
+                files = new ArrayList<>();
+                subdirs = new ArrayList<>();
+                scan.list(dir, files, subdirs);
+                scan.listed.add(dir);
+                scan.diffFiles(dir, prev, files);
+                if (prev != null) {
+                    for (String gone : prev.subdirs()) {
+                        if (!subdirs.contains(gone)) {
+                            scan.removeTree(Scan.child(rel, gone), dir.resolve(gone));
+                        }
+                    }
+                }
+            }
+
+            List<Visit> children = new ArrayList<>(subdirs.size());
+            for (String sub : subdirs) {
+                children.add(new Visit(scan, Scan.child(rel, sub), dir.resolve(sub)));
+            }
+            invokeAll(children);
+            List<Long> childHashes = new ArrayList<>(subdirs.size());
+            for (Visit child : children) {
+                if (child.error instanceof InterruptedIOException) {
+                    throw child.error;
+                } else if (child.error != null) {
+                    // vanished or unreadable since the listing: keep the previous state if there is one
+                    log.warn("Could not scan directory {}: {}", child.dir, child.error.getMessage());
+                    DirEntry old = scan.previous.dirs.get(child.rel);
+                    childHashes.add(old != null ? old.hash() : 0L);
+                    if (old != null) scan.copyTree(child.rel);
+                } else {
+                    childHashes.add(child.join());
+                }
+            }
+            long hash = hash(files, subdirs, childHashes);
+            scan.dirs.put(rel, new DirEntry(rel, mtime, files.size() + subdirs.size(), hash, files, subdirs));
+            return hash;
+        }
+    }
+
+    private static long hash(List<FileEntry> files, List<String> subdirs, List<Long> childHashes) {
+        XxHash64 h = new XxHash64();
+        ByteBuffer longs = ByteBuffer.allocate(16);
+        for (FileEntry f : files) {
+            byte[] name = f.name().getBytes(StandardCharsets.UTF_8);
+            h.update(name, 0, name.length);
+            longs.clear();
+            longs.putLong(f.size()).putLong(f.mtime()).flip();
+            h.update(longs);
+        }
+        for (int i = 0; i < subdirs.size(); i++) {
+            byte[] name = ('/' + subdirs.get(i)).getBytes(StandardCharsets.UTF_8);
+            h.update(name, 0, name.length);
+            longs.clear();
+            longs.putLong(childHashes.get(i)).flip();
+            h.update(longs);
+        }
+        return h.digest();
+    }
+}
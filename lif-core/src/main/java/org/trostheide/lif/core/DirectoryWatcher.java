@@ -0,0 +1,274 @@
+package org.trostheide.lif.core;
+
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a directory tree and reports changes in coalesced batches.
+ * <p>
+ * File system notifications only mark directories as dirty; once no new event has
+ * arrived for the quiet period (or the batch has been pending for ten quiet periods,
+ * during a long card import), the dirty directories are re-listed through the
+ * {@link DirectorySnapshot} and the resulting {@link ChangeSet} is handed to the
+ * handler. Files modified within the quiet period are held back until the next batch,
+ * so half-copied files are not picked up.
+ * <p>
+ * Notifications are not delivered for changes made by other hosts on network mounts,
+ * so the tree is additionally rescanned every poll interval (cheap: only directories
+ * whose mtime moved are listed). In polling mode, or when the file system offers no
+ * watch service, that rescan is the only source of changes.
+ */
+public class DirectoryWatcher implements Closeable {
+    private static final Logger log = LoggerService.getLogger(DirectoryWatcher.class);
+
+    /**
+     * Receives each non-empty batch on the watcher thread. The batch's snapshot becomes
+     * the watcher's once the call returns; use {@link DirectorySnapshot#invalidate} on it
+     * to have failed files reported again. If the call throws, the whole batch is
+     * reported again.
+     */
+    @FunctionalInterface
+    public interface Handler {
+        void onChanges(ChangeSet changes) throws Exception;
+    }
+
+    private final Path root;
+    private final long quietMillis;
+    private final long pollMillis;
+    private final boolean pollOnly;
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private final Set<Path> dirty = new HashSet<>();
+    private DirectorySnapshot snapshot;
+    private WatchService watchService;
+    private long firstEvent;
+    private long lastEvent;
+    private volatile boolean closed;
+
+    /**
+     * @param initial     snapshot of the tree as already handled; changes are reported relative to it
+     * @param quietMillis time without events before a batch is emitted
+     * @param pollMillis  interval of the safety (or, with {@code pollOnly}, the only) rescan
+     * @param pollOnly    do not use file system notifications, e.g. for network mounts
+     */
+    public DirectoryWatcher(Path root, DirectorySnapshot initial, long quietMillis, long pollMillis, boolean pollOnly) {
+        this.root = root.toAbsolutePath().normalize();
+        this.snapshot = initial;
+        this.quietMillis = Math.max(0, quietMillis);
+        this.pollMillis = Math.max(1000, pollMillis);
+        this.pollOnly = pollOnly;
+    }
+
+    public DirectorySnapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Watches until {@link #close()} is called or the thread is interrupted.
+     */
+    public void run(Handler handler) throws IOException, InterruptedException {
+        if (!pollOnly) {
+            try {
+                watchService = FileSystems.getDefault().newWatchService();
+                registerTree(root);
+                log.info("Watching {} ({} directories)", root, keys.size());
+            } catch (IOException | UnsupportedOperationException e) {
+                log.warn("File notifications unavailable for {}, polling every {} s instead: {}",
+                        root, pollMillis / 1000, e.getMessage());
+                closeWatchService();
+                watchService = null;
+                keys.clear();
+            }
+        }
+        if (watchService == null) {
+            log.info("Polling {} every {} s", root, pollMillis / 1000);
+        }
+
+        long nextPoll = System.currentTimeMillis() + pollMillis;
+        while (!closed) {
+            long now = System.currentTimeMillis();
+            long wait = nextPoll - now;
+            if (!dirty.isEmpty()) {
+                wait = Math.min(wait, Math.min(lastEvent + quietMillis, firstEvent + 10 * quietMillis) - now);
+            }
+            wait = Math.max(1, wait);
+
+            if (watchService != null) {
+                WatchKey key;
+                try {
+                    key = watchService.poll(wait, TimeUnit.MILLISECONDS);
+                } catch (ClosedWatchServiceException e) {
+                    break;
+                }
+                if (key != null) {
+                    handleKey(key);
+                    continue; // drain queued keys before deciding
+                }
+            } else {
+                Thread.sleep(wait);
+            }
+
+            now = System.currentTimeMillis();
+            boolean settled = !dirty.isEmpty()
+                    && (now - lastEvent >= quietMillis || now - firstEvent >= 10 * quietMillis);
+            if (settled || now >= nextPoll) {
+                if (now >= nextPoll) nextPoll = now + pollMillis;
+                batch(handler);
+            }
+        }
+    }
+
+    /**
+     * Stops {@link #run} after the current batch; safe to call from any thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        closeWatchService();
+    }
+
+    private void handleKey(WatchKey key) {
+        Path dir = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events were lost: the snapshot scan below finds them via directory mtimes
+                log.debug("Watch event overflow, rescanning");
+                markDirty(root);
+                continue;
+            }
+            if (dir == null) continue;
+            markDirty(dir);
+            Path child = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                try {
+                    registerTree(child);
+                } catch (IOException e) {
+                    log.warn("Could not watch new directory {}: {}", child, e.getMessage());
+                }
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key); // directory is gone
+        }
+    }
+
+    private void batch(Handler handler) {
+        for (Path d : dirty) {
+            snapshot.markModified(d);
+        }
+        dirty.clear();
+        ChangeSet changes;
+        try {
+            changes = DirectorySnapshot.scan(root, snapshot);
+        } catch (IOException e) {
+            // e.g. a network mount that is briefly gone; the next poll tries again
+            log.warn("Could not scan {}: {}", root, e.getMessage());
+            return;
+        }
+        ChangeSet settled = holdBackRecent(changes);
+        if (settled.isEmpty()) {
+            snapshot = settled.snapshot();
+            return;
+        }
+        log.info("Detected changes: {}", settled.summary());
+        try {
+            handler.onChanges(settled);
+        } catch (Exception e) {
+            log.error("Handling changes in {} failed, retrying with the next batch", root, e);
+            // keep the old snapshot; its directories must be listed again to find the changes
+            for (Path d : settled.listedDirectories()) {
+                markDirty(d);
+            }
+            return;
+        }
+        snapshot = settled.snapshot();
+    }
+
+    /**
+     * Removes files still being written from the batch and from its snapshot, so they are
+     * reported again once they have settled.
+     */
+    private ChangeSet holdBackRecent(ChangeSet changes) {
+        long cutoff = System.currentTimeMillis() - quietMillis;
+        List<Path> added = settled(changes.added(), cutoff, changes.snapshot());
+        List<Path> changed = settled(changes.changed(), cutoff, changes.snapshot());
+        return new ChangeSet(changes.snapshot(), added, changed, changes.removed(),
+                changes.listedDirectories(), changes.unchangedFiles(), changes.visitedDirectories());
+    }
+
+    private List<Path> settled(List<Path> files, long cutoff, DirectorySnapshot next) {
+        List<Path> result = new ArrayList<>(files.size());
+        for (Path p : files) {
+            long mtime;
+            try {
+                mtime = Files.getLastModifiedTime(p).toMillis();
+            } catch (IOException e) {
+                continue; // gone again
+            }
+            if (mtime > cutoff) {
+                next.invalidate(p);
+                markDirty(p.getParent());
+            } else {
+                result.add(p);
+            }
+        }
+        return result;
+    }
+
+    private void markDirty(Path dir) {
+        long now = System.currentTimeMillis();
+        if (dirty.isEmpty()) firstEvent = now;
+        lastEvent = now;
+        dirty.add(dir);
+    }
+
+    private void registerTree(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                keys.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                log.warn("Cannot watch {}: {}", file, e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void closeWatchService() {
+        WatchService ws = watchService;
+        if (ws != null) {
+            try {
+                ws.close();
+            } catch (IOException ignored) {
+                // closing anyway
+            }
+        }
+    }
+}
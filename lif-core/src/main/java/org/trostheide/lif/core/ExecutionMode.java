@@ -0,0 +1,24 @@
+package org.trostheide.lif.core;
+
+import java.util.Locale;
+
+/**
+ * Kind of threads used for waiting-heavy work (external processes, HTTP, network shares).
+ */
+public enum ExecutionMode {
+    /** Classic platform threads. */
+    PLATFORM,
+    /** Virtual threads (JDK 21+); falls back to platform threads on older runtimes. */
+    VIRTUAL;
+
+    /**
+     * Parses a CLI value such as {@code virtual} or {@code platform}.
+     */
+    public static ExecutionMode parse(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown executor '" + value + "' (expected platform or virtual)");
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.trostheide.lif.core;
+
+import org.slf4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates threads and executors for an {@link ExecutionMode}.
+ * <p>
+ * The project is compiled for Java 17, so virtual threads are looked up reflectively.
+ * On a runtime without them (or with them only as a preview feature) {@link ExecutionMode#VIRTUAL}
+ * falls back to platform threads and logs a warning once.
+ */
+public class ExecutorFactory {
+    private static final Logger log = LoggerService.getLogger(ExecutorFactory.class);
+    private static final Method OF_VIRTUAL = findOfVirtual();
+    private static final AtomicBoolean fallbackWarned = new AtomicBoolean();
+
+    private ExecutorFactory() {
+        // Prevent instantiation
+    }
+
+    public static boolean virtualThreadsAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Thread factory naming threads {@code <namePrefix>-<n>}. Platform threads are daemons,
+     * so a forgotten pool never keeps the JVM alive; virtual threads always are.
+     */
+    public static ThreadFactory threadFactory(ExecutionMode mode, String namePrefix) {
+        if (mode == ExecutionMode.VIRTUAL) {
+            ThreadFactory virtual = virtualThreadFactory(namePrefix);
+            if (virtual != null) {
+                return virtual;
+            }
+            if (fallbackWarned.compareAndSet(false, true)) {
+                log.warn("Virtual threads need Java 21+ (running {}); using platform threads",
+                        System.getProperty("java.version"));
+            }
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, namePrefix + "-" + counter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Executor running at most {@code concurrency} tasks at once on threads of the given mode.
+     * With virtual threads the bound only limits load on the backend; waiting tasks do not
+     * occupy a carrier thread.
+     */
+    public static ExecutorService newBoundedExecutor(ExecutionMode mode, int concurrency, String namePrefix) {
+        return Executors.newFixedThreadPool(Math.max(1, concurrency), threadFactory(mode, namePrefix));
+    }
+
+    private static ThreadFactory virtualThreadFactory(String namePrefix) {
+        if (OF_VIRTUAL == null) return null;
+        try {
+            // Thread.ofVirtual().name(namePrefix + "-", 0).factory()
+            Object builder = OF_VIRTUAL.invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix + "-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Could not create virtual thread factory", e);
+            return null;
+        }
+    }
+
+    private static Method findOfVirtual() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            ofVirtual.invoke(null); // throws on JDK 19/20 without --enable-preview
+            return ofVirtual;
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            return null;
+        }
+    }
+}
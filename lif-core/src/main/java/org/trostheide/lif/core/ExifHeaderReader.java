@@ -0,0 +1,293 @@
+package org.trostheide.lif.core;
+
+import org.slf4j.Logger;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the few EXIF fields needed to date and orient a photo straight from the file
+ * header, without parsing the whole metadata structure.
+ * <p>
+ * Understands JPEG (the APP1 Exif segment), TIFF-based raws (CR2, NEF, ARW, DNG, ORF,
+ * RW2, PEF, ...) and RAF (via its embedded JPEG). It reads the first
+ * {@value #HEAD_BYTES} bytes and follows IFD offsets beyond them with a few small
+ * positional reads, so the rest of a raw file is never touched. Where the layout is
+ * anything other than expected, {@link #read} returns null and callers fall back to
+ * commons-imaging, e.g. through {@link MetadataCache}.
+ */
+public final class ExifHeaderReader {
+    private static final Logger log = LoggerService.getLogger(ExifHeaderReader.class);
+    private static final int HEAD_BYTES = 16 * 1024;
+    private static final int WINDOW_BYTES = 4 * 1024;
+    /** Positional reads beyond the head before giving up on the fast path. */
+    private static final int MAX_READS = 8;
+    private static final int MAX_IFD_ENTRIES = 1024;
+    private static final int MAX_STRING = 256;
+
+    private static final MetricsRegistry.Counter FAST = MetricsRegistry.global().counter("exif.header.read");
+    private static final MetricsRegistry.Counter FALLBACK = MetricsRegistry.global().counter("exif.header.fallback");
+
+    /**
+     * Fields read from the header.
+     *
+     * @param dateTaken   DateTimeOriginal as stored ("yyyy:MM:dd HH:mm:ss"), or null
+     * @param offsetTime  OffsetTimeOriginal (e.g. "+02:00"), or null
+     * @param orientation EXIF orientation (1-8), 0 if absent
+     * @param make        camera make, or null
+     * @param model       camera model, or null
+     * @param width       image width; for JPEG from the frame header, otherwise from
+     *                    ExifImageWidth or the first IFD. 0 if unknown
+     * @param height      image height, like {@code width}
+     */
+    public record Header(String dateTaken, String offsetTime, int orientation, String make, String model,
+                         int width, int height) {}
+
+    /** The file is not laid out the way the fast path expects. */
+    private static final class NotFast extends Exception {
+        NotFast(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final FileChannel channel;
+    private final long size;
+    private final ByteBuffer head;
+    private ByteBuffer window;
+    private long windowPos;
+    private int reads;
+    private ByteOrder order;
+
+    private String dateTaken;
+    private String offsetTime;
+    private int orientation;
+    private String make;
+    private String model;
+    private int width;
+    private int height;
+    private int exifWidth;
+    private int exifHeight;
+
+    private ExifHeaderReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.head = ByteBuffer.allocate((int) Math.min(size, HEAD_BYTES));
+        readFully(head, 0);
+    }
+
+    /**
+     * Reads the header fields of {@code file}. A file recognized as JPEG or TIFF that has no
+     * EXIF yields a header of nulls and zeros, just as a full parse would.
+     *
+     * @return the fields, or null if the fast path does not apply to this file
+     * @throws IOException if the file cannot be read
+     */
+    public static Header read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Header header = new ExifHeaderReader(channel).parse();
+            FAST.increment();
+            return header;
+        } catch (NotFast | BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            log.debug("No fast EXIF path for {}: {}", file, e.getMessage());
+            FALLBACK.increment();
+            return null;
+        }
+    }
+
+    private Header parse() throws IOException, NotFast {
+        if (size < 8) throw new NotFast("too short");
+        int b0 = head.get(0) & 0xFF;
+        int b1 = head.get(1) & 0xFF;
+        if (b0 == 0xFF && b1 == 0xD8) {
+            jpeg(0);
+        } else if ((b0 == 'I' && b1 == 'I') || (b0 == 'M' && b1 == 'M')) {
+            tiff(0);
+        } else if (startsWith("FUJIFILMCCD-RAW")) {
+            // RAF: the metadata lives in the embedded JPEG preview
+            jpeg(range(84, 4).order(ByteOrder.BIG_ENDIAN).getInt(0) & 0xFFFFFFFFL);
+        } else {
+            throw new NotFast("unknown format");
+        }
+        boolean fromExif = width == 0 || height == 0;
+        return new Header(dateTaken, offsetTime, orientation, make, model,
+                fromExif ? exifWidth : width, fromExif ? exifHeight : height);
+    }
+
+    private boolean startsWith(String magic) {
+        byte[] bytes = magic.getBytes(StandardCharsets.US_ASCII);
+        if (head.limit() < bytes.length) return false;
+        for (int i = 0; i < bytes.length; i++) {
+            if (head.get(i) != bytes[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Walks the JPEG segments up to the scan data, parsing the first Exif APP1 and taking
+     * the dimensions from the frame header.
+     */
+    private void jpeg(long start) throws IOException, NotFast {
+        if ((range(start, 2).getShort(0) & 0xFFFF) != 0xFFD8) throw new NotFast("no JPEG at " + start);
+        long pos = start + 2;
+        boolean exif = false;
+        while (!exif || width == 0) {
+            ByteBuffer m = range(pos, 2);
+            if ((m.get(0) & 0xFF) != 0xFF) throw new NotFast("bad marker at " + pos);
+            int marker = m.get(1) & 0xFF;
+            if (marker == 0xFF) {
+                pos++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+                pos += 2;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) break;
+            int length = range(pos + 2, 2).order(ByteOrder.BIG_ENDIAN).getShort(0) & 0xFFFF;
+            if (length < 2) throw new NotFast("bad segment length at " + pos);
+            if (marker == 0xE1 && !exif && length >= 16 && isExifId(pos + 4)) {
+                tiff(pos + 10);
+                exif = true;
+            } else if (isFrameHeader(marker) && width == 0 && length >= 7) {
+                ByteBuffer sof = range(pos + 4, 5).order(ByteOrder.BIG_ENDIAN);
+                height = sof.getShort(1) & 0xFFFF;
+                width = sof.getShort(3) & 0xFFFF;
+            }
+            pos += 2 + length;
+        }
+    }
+
+    private boolean isExifId(long pos) throws IOException, NotFast {
+        ByteBuffer id = range(pos, 6);
+        return id.get(0) == 'E' && id.get(1) == 'x' && id.get(2) == 'i' && id.get(3) == 'f'
+                && id.get(4) == 0 && id.get(5) == 0;
+    }
+
+    private static boolean isFrameHeader(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    /**
+     * Parses a TIFF structure starting at {@code base}: the first IFD and the Exif IFD it
+     * points to. Offsets inside are relative to {@code base}.
+     */
+    private void tiff(long base) throws IOException, NotFast {
+        ByteBuffer header = range(base, 8);
+        if (header.get(0) == 'I' && header.get(1) == 'I') {
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else if (header.get(0) == 'M' && header.get(1) == 'M') {
+            order = ByteOrder.BIG_ENDIAN;
+        } else {
+            throw new NotFast("bad TIFF byte order");
+        }
+        header.order(order);
+        int magic = header.getShort(2) & 0xFFFF;
+        // 42 for TIFF and most raws; ORF and RW2 use their own
+        if (magic != 42 && magic != 0x4F52 && magic != 0x5352 && magic != 0x55) {
+            throw new NotFast("bad TIFF magic " + magic);
+        }
+        long exifIfd = ifd(base, base + (header.getInt(4) & 0xFFFFFFFFL), true);
+        if (exifIfd > 0) ifd(base, base + exifIfd, false);
+    }
+
+    /**
+     * Reads the fields of one IFD.
+     *
+     * @return for the first IFD, the offset of the Exif IFD, 0 if there is none
+     */
+    private long ifd(long base, long pos, boolean first) throws IOException, NotFast {
+        int count = u16(range(pos, 2), 0);
+        if (count > MAX_IFD_ENTRIES) throw new NotFast("implausible IFD at " + pos);
+        ByteBuffer entries = range(pos + 2, count * 12);
+        long exifIfd = 0;
+        for (int i = 0; i < count; i++) {
+            int at = i * 12;
+            int tag = u16(entries, at);
+            int type = u16(entries, at + 2);
+            long n = entries.getInt(at + 4) & 0xFFFFFFFFL;
+            long valuePos = pos + 2 + at + 8;
+            if (first) {
+                switch (tag) {
+                    case 0x0100 -> exifWidth = exifWidth == 0 ? number(entries, at, type) : exifWidth;
+                    case 0x0101 -> exifHeight = exifHeight == 0 ? number(entries, at, type) : exifHeight;
+                    case 0x010F -> make = ascii(base, type, n, valuePos);
+                    case 0x0110 -> model = ascii(base, type, n, valuePos);
+                    case 0x0112 -> orientation = number(entries, at, type);
+                    case 0x8769 -> exifIfd = entries.getInt(at + 8) & 0xFFFFFFFFL;
+                    default -> { }
+                }
+            } else {
+                switch (tag) {
+                    case 0x9003 -> dateTaken = ascii(base, type, n, valuePos);
+                    case 0x9011 -> offsetTime = ascii(base, type, n, valuePos);
+                    // the Exif IFD's dimensions describe the main image; the first IFD's may be a preview
+                    case 0xA002 -> exifWidth = number(entries, at, type);
+                    case 0xA003 -> exifHeight = number(entries, at, type);
+                    default -> { }
+                }
+            }
+        }
+        return exifIfd;
+    }
+
+    private int number(ByteBuffer entries, int at, int type) {
+        return switch (type) {
+            case 3 -> u16(entries, at + 8);
+            case 4 -> Math.max(0, entries.getInt(at + 8));
+            default -> 0;
+        };
+    }
+
+    private String ascii(long base, int type, long n, long valuePos) throws IOException, NotFast {
+        if (type != 2 || n == 0) return null;
+        int length = (int) Math.min(n, MAX_STRING);
+        ByteBuffer value = n <= 4
+                ? range(valuePos, length)
+                : range(base + (range(valuePos, 4).order(order).getInt(0) & 0xFFFFFFFFL), length);
+        int end = 0;
+        while (end < length && value.get(end) != 0) end++;
+        byte[] bytes = new byte[end];
+        value.get(0, bytes);
+        String s = new String(bytes, StandardCharsets.ISO_8859_1).trim();
+        return s.isEmpty() ? null : s;
+    }
+
+    private static int u16(ByteBuffer buf, int at) {
+        return buf.getShort(at) & 0xFFFF;
+    }
+
+    /**
+     * {@code length} bytes at file position {@code pos}, from the head if it holds them,
+     * otherwise from a small positional read. The buffer uses the current TIFF byte order.
+     */
+    private ByteBuffer range(long pos, int length) throws IOException, NotFast {
+        if (pos < 0 || length < 0 || pos + length > size) throw new NotFast("offset " + pos + " outside file");
+        ByteBuffer slice;
+        if (pos + length <= head.limit()) {
+            slice = head.slice((int) pos, length);
+        } else {
+            if (window == null || pos < windowPos || pos + length > windowPos + window.limit()) {
+                if (++reads > MAX_READS) throw new NotFast("metadata spread too far");
+                window = ByteBuffer.allocate((int) Math.min(Math.max(length, WINDOW_BYTES), size - pos));
+                readFully(window, pos);
+                windowPos = pos;
+            }
+            slice = window.slice((int) (pos - windowPos), length);
+        }
+        return slice.order(order != null ? order : ByteOrder.BIG_ENDIAN);
+    }
+
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, pos + buf.position()) < 0) throw new EOFException();
+        }
+        buf.flip();
+    }
+}
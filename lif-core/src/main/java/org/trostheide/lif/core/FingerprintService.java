@@ -0,0 +1,244 @@
+package org.trostheide.lif.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Answers "is this file new or changed?" for all tools, backed by a persistent cache.
+ * <p>
+ * A file whose (path, size, mtime, inode) matches the cache is unchanged without
+ * reading it. Otherwise a cheap quick hash (size + first/last {@value #EDGE_BYTES}
+ * bytes) is compared first, and only if that still matches is the full XXH64 content
+ * hash computed, using memory-mapped reads. Recorded fingerprints are appended to a
+ * {@link JsonLinesJournal} so the next run (of any tool) starts warm.
+ */
+public class FingerprintService implements Closeable {
+    private static final Logger log = LoggerService.getLogger(FingerprintService.class);
+    private static final int EDGE_BYTES = 64 * 1024;
+    private static final long MAP_CHUNK = 64L * 1024 * 1024;
+
+    public enum Status { NEW, CHANGED, UNCHANGED }
+
+    /**
+     * Identity and hashes of a file. {@code fullHash} is 0 until a full hash was computed.
+     */
+    public record Fingerprint(long size, long mtime, String inode, long quickHash, long fullHash) {
+        boolean sameStat(Fingerprint other) {
+            return size == other.size && mtime == other.mtime && Objects.equals(inode, other.inode);
+        }
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, Fingerprint> cache = new ConcurrentHashMap<>();
+    private final JsonLinesJournal store;
+    private final File storeFile;
+    private final ForkJoinPool pool;
+    private final int loaded;
+
+    /**
+     * @param storeFile   persistent cache (JSON Lines); created if missing
+     * @param parallelism number of threads used by {@link #fingerprintAll}
+     */
+    public FingerprintService(File storeFile, int parallelism) throws IOException {
+        this.storeFile = storeFile;
+        this.store = new JsonLinesJournal(storeFile, mapper);
+        // entries of a rewrite that was interrupted come first, the newer ones override them
+        List<JsonNode> entries = new ArrayList<>(JsonLinesJournal.readEntries(new File(storeFile.getPath() + ".old"), mapper));
+        entries.addAll(store.recover());
+        for (JsonNode e : entries) {
+            cache.put(e.path("path").asText(), new Fingerprint(e.path("size").asLong(), e.path("mtime").asLong(),
+                    e.hasNonNull("inode") ? e.get("inode").asText() : null,
+                    e.path("quick").asLong(), e.path("full").asLong()));
+        }
+        this.loaded = entries.size();
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+        log.debug("Loaded {} fingerprints from {}", cache.size(), storeFile.getName());
+    }
+
+    /**
+     * Compares the file against the cached fingerprint without recording anything, so a
+     * file only counts as unchanged once its state was recorded, e.g. through
+     * {@link #refresh} after it was processed. Reads file content only when the stat data
+     * changed.
+     */
+    public Status status(Path file) throws IOException {
+        Fingerprint cached = cache.get(file.toAbsolutePath().toString());
+        if (cached == null) {
+            return Status.NEW;
+        }
+        Fingerprint stat = stat(file);
+        if (cached.sameStat(stat)) {
+            return Status.UNCHANGED;
+        }
+        if (cached.quickHash() != quickHash(file, stat.size())) {
+            return Status.CHANGED;
+        }
+        // quick hash matches (e.g. a touched file, or an edit in the middle): only the full hash can tell
+        if (cached.fullHash() == 0) {
+            return Status.CHANGED;
+        }
+        return fullHash(file) == cached.fullHash() ? Status.UNCHANGED : Status.CHANGED;
+    }
+
+    /**
+     * {@link #status} of many files in parallel. Files that cannot be read are left out.
+     */
+    public Map<Path, Status> statusAll(Collection<Path> files) {
+        Map<Path, Status> result = new ConcurrentHashMap<>();
+        pool.submit(() -> files.parallelStream().forEach(p -> {
+            try {
+                result.put(p, status(p));
+            } catch (IOException e) {
+                log.warn("Could not fingerprint {}: {}", p, e.getMessage());
+            }
+        })).join();
+        return result;
+    }
+
+    /**
+     * Returns the fingerprint of the file, reusing the cached one if the stat data matches.
+     *
+     * @param full if true, make sure the full content hash is present
+     */
+    public Fingerprint fingerprint(Path file, boolean full) throws IOException {
+        String key = file.toAbsolutePath().toString();
+        Fingerprint stat = stat(file);
+        Fingerprint cached = cache.get(key);
+        if (cached != null && cached.sameStat(stat) && (!full || cached.fullHash() != 0)) {
+            return cached;
+        }
+        long quick = cached != null && cached.sameStat(stat) ? cached.quickHash() : quickHash(file, stat.size());
+        Fingerprint fp = new Fingerprint(stat.size(), stat.mtime(), stat.inode(), quick, full ? fullHash(file) : 0);
+        record(key, fp);
+        return fp;
+    }
+
+    /**
+     * Fingerprints many files in parallel. Files that cannot be read are left out.
+     */
+    public Map<Path, Fingerprint> fingerprintAll(Collection<Path> files, boolean full) {
+        Map<Path, Fingerprint> result = new ConcurrentHashMap<>();
+        pool.submit(() -> files.parallelStream().forEach(p -> {
+            try {
+                result.put(p, fingerprint(p, full));
+            } catch (IOException e) {
+                log.warn("Could not fingerprint {}: {}", p, e.getMessage());
+            }
+        })).join();
+        return result;
+    }
+
+    /**
+     * Forgets the cached state, e.g. after a tool rewrote the file itself, and records the
+     * current one, including the full hash that {@link #status} needs to tell a touched
+     * file from an edited one.
+     */
+    public void refresh(Path file) throws IOException {
+        cache.remove(file.toAbsolutePath().toString());
+        fingerprint(file, true);
+    }
+
+    /**
+     * XXH64 over size, the first and the last {@value #EDGE_BYTES} bytes.
+     */
+    public static long quickHash(Path file, long size) throws IOException {
+        XxHash64 h = new XxHash64(size);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(EDGE_BYTES);
+            readFully(ch, buf, 0);
+            buf.flip();
+            h.update(buf);
+            if (size > EDGE_BYTES) {
+                buf.clear();
+                readFully(ch, buf, Math.max(EDGE_BYTES, size - EDGE_BYTES));
+                buf.flip();
+                h.update(buf);
+            }
+        }
+        return h.digest();
+    }
+
+    /**
+     * XXH64 over the whole content, read through memory-mapped windows.
+     */
+    public static long fullHash(Path file) throws IOException {
+        XxHash64 h = new XxHash64();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            for (long pos = 0; pos < size; pos += MAP_CHUNK) {
+                h.update(ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_CHUNK, size - pos)));
+            }
+        }
+        return h.digest();
+    }
+
+    /**
+     * Flushes the cache store; rewrites it when it has accumulated many superseded entries.
+     */
+    @Override
+    public void close() throws IOException {
+        pool.shutdown();
+        long written = loaded + store.size();
+        File stale = new File(storeFile.getPath() + ".old");
+        // a stale store left by an interrupted rewrite was read on open; rewriting supersedes it
+        if (written > 2L * cache.size() + 1000 || stale.exists()) {
+            Files.deleteIfExists(stale.toPath());
+            store.rotateTo(stale);
+            for (Map.Entry<String, Fingerprint> e : cache.entrySet()) {
+                store.append(toJson(e.getKey(), e.getValue()));
+            }
+            store.close();
+            Files.deleteIfExists(stale.toPath());
+        } else {
+            store.close();
+        }
+    }
+
+    private void record(String key, Fingerprint fp) throws IOException {
+        cache.put(key, fp);
+        store.append(toJson(key, fp));
+    }
+
+    private ObjectNode toJson(String key, Fingerprint fp) {
+        return mapper.createObjectNode()
+                .put("path", key)
+                .put("size", fp.size())
+                .put("mtime", fp.mtime())
+                .put("inode", fp.inode())
+                .put("quick", fp.quickHash())
+                .put("full", fp.fullHash());
+    }
+
+    private static Fingerprint stat(Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        Object key = attrs.fileKey();
+        return new Fingerprint(attrs.size(), attrs.lastModifiedTime().toMillis(), key != null ? key.toString() : null, 0, 0);
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, position);
+            if (n < 0) break;
+            position += n;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package org.trostheide.lif.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * Per-worker index segments of a sharded run and their merge into the main index.
+ * <p>
+ * Each worker writes its own journaled segment ({@code index-<worker>.json} in the run
+ * directory), so workers never contend for the main index. A segment is marked closed
+ * once its worker has compacted it. {@link #merge(boolean)} folds the closed segments
+ * into the main index under a lock file and deletes them; every worker runs it on exit,
+ * so whichever finishes last leaves a fully merged index behind.
+ */
+public class IndexSegments {
+    private static final Logger log = LoggerService.getLogger(IndexSegments.class);
+    private static final String LOCK_FILE = "merge.lock";
+    /** A merge lock older than this is assumed to belong to a crashed worker. */
+    private static final long STALE_LOCK_MILLIS = 10 * 60_000;
+    private static final long LOCK_WAIT_MILLIS = 2 * STALE_LOCK_MILLIS;
+
+    private final Path runDir;
+    private final File mainIndex;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * @param runDir    directory shared by all workers of the run
+     * @param mainIndex the .lif-index.json the segments are merged into
+     */
+    public IndexSegments(Path runDir, File mainIndex) {
+        this.runDir = runDir;
+        this.mainIndex = mainIndex;
+    }
+
+    /**
+     * Opens the worker's segment. Lookups fall through to the main index, so files
+     * indexed by earlier runs are still skipped.
+     */
+    public LifIndexManager open(String workerId) throws IOException {
+        Files.createDirectories(runDir);
+        Files.deleteIfExists(closedMarker(workerId));
+        return new LifIndexManager(segmentFile(workerId), new LifIndexManager(mainIndex));
+    }
+
+    /**
+     * Declares the worker's segment complete. Call after closing the segment's
+     * {@link LifIndexManager}.
+     */
+    public void markClosed(String workerId) throws IOException {
+        try {
+            Files.createFile(closedMarker(workerId));
+        } catch (FileAlreadyExistsException e) {
+            // already closed
+        }
+    }
+
+    /**
+     * Folds segments into the main index and deletes them. Where several entries exist
+     * for a source, the most recent one wins.
+     *
+     * @param includeOpen also merge segments never marked closed, e.g. of crashed workers;
+     *                    only safe once no worker of the run is running
+     * @return the number of segments merged
+     */
+    public int merge(boolean includeOpen) throws IOException {
+        Path lock = runDir.resolve(LOCK_FILE);
+        acquire(lock);
+        try {
+            List<File> segments = new ArrayList<>();
+            for (File segment : listSegments()) {
+                if (includeOpen || Files.exists(closedMarker(workerOf(segment)))) {
+                    segments.add(segment);
+                }
+            }
+            if (segments.isEmpty()) return 0;
+
+            Map<String, JsonNode> bySource = new LinkedHashMap<>();
+            try (LifIndexManager main = new LifIndexManager(mainIndex, true)) {
+                for (JsonNode e : main.readIndex()) keepLatest(bySource, e);
+                int added = 0;
+                for (File segment : segments) {
+                    for (JsonNode e : readSegment(segment)) {
+                        keepLatest(bySource, e);
+                        added++;
+                    }
+                }
+                main.writeIndex(new ArrayList<>(bySource.values()));
+                log.info("Merged {} index segments ({} entries) into {}", segments.size(), added, mainIndex.getName());
+            }
+            for (File segment : segments) {
+                String worker = workerOf(segment);
+                for (String suffix : new String[]{"", ".journal", ".journal.compacting"}) {
+                    Files.deleteIfExists(Path.of(segment.getPath() + suffix));
+                }
+                Files.deleteIfExists(Path.of(segment.getPath().replaceFirst("\\.json$", "") + ".bin"));
+                Files.deleteIfExists(closedMarker(worker));
+            }
+            return segments.size();
+        } finally {
+            Files.deleteIfExists(lock);
+        }
+    }
+
+    private File segmentFile(String workerId) {
+        return runDir.resolve("index-" + workerId + ".json").toFile();
+    }
+
+    private Path closedMarker(String workerId) {
+        return runDir.resolve("index-" + workerId + ".closed");
+    }
+
+    private static String workerOf(File segment) {
+        String name = segment.getName();
+        return name.substring("index-".length(), name.length() - ".json".length());
+    }
+
+    /**
+     * Segments present in the run directory, including those of workers that died
+     * before their first compaction and so only left a journal.
+     */
+    private List<File> listSegments() throws IOException {
+        Set<File> segments = new TreeSet<>();
+        try (Stream<Path> files = Files.list(runDir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                String name = p.getFileName().toString();
+                int end = name.indexOf(".json");
+                if (name.startsWith("index-") && end > 0) {
+                    segments.add(runDir.resolve(name.substring(0, end + ".json".length())).toFile());
+                }
+            }
+        }
+        return new ArrayList<>(segments);
+    }
+
+    /**
+     * Reads a segment without opening its journal for writing, since its worker may
+     * still hold it open.
+     */
+    private List<JsonNode> readSegment(File segment) throws IOException {
+        List<JsonNode> entries = new LifIndexManager(segment).readIndex();
+        entries.addAll(JsonLinesJournal.readEntries(new File(segment.getPath() + ".journal.compacting"), mapper));
+        entries.addAll(JsonLinesJournal.readEntries(new File(segment.getPath() + ".journal"), mapper));
+        return entries;
+    }
+
+    private static void keepLatest(Map<String, JsonNode> bySource, JsonNode entry) {
+        String source = entry.path("source").asText();
+        JsonNode existing = bySource.get(source);
+        if (existing == null || !timestampOf(entry).isBefore(timestampOf(existing))) {
+            bySource.put(source, entry);
+        }
+    }
+
+    private static Instant timestampOf(JsonNode entry) {
+        try {
+            return Instant.parse(entry.path("timestamp").asText());
+        } catch (DateTimeParseException e) {
+            return Instant.EPOCH;
+        }
+    }
+
+    private void acquire(Path lock) throws IOException {
+        long deadline = System.currentTimeMillis() + LOCK_WAIT_MILLIS;
+        while (true) {
+            try {
+                Files.createFile(lock);
+                return;
+            } catch (FileAlreadyExistsException e) {
+                try {
+                    if (System.currentTimeMillis() - Files.getLastModifiedTime(lock).toMillis() > STALE_LOCK_MILLIS) {
+                        log.warn("Removing stale merge lock in {}", runDir);
+                        Files.deleteIfExists(lock);
+                        continue;
+                    }
+                } catch (IOException gone) {
+                    continue;
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Timed out waiting for the merge lock in " + runDir);
+                }
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the merge lock", ie);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.trostheide.lif.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Keeps the latest snapshot in a JSON file (replaced atomically on every update),
+ * so external tools can poll the state of a running job.
+ */
+public class JsonFileProgressSink implements ProgressSink {
+    private static final Logger log = LoggerService.getLogger(JsonFileProgressSink.class);
+
+    private final File file;
+    private final File tmp;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public JsonFileProgressSink(File file) {
+        this.file = file;
+        this.tmp = new File(file.getPath() + ".tmp");
+    }
+
+    @Override
+    public void report(ProgressSnapshot snapshot) {
+        try {
+            File parent = file.getParentFile();
+            if (parent != null) parent.mkdirs();
+            mapper.writeValue(tmp, snapshot);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not write progress file {}: {}", file, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package org.trostheide.lif.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Append-only JSON Lines journal with group commit.
+ * <p>
+ * {@link #append(JsonNode)} only enqueues the entry; a single background writer
+ * drains everything that queued up since the last commit, writes it with one
+ * {@code write} + {@code force} and wakes up any {@link #flush()} callers. A torn
+ * last line left by a crash is cut off by {@link #recover()}.
+ */
+public class JsonLinesJournal implements Closeable {
+    private static final Logger log = LoggerService.getLogger(JsonLinesJournal.class);
+    private static final int MAX_BATCH = 4096;
+    private static final JsonNode CLOSE_MARKER = new ObjectMapper().createObjectNode();
+
+    private final File file;
+    private final ObjectMapper mapper;
+    private final ObjectWriter lineWriter;
+    private final BlockingQueue<JsonNode> pending = new LinkedBlockingQueue<>();
+    private final Object commitLock = new Object();
+    /** Held while the channel is written or replaced; never by appenders. */
+    private final Object channelLock = new Object();
+    private final Thread writer;
+
+    private FileChannel channel;  // guarded by channelLock
+    private long enqueued;   // guarded by commitLock
+    private long committed;  // guarded by commitLock
+    private IOException failure; // guarded by commitLock
+    private boolean closed;      // guarded by commitLock
+
+    /**
+     * Opens (or creates) the journal file. Call {@link #recover()} first if the
+     * previous process may have died mid-write.
+     */
+    public JsonLinesJournal(File file, ObjectMapper mapper) throws IOException {
+        this.file = file;
+        this.mapper = mapper;
+        this.lineWriter = mapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+        File parent = file.getParentFile();
+        if (parent != null) parent.mkdirs();
+        this.channel = openChannel();
+        this.writer = new Thread(this::writeLoop, "lif-journal-" + file.getName());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads all complete entries of the journal, truncating a torn trailing line
+     * and skipping lines that cannot be parsed.
+     */
+    public synchronized List<JsonNode> recover() throws IOException {
+        flush();
+        return readEntries(file, mapper, true);
+    }
+
+    /**
+     * Reads the entries of a journal file that is not open for writing.
+     */
+    public static List<JsonNode> readEntries(File journalFile, ObjectMapper mapper) throws IOException {
+        return readEntries(journalFile, mapper, false);
+    }
+
+    private static List<JsonNode> readEntries(File journalFile, ObjectMapper mapper, boolean repair) throws IOException {
+        List<JsonNode> entries = new ArrayList<>();
+        if (!journalFile.exists()) {
+            return entries;
+        }
+        byte[] data = Files.readAllBytes(journalFile.toPath());
+        int lineStart = 0;
+        long validLength = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] != '\n') continue;
+            if (i > lineStart) {
+                try {
+                    entries.add(mapper.readTree(data, lineStart, i - lineStart));
+                } catch (IOException e) {
+                    log.warn("Skipping corrupt journal line in {} at byte {}", journalFile.getName(), lineStart);
+                }
+            }
+            lineStart = i + 1;
+            validLength = lineStart;
+        }
+        if (validLength < data.length) {
+            log.warn("Discarding torn tail ({} bytes) of journal {}", data.length - validLength, journalFile.getName());
+            if (repair) {
+                try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+                    raf.setLength(validLength);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Queues an entry for the next group commit. Never blocks on disk I/O.
+     */
+    public void append(JsonNode entry) throws IOException {
+        synchronized (commitLock) {
+            if (closed) throw new IOException("Journal is closed: " + file);
+            if (failure != null) throw failure;
+            enqueued++;
+            // under the lock, so it cannot end up behind the close marker
+            pending.add(entry);
+        }
+    }
+
+    /**
+     * Blocks until every entry appended before this call is durably on disk.
+     */
+    public void flush() throws IOException {
+        synchronized (commitLock) {
+            long target = enqueued;
+            while (committed < target && failure == null) {
+                try {
+                    commitLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while flushing journal " + file, e);
+                }
+            }
+            if (failure != null) throw failure;
+        }
+    }
+
+    /**
+     * Flushes pending entries, moves the journal file to {@code target} and continues
+     * with a fresh, empty journal. Used to hand a closed segment to compaction while
+     * new entries keep flowing.
+     *
+     * @throws IOException if {@code target} exists, e.g. a segment left by a failed
+     *                     compaction that has not been folded yet
+     */
+    public synchronized void rotateTo(File target) throws IOException {
+        flush();
+        synchronized (channelLock) {
+            if (target.exists()) throw new IOException("Cannot rotate " + file + ": " + target + " still exists");
+            channel.close();
+            Files.move(file.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            channel = openChannel();
+        }
+    }
+
+    /**
+     * Number of entries appended through this instance (committed or not).
+     */
+    public long size() {
+        synchronized (commitLock) {
+            return enqueued;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        synchronized (commitLock) {
+            if (closed) return;
+            closed = true;
+        }
+        pending.add(CLOSE_MARKER);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (channelLock) {
+            channel.close();
+        }
+    }
+
+    private FileChannel openChannel() throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void writeLoop() {
+        List<JsonNode> batch = new ArrayList<>(MAX_BATCH);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+        while (true) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            pending.drainTo(batch, MAX_BATCH - 1);
+            boolean stop = batch.removeIf(node -> node == CLOSE_MARKER);
+
+            buffer.reset();
+            IOException error = null;
+            try {
+                for (JsonNode node : batch) {
+                    lineWriter.writeValue(buffer, node);
+                    buffer.write('\n');
+                }
+                synchronized (channelLock) {
+                    ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                log.error("Failed to commit {} journal entries to {}", batch.size(), file, e);
+                error = e;
+            }
+            synchronized (commitLock) {
+                if (error != null && failure == null) failure = error;
+                committed += batch.size();
+                commitLock.notifyAll();
+            }
+            batch.clear();
+            if (stop) return;
+        }
+    }
+}
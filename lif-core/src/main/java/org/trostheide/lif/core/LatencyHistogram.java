@@ -0,0 +1,129 @@
+package org.trostheide.lif.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets (HDR style).
+ * <p>
+ * Every power of two is split into {@value #SUB_BUCKETS} linear sub-buckets, so
+ * recorded values are kept with roughly 3% relative precision from 1 ns up to
+ * several hours. Recording is a single atomic increment; the exact maximum and sum
+ * are tracked separately.
+ * <p>
+ * Obtain instances from {@link MetricsRegistry#histogram(String)}. While the registry
+ * is disabled, {@link #start()} returns 0 and {@link #stop(long)} ignores it, so
+ * instrumentation costs one volatile read.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** Values from 2^46 ns (~19.5 h) on are clamped into the last bucket. */
+    private static final int MAX_EXPONENT = 45;
+    /** The linear range [0, 2^SUB_BITS) plus one row of sub-buckets per exponent up to MAX_EXPONENT. */
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final String name;
+    private final MetricsRegistry registry;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    LatencyHistogram(String name, MetricsRegistry registry) {
+        this.name = name;
+        this.registry = registry;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return a start timestamp for {@link #stop(long)}, or 0 if metrics are disabled
+     */
+    public long start() {
+        return registry.isEnabled() ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos} (a value from {@link #start()}).
+     */
+    public void stop(long startNanos) {
+        if (startNanos != 0) {
+            record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Records one latency value in nanoseconds.
+     */
+    public void record(long nanos) {
+        if (!registry.isEnabled()) return;
+        long v = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(v));
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    /**
+     * Point-in-time summary. Percentiles are bucket midpoints, so they are approximate;
+     * count, sum and max are exact.
+     */
+    public Summary summary() {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        long maxValue = max.get();
+        return new Summary(count, sum.sum(), maxValue,
+                percentile(snapshot, count, 0.50, maxValue),
+                percentile(snapshot, count, 0.95, maxValue),
+                percentile(snapshot, count, 0.99, maxValue));
+    }
+
+    /**
+     * Latency summary in nanoseconds.
+     */
+    public record Summary(long count, long sumNanos, long maxNanos, long p50Nanos, long p95Nanos, long p99Nanos) {
+        public double meanNanos() {
+            return count > 0 ? (double) sumNanos / count : 0;
+        }
+
+        public static double toMillis(double nanos) {
+            return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+
+    private static long percentile(long[] snapshot, long count, double quantile, long maxValue) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(midpointOf(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+        int shift = exponent - SUB_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long midpointOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + ((1L << shift) >>> 1);
+    }
+}
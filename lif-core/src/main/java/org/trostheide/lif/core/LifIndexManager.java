@@ -4,57 +4,379 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Manages reading and writing of the .lif-index.json file.
+ * <p>
+ * In journaled mode new entries are appended to {@code <index>.journal} (JSON Lines,
+ * group-committed) instead of rewriting the whole index per entry. A background
+ * compaction folds the journal into the {@code .lif-index.json} snapshot once it
+ * grows large, and {@link #close()} folds whatever is left.
+ * <p>
+ * Every snapshot written in journaled mode is accompanied by a memory-mapped
+ * {@link BinaryIndex} ({@code .lif-index.bin}) that backs {@link #lookupOutput(File)}.
  */
-public class LifIndexManager {
+public class LifIndexManager implements Closeable {
+    private static final Logger log = LoggerService.getLogger(LifIndexManager.class);
+    /** Journal entries after which a background compaction is started. */
+    private static final long COMPACTION_THRESHOLD = 50_000;
+
     private final File indexFile;
+    private final File journalFile;
+    private final File compactingFile;
+    private final File binaryFile;
     private final ObjectMapper mapper = new ObjectMapper();
+    private final Object snapshotLock = new Object();
+    private final Object compactionLock = new Object();
+    private final JsonLinesJournal journal;
+    private final ExecutorService compactor;
+    private Future<?> compaction;
+    private long compactedThrough;
+    private volatile BinaryIndex binary;
+    /** Entries written since the binary index was last rebuilt. */
+    private final Map<String, RecentEntry> recent = new ConcurrentHashMap<>();
+    /** Consulted by {@link #lookupOutput(File)} for sources this index does not know. */
+    private final LifIndexManager readThrough;
+
+    private record RecentEntry(String output, long size, long mtime, String timestamp) {}
 
     /**
      * @param indexFile the .lif-index.json file to read/write
      */
     public LifIndexManager(File indexFile) {
         this.indexFile = indexFile;
+        this.journalFile = new File(indexFile.getPath() + ".journal");
+        this.compactingFile = new File(indexFile.getPath() + ".journal.compacting");
+        this.binaryFile = binaryFileFor(indexFile);
+        this.journal = null;
+        this.compactor = null;
+        this.readThrough = null;
+        openBinary();
+    }
+
+    /**
+     * @param indexFile the .lif-index.json file to read/write
+     * @param journaled if true, entries are appended to a journal instead of rewriting the index
+     */
+    public LifIndexManager(File indexFile, boolean journaled) throws IOException {
+        this(indexFile, journaled, null);
+    }
+
+    /**
+     * Opens a journaled index that falls back to {@code readThrough} for lookups, e.g. a
+     * worker's index segment on top of the shared main index. Writes only go to this index.
+     */
+    public LifIndexManager(File indexFile, LifIndexManager readThrough) throws IOException {
+        this(indexFile, true, readThrough);
+    }
+
+    private LifIndexManager(File indexFile, boolean journaled, LifIndexManager readThrough) throws IOException {
+        this.indexFile = indexFile;
+        this.readThrough = readThrough;
+        this.journalFile = new File(indexFile.getPath() + ".journal");
+        this.compactingFile = new File(indexFile.getPath() + ".journal.compacting");
+        this.binaryFile = binaryFileFor(indexFile);
+        if (!journaled) {
+            this.journal = null;
+            this.compactor = null;
+            openBinary();
+            return;
+        }
+        recoverInterruptedCompaction();
+        if (indexFile.exists() && !binaryFile.exists()) {
+            writeBinary(readSnapshot());
+        }
+        openBinary();
+        this.journal = new JsonLinesJournal(journalFile, mapper);
+        List<JsonNode> recovered = journal.recover();
+        for (JsonNode e : recovered) remember(e);
+        if (!recovered.isEmpty()) {
+            log.info("Recovered {} uncompacted index entries from {}", recovered.size(), journalFile.getName());
+        }
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "lif-index-compactor");
+            t.setDaemon(true);
+            return t;
+        });
     }
 
     /**
      * Reads the current index, returning an empty list if the file doesn't exist yet.
+     * In journaled mode this includes all entries not yet folded into the snapshot.
      */
-    public synchronized List<JsonNode> readIndex() throws IOException {
-        if (!indexFile.exists()) {
-            return new ArrayList<>();
+    public List<JsonNode> readIndex() throws IOException {
+        if (journal == null) {
+            synchronized (this) {
+                return readSnapshot();
+            }
+        }
+        synchronized (snapshotLock) {
+            List<JsonNode> entries = readSnapshot();
+            entries.addAll(JsonLinesJournal.readEntries(compactingFile, mapper));
+            journal.flush();
+            entries.addAll(JsonLinesJournal.readEntries(journalFile, mapper));
+            return entries;
         }
-        return mapper.readValue(indexFile, new TypeReference<List<JsonNode>>() {});
     }
 
     /**
      * Writes the full list of entries back to the index file.
+     * In journaled mode the journal is discarded, since the list replaces the whole index.
      */
-    public synchronized void writeIndex(List<JsonNode> entries) throws IOException {
-        // ensure parent dirs exist
-        File parent = indexFile.getParentFile();
-        if (parent != null) parent.mkdirs();
-        mapper.writerWithDefaultPrettyPrinter().writeValue(indexFile, entries);
+    public void writeIndex(List<JsonNode> entries) throws IOException {
+        if (journal == null) {
+            synchronized (this) {
+                writeSnapshot(entries);
+            }
+            return;
+        }
+        synchronized (compactionLock) {
+            synchronized (snapshotLock) {
+                writeSnapshot(entries);
+                // the list replaces everything, including a segment left by a failed compaction
+                Files.deleteIfExists(compactingFile.toPath());
+                journal.rotateTo(compactingFile);
+                Files.deleteIfExists(compactingFile.toPath());
+                recent.clear();
+                writeBinary(entries);
+            }
+        }
     }
 
     /**
      * Appends a single entry (source→output with timestamp) to the index.
+     * The source's size and mtime are recorded so {@link #lookupOutput(File)} can
+     * detect changed sources.
      */
-    public synchronized void writeIndexEntry(File source, File output) throws IOException {
-        List<JsonNode> entries = readIndex();
+    public void writeIndexEntry(File source, File output) throws IOException {
         ObjectNode entry = mapper.createObjectNode()
                 .put("source", source.getAbsolutePath())
                 .put("output", output.getAbsolutePath())
-                .put("timestamp", Instant.now().toString());
-        entries.add(entry);
-        writeIndex(entries);
+                .put("timestamp", Instant.now().toString())
+                .put("size", source.length())
+                .put("mtime", source.lastModified());
+        if (journal == null) {
+            synchronized (this) {
+                List<JsonNode> entries = readSnapshot();
+                entries.add(entry);
+                writeSnapshot(entries);
+            }
+            return;
+        }
+        journal.append(entry);
+        remember(entry);
+        maybeStartCompaction();
+    }
+
+    /**
+     * Returns the output recorded for {@code source} if the source is indexed with its
+     * current size and mtime, or null if it is unknown or has changed since.
+     */
+    public String lookupOutput(File source) {
+        String path = source.getAbsolutePath();
+        long size = source.length();
+        long mtime = source.lastModified();
+        RecentEntry r = recent.get(path);
+        if (r != null && r.size() == size && r.mtime() == mtime) {
+            return r.output();
+        }
+        BinaryIndex b = binary;
+        String output = b != null ? b.outputFor(path, size, mtime) : null;
+        return output == null && readThrough != null ? readThrough.lookupOutput(source) : output;
+    }
+
+    /**
+     * Blocks until all entries written so far are durable in the journal.
+     */
+    public void flush() throws IOException {
+        if (journal != null) {
+            journal.flush();
+        }
+    }
+
+    /**
+     * Folds the journal into the snapshot. Runs on the caller's thread.
+     */
+    public void compact() throws IOException {
+        if (journal == null) return;
+        awaitCompaction();
+        foldJournal();
+    }
+
+    /**
+     * Compacts the journal into the snapshot and releases the journal writer.
+     */
+    @Override
+    public void close() throws IOException {
+        if (journal == null) return;
+        compact();
+        compactor.shutdown();
+        journal.close();
+        BinaryIndex b = binary;
+        if (b != null) b.close();
+        // entries racing with close() stay in the journal and are recovered on next open
+        if (journalFile.length() == 0) {
+            Files.deleteIfExists(journalFile.toPath());
+        }
+    }
+
+    private synchronized void maybeStartCompaction() {
+        if (journal.size() - compactedThrough < COMPACTION_THRESHOLD) return;
+        if (compaction != null && !compaction.isDone()) return;
+        compactedThrough = journal.size();
+        compaction = compactor.submit(() -> {
+            try {
+                foldJournal();
+            } catch (IOException e) {
+                log.error("Background compaction of {} failed", journalFile.getName(), e);
+            }
+        });
+    }
+
+    private void awaitCompaction() throws IOException {
+        Future<?> running;
+        synchronized (this) {
+            running = compaction;
+        }
+        if (running == null) return;
+        try {
+            running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for index compaction", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Index compaction failed", e.getCause());
+        }
+    }
+
+    /**
+     * Moves the current journal aside, merges it into a new snapshot and publishes the
+     * snapshot atomically. New entries keep going to a fresh journal meanwhile. A segment
+     * left by an earlier compaction that failed is folded first, so rotating never
+     * overwrites it.
+     */
+    private void foldJournal() throws IOException {
+        synchronized (compactionLock) {
+            synchronized (snapshotLock) {
+                recoverInterruptedCompaction();
+                journal.rotateTo(compactingFile);
+            }
+            List<JsonNode> entries = readSnapshot();
+            List<JsonNode> folded = JsonLinesJournal.readEntries(compactingFile, mapper);
+            entries.addAll(folded);
+            synchronized (snapshotLock) {
+                writeSnapshot(entries);
+                Files.deleteIfExists(compactingFile.toPath());
+            }
+            writeBinary(entries);
+            for (JsonNode e : folded) {
+                RecentEntry r = recent.get(e.path("source").asText());
+                if (r != null && r.timestamp().equals(e.path("timestamp").asText())) {
+                    recent.remove(e.path("source").asText(), r);
+                }
+            }
+            log.debug("Compacted {} journal entries into {}", folded.size(), indexFile.getName());
+        }
+    }
+
+    /**
+     * A leftover compacting segment means a compaction died (or failed) midway, possibly
+     * after the new snapshot was already published. Fold only the entries the snapshot
+     * does not contain yet.
+     */
+    private void recoverInterruptedCompaction() throws IOException {
+        if (!compactingFile.exists()) return;
+        List<JsonNode> entries = readSnapshot();
+        Set<String> known = new HashSet<>();
+        for (JsonNode e : entries) known.add(entryKey(e));
+        int added = 0;
+        for (JsonNode e : JsonLinesJournal.readEntries(compactingFile, mapper)) {
+            if (known.add(entryKey(e))) {
+                entries.add(e);
+                added++;
+            }
+        }
+        writeSnapshot(entries);
+        writeBinary(entries);
+        Files.delete(compactingFile.toPath());
+        log.info("Finished interrupted index compaction ({} entries recovered)", added);
+    }
+
+    private void remember(JsonNode e) {
+        if (!e.has("size")) return;
+        recent.put(e.path("source").asText(), new RecentEntry(e.path("output").asText(),
+                e.path("size").asLong(), e.path("mtime").asLong(), e.path("timestamp").asText()));
+    }
+
+    private static File binaryFileFor(File indexFile) {
+        return new File(indexFile.getPath().replaceFirst("\\.json$", "") + ".bin");
+    }
+
+    private void openBinary() {
+        if (!binaryFile.exists()) return;
+        try {
+            binary = BinaryIndex.open(binaryFile);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable binary index {}: {}", binaryFile.getName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Rebuilds the binary lookup index from a full entry list and swaps it in.
+     * Entries without size/mtime (written by older versions) never match a lookup.
+     */
+    private void writeBinary(List<JsonNode> entries) throws IOException {
+        List<BinaryIndex.Entry> rows = new ArrayList<>(entries.size());
+        for (JsonNode e : entries) {
+            rows.add(new BinaryIndex.Entry(e.path("source").asText(), e.path("output").asText(),
+                    e.path("size").asLong(-1), e.path("mtime").asLong(-1), e.path("contentHash").asLong(0)));
+        }
+        BinaryIndex.write(binaryFile, rows);
+        BinaryIndex previous = binary;
+        binary = BinaryIndex.open(binaryFile);
+        // mappings stay valid after the channel is closed, so concurrent lookups are safe
+        if (previous != null) previous.close();
+    }
+
+    private static String entryKey(JsonNode entry) {
+        return entry.path("source").asText() + '\u0000' + entry.path("output").asText() + '\u0000' + entry.path("timestamp").asText();
+    }
+
+    private List<JsonNode> readSnapshot() throws IOException {
+        if (!indexFile.exists()) {
+            return new ArrayList<>();
+        }
+        return mapper.readValue(indexFile, new TypeReference<List<JsonNode>>() {});
+    }
+
+    private void writeSnapshot(List<JsonNode> entries) throws IOException {
+        // ensure parent dirs exist
+        File parent = indexFile.getParentFile();
+        if (parent != null) parent.mkdirs();
+        if (journal == null) {
+            mapper.writerWithDefaultPrettyPrinter().writeValue(indexFile, entries);
+            return;
+        }
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        mapper.writerWithDefaultPrettyPrinter().writeValue(tmp, entries);
+        Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 }
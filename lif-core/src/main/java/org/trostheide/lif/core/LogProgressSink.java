@@ -0,0 +1,15 @@
+package org.trostheide.lif.core;
+
+import org.slf4j.Logger;
+
+/**
+ * Writes progress lines to the SLF4J log at INFO level.
+ */
+public class LogProgressSink implements ProgressSink {
+    private static final Logger log = LoggerService.getLogger(ProgressTracker.class);
+
+    @Override
+    public void report(ProgressSnapshot snapshot) {
+        log.info(snapshot.format());
+    }
+}
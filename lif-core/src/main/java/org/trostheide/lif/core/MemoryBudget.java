@@ -0,0 +1,96 @@
+package org.trostheide.lif.core;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * Semaphore over bytes: bounds the memory held by work in flight, such as decoded images,
+ * by a fixed budget instead of by thread count times the largest item.
+ * <p>
+ * Each task reserves its estimated size with {@link #acquire(long)} before allocating and
+ * gives it back with {@link #release(long)}. Waiting tasks are admitted in arrival order, so
+ * a large item is not starved by a stream of small ones. An item larger than the whole
+ * budget is admitted once nothing else is reserved, and then runs alone.
+ */
+public class MemoryBudget {
+    private final String name;
+    private final long capacity;
+    private final ArrayDeque<Object> waiting = new ArrayDeque<>();
+    private long reserved;
+
+    /**
+     * @param name     used in metrics
+     * @param capacity budget in bytes
+     */
+    public MemoryBudget(String name, long capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("memory budget must be positive");
+        this.name = name;
+        this.capacity = capacity;
+        MetricsRegistry.global().gauge("memory." + name + ".reserved", this::reserved);
+    }
+
+    /**
+     * A budget of {@code fraction} of the maximum heap size.
+     */
+    public static MemoryBudget ofHeap(String name, double fraction) {
+        return new MemoryBudget(name, (long) (Runtime.getRuntime().maxMemory() * fraction));
+    }
+
+    /**
+     * Parses a size such as {@code 512m}, {@code 4g} or {@code 1048576} (bytes).
+     */
+    public static long parseSize(String value) {
+        String v = value.trim().toLowerCase(Locale.ROOT);
+        long unit = 1;
+        char last = v.isEmpty() ? ' ' : v.charAt(v.length() - 1);
+        switch (last) {
+            case 'k' -> unit = 1L << 10;
+            case 'm' -> unit = 1L << 20;
+            case 'g' -> unit = 1L << 30;
+            default -> { }
+        }
+        if (unit > 1) v = v.substring(0, v.length() - 1);
+        long size = (long) (Double.parseDouble(v) * unit);
+        if (size <= 0) throw new IllegalArgumentException("size must be positive: " + value);
+        return size;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    public synchronized long reserved() {
+        return reserved;
+    }
+
+    /**
+     * Blocks until {@code bytes} fit into the budget, then reserves them.
+     */
+    public synchronized void acquire(long bytes) throws InterruptedException {
+        Object ticket = new Object();
+        waiting.addLast(ticket);
+        try {
+            while (waiting.peekFirst() != ticket || !fits(bytes)) {
+                wait();
+            }
+        } finally {
+            // also on interrupt, so the ones behind are not blocked by an abandoned place in line
+            waiting.remove(ticket);
+            notifyAll();
+        }
+        reserved += bytes;
+    }
+
+    public synchronized void release(long bytes) {
+        reserved = Math.max(0, reserved - bytes);
+        notifyAll();
+    }
+
+    private boolean fits(long bytes) {
+        return reserved == 0 || reserved + bytes <= capacity;
+    }
+}
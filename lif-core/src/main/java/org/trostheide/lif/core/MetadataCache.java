@@ -0,0 +1,355 @@
+package org.trostheide.lif.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.imaging.ImageReadException;
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Two-tier cache of {@link PhotoMetadata}, keyed by file identity (absolute path, size
+ * and mtime), so a file's EXIF is parsed once per change instead of once per use.
+ * <p>
+ * The memory tier is a bounded map of parsed entries, which evicts arbitrary entries
+ * when full. The disk tier is a JSON Lines file
+ * shared by all lif tools (default {@code ~/.cache/lif/metadata-cache.jsonl}, override
+ * with the system property {@value #LOCATION_PROPERTY}, "none" disables it): only an
+ * offset per path is held in memory, and a line is read back on a memory miss. New
+ * entries are appended with one write each; superseded lines are dropped when the cache
+ * is closed, unless another process still has the file open.
+ * <p>
+ * Lookups do not lock: both tiers are concurrent maps, and lines are read back with
+ * positional reads. Only appending a line is serialized. Files whose metadata cannot be
+ * parsed are not cached, so the error is reported on every use.
+ */
+public class MetadataCache implements Closeable {
+    private static final Logger log = LoggerService.getLogger(MetadataCache.class);
+    public static final String LOCATION_PROPERTY = "lif.metadata.cache";
+    private static final int DEFAULT_MEMORY_ENTRIES = 4096;
+
+    private static final MetricsRegistry.Counter HITS = MetricsRegistry.global().counter("metadata.cache.hit");
+    private static final MetricsRegistry.Counter DISK_HITS = MetricsRegistry.global().counter("metadata.cache.disk_hit");
+    private static final MetricsRegistry.Counter MISSES = MetricsRegistry.global().counter("metadata.cache.miss");
+
+    private static volatile MetadataCache global;
+
+    /** Identity of a file's content as far as the cache is concerned. */
+    private record Key(String path, long size, long mtime) {
+        static Key of(File file) {
+            File abs = file.getAbsoluteFile();
+            return new Key(abs.getPath(), abs.length(), abs.lastModified());
+        }
+    }
+
+    private record Entry(Key key, PhotoMetadata metadata) {}
+
+    private record DiskRef(long size, long mtime, long offset, int length) {}
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final int capacity;
+    private final Map<String, Entry> memory = new ConcurrentHashMap<>();
+    private final Map<String, DiskRef> disk = new ConcurrentHashMap<>();
+    /** Guards the appender, the line count and closing. */
+    private final Object appendLock = new Object();
+    private final File file;
+    private volatile FileChannel channel;
+    private FileChannel appender;
+    private FileChannel lockChannel;
+    private FileLock sharedLock;
+    private long lines;
+
+    /**
+     * @param file          disk tier, or null for a memory-only cache
+     * @param memoryEntries capacity of the memory tier
+     */
+    public MetadataCache(File file, int memoryEntries) {
+        this.capacity = Math.max(16, memoryEntries);
+        this.file = file;
+        if (file != null) {
+            try {
+                openDisk();
+            } catch (IOException | OverlappingFileLockException e) {
+                log.warn("Metadata cache {} unavailable, using memory only: {}", file, e.getMessage());
+                closeQuietly();
+                this.channel = null;
+            }
+        }
+    }
+
+    /**
+     * The process-wide cache at the configured location, closed on JVM shutdown.
+     */
+    public static MetadataCache global() {
+        MetadataCache c = global;
+        if (c == null) {
+            synchronized (MetadataCache.class) {
+                c = global;
+                if (c == null) {
+                    c = new MetadataCache(defaultLocation(), DEFAULT_MEMORY_ENTRIES);
+                    MetadataCache created = c;
+                    Runtime.getRuntime().addShutdownHook(new Thread(created::close, "lif-metadata-cache"));
+                    global = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    private static File defaultLocation() {
+        String configured = System.getProperty(LOCATION_PROPERTY);
+        if ("none".equalsIgnoreCase(configured)) return null;
+        if (configured != null && !configured.isBlank()) return new File(configured);
+        return new File(System.getProperty("user.home"), ".cache/lif/metadata-cache.jsonl");
+    }
+
+    /**
+     * Returns the file's metadata, parsing it only if the file changed since it was cached.
+     *
+     * @throws IOException       if the file has to be parsed and cannot be read
+     * @throws ImageReadException if the file has to be parsed and its metadata is malformed
+     */
+    public PhotoMetadata get(File file) throws IOException, ImageReadException {
+        Key key = Key.of(file);
+        PhotoMetadata cached = lookup(key);
+        if (cached != null) return cached;
+        MISSES.increment();
+        PhotoMetadata parsed = PhotoMetadata.read(file);
+        store(key, parsed);
+        return parsed;
+    }
+
+    /**
+     * Records metadata parsed elsewhere (e.g. while copying EXIF), for the file's current state.
+     */
+    public void put(File file, PhotoMetadata metadata) {
+        store(Key.of(file), metadata);
+    }
+
+    /**
+     * The cached metadata for the file's current state, without parsing on a miss.
+     */
+    public PhotoMetadata peek(File file) {
+        return lookup(Key.of(file));
+    }
+
+    private PhotoMetadata lookup(Key key) {
+        Entry entry = memory.get(key.path());
+        if (entry != null && key.equals(entry.key())) {
+            HITS.increment();
+            return entry.metadata();
+        }
+        FileChannel channel = this.channel;
+        DiskRef ref = disk.get(key.path());
+        if (channel == null || ref == null || ref.size() != key.size() || ref.mtime() != key.mtime()) {
+            return null;
+        }
+        PhotoMetadata m;
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(ref.length());
+            while (buf.hasRemaining() && channel.read(buf, ref.offset() + buf.position()) >= 0) {
+                // read fully
+            }
+            JsonNode n = mapper.readTree(buf.array());
+            if (!key.path().equals(n.path("p").asText())) {
+                throw new IOException("offset points to another entry");
+            }
+            m = decode(n);
+        } catch (IOException | RuntimeException e) {
+            log.debug("Unreadable metadata cache entry for {}: {}", key.path(), e.getMessage());
+            disk.remove(key.path());
+            return null;
+        }
+        DISK_HITS.increment();
+        remember(key, m);
+        return m;
+    }
+
+    private void remember(Key key, PhotoMetadata m) {
+        memory.put(key.path(), new Entry(key, m));
+        if (memory.size() > capacity) {
+            Iterator<String> it = memory.keySet().iterator();
+            while (memory.size() > capacity && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    private void store(Key key, PhotoMetadata m) {
+        remember(key, m);
+        if (channel == null) return;
+        DiskRef existing = disk.get(key.path());
+        if (existing != null && existing.size() == key.size() && existing.mtime() == key.mtime()) return;
+        try {
+            byte[] line = (mapper.writeValueAsString(encode(key, m)) + "\n").getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buf = ByteBuffer.wrap(line);
+            synchronized (appendLock) {
+                if (channel == null) return;
+                // one write per line: appends from several processes do not interleave
+                while (buf.hasRemaining()) appender.write(buf);
+                long offset = appender.position() - line.length;
+                disk.put(key.path(), new DiskRef(key.size(), key.mtime(), offset, line.length - 1));
+                lines++;
+            }
+        } catch (IOException e) {
+            log.warn("Could not append to metadata cache {}: {}", file, e.getMessage());
+        }
+    }
+
+    private ObjectNode encode(Key key, PhotoMetadata m) {
+        ObjectNode n = mapper.createObjectNode()
+                .put("p", key.path())
+                .put("s", key.size())
+                .put("m", key.mtime());
+        if (m.dateTaken() != null) n.put("date", m.dateTaken());
+        if (m.orientation() != 0) n.put("orient", m.orientation());
+        if (m.make() != null) n.put("make", m.make());
+        if (m.model() != null) n.put("model", m.model());
+        if (!m.fields().isEmpty()) {
+            ObjectNode f = n.putObject("f");
+            m.fields().forEach(f::put);
+        }
+        return n;
+    }
+
+    private static PhotoMetadata decode(JsonNode n) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> it = n.path("f").fields();
+        while (it.hasNext()) {
+            Map.Entry<String, JsonNode> e = it.next();
+            fields.put(e.getKey(), e.getValue().asText());
+        }
+        return new PhotoMetadata(text(n, "date"), n.path("orient").asInt(0), text(n, "make"), text(n, "model"), fields);
+    }
+
+    private static String text(JsonNode n, String field) {
+        JsonNode v = n.get(field);
+        return v == null || v.isNull() ? null : v.asText();
+    }
+
+    private void openDisk() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) parent.mkdirs();
+        lockChannel = FileChannel.open(new File(file.getPath() + ".lock").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        // shared while in use; compaction needs it exclusively
+        sharedLock = lockChannel.lock(0, Long.MAX_VALUE, true);
+        appender = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        loadOffsets();
+    }
+
+    /**
+     * Reads every line once to learn where each path's latest entry is.
+     */
+    private void loadOffsets() throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()), 1 << 16)) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(512);
+            long offset = 0;
+            long lineStart = 0;
+            int b;
+            while ((b = in.read()) >= 0) {
+                offset++;
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                index(line.toByteArray(), lineStart);
+                line.reset();
+                lineStart = offset;
+            }
+            // a partial last line (crash while appending) is ignored and overwritten by compaction
+        }
+    }
+
+    private void index(byte[] line, long offset) {
+        if (line.length == 0) return;
+        try {
+            JsonNode n = mapper.readTree(line);
+            disk.put(n.path("p").asText(), new DiskRef(n.path("s").asLong(), n.path("m").asLong(), offset, line.length));
+            lines++;
+        } catch (IOException e) {
+            log.debug("Skipping corrupt metadata cache line at {}", offset);
+        }
+    }
+
+    /**
+     * Rewrites the disk tier without superseded lines if no other process uses it, then
+     * releases it. The cache keeps working from memory afterwards.
+     */
+    @Override
+    public void close() {
+        synchronized (appendLock) {
+            if (channel == null) return;
+            try {
+                sharedLock.release();
+                FileLock exclusive = lines > disk.size() * 2L ? lockChannel.tryLock() : null;
+                if (exclusive != null) {
+                    try {
+                        compact();
+                    } finally {
+                        exclusive.release();
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Could not compact metadata cache {}: {}", file, e.getMessage());
+            } finally {
+                closeQuietly();
+                channel = null;
+            }
+        }
+    }
+
+    private void compact() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (DiskRef ref : disk.values()) {
+                ByteBuffer buf = ByteBuffer.allocate(ref.length() + 1);
+                buf.limit(ref.length());
+                while (buf.hasRemaining() && channel.read(buf, ref.offset() + buf.position()) >= 0) {
+                    // read fully
+                }
+                buf.limit(ref.length() + 1);
+                buf.put((byte) '\n');
+                buf.flip();
+                while (buf.hasRemaining()) out.write(buf);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Compacted metadata cache {} from {} to {} entries", file.getName(), lines, disk.size());
+    }
+
+    private void closeQuietly() {
+        try {
+            if (appender != null) appender.close();
+            if (channel != null) channel.close();
+        } catch (IOException ignored) {
+            // nothing to do
+        }
+        try {
+            if (lockChannel != null) lockChannel.close();
+        } catch (IOException ignored) {
+            // nothing to do
+        }
+    }
+}
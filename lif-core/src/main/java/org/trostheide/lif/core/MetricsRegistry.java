@@ -0,0 +1,210 @@
+package org.trostheide.lif.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide registry of counters, gauges and {@link LatencyHistogram}s.
+ * <p>
+ * Metrics are off by default; instrumented code stays in place and costs a volatile
+ * read per call until {@link #enable()} is called (e.g. by a {@code --metrics} option).
+ * {@link #dump(File)} writes a JSON report and a Prometheus text file next to it.
+ * <p>
+ * Usage:
+ * <pre>
+ *   private static final LatencyHistogram DECODE = MetricsRegistry.global().histogram("photo.decode");
+ *   long t0 = DECODE.start();
+ *   ...
+ *   DECODE.stop(t0);
+ * </pre>
+ */
+public class MetricsRegistry {
+    private static final Logger log = LoggerService.getLogger(MetricsRegistry.class);
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private volatile boolean enabled;
+    private ScheduledExecutorService dumper;
+
+    public static MetricsRegistry global() {
+        return GLOBAL;
+    }
+
+    public void enable() {
+        enabled = true;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new LatencyHistogram(n, this));
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter(this));
+    }
+
+    /**
+     * Registers a gauge that is sampled when a report is written.
+     */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Monotonic counter; a no-op while the registry is disabled.
+     */
+    public static class Counter {
+        private final MetricsRegistry registry;
+        private final LongAdder value = new LongAdder();
+
+        Counter(MetricsRegistry registry) {
+            this.registry = registry;
+        }
+
+        public void increment() {
+            add(1);
+        }
+
+        public void add(long delta) {
+            if (registry.isEnabled()) value.add(delta);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Writes {@code jsonFile} and a Prometheus text file with the same base name and
+     * a {@code .prom} extension. Does nothing while disabled.
+     */
+    public void dump(File jsonFile) {
+        if (!enabled) return;
+        try {
+            writeAtomically(jsonFile, mapper.writerWithDefaultPrettyPrinter().writeValueAsString(toJson()));
+            writeAtomically(prometheusFileFor(jsonFile), toPrometheus());
+        } catch (IOException e) {
+            log.warn("Could not write metrics to {}: {}", jsonFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Dumps the metrics every {@code periodSeconds} until {@link #stopPeriodicDump()}.
+     */
+    public synchronized void startPeriodicDump(File jsonFile, long periodSeconds) {
+        stopPeriodicDump();
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lif-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(jsonFile), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopPeriodicDump() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+    }
+
+    /**
+     * Report with one object per histogram (count, mean/p50/p95/p99/max in ms), counters and gauges.
+     */
+    public ObjectNode toJson() {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("timestamp", Instant.now().toString());
+        ObjectNode stages = root.putObject("histograms");
+        for (LatencyHistogram h : new TreeMap<>(histograms).values()) {
+            LatencyHistogram.Summary s = h.summary();
+            if (s.count() == 0) continue;
+            stages.putObject(h.name())
+                    .put("count", s.count())
+                    .put("mean_ms", LatencyHistogram.Summary.toMillis(s.meanNanos()))
+                    .put("p50_ms", LatencyHistogram.Summary.toMillis(s.p50Nanos()))
+                    .put("p95_ms", LatencyHistogram.Summary.toMillis(s.p95Nanos()))
+                    .put("p99_ms", LatencyHistogram.Summary.toMillis(s.p99Nanos()))
+                    .put("max_ms", LatencyHistogram.Summary.toMillis(s.maxNanos()))
+                    .put("total_ms", LatencyHistogram.Summary.toMillis(s.sumNanos()));
+        }
+        ObjectNode counterNode = root.putObject("counters");
+        new TreeMap<>(counters).forEach((name, c) -> counterNode.put(name, c.get()));
+        ObjectNode gaugeNode = root.putObject("gauges");
+        new TreeMap<>(gauges).forEach((name, g) -> gaugeNode.put(name, g.getAsLong()));
+        return root;
+    }
+
+    /**
+     * Prometheus text exposition format; histograms are exported as summaries in seconds.
+     */
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        for (LatencyHistogram h : new TreeMap<>(histograms).values()) {
+            LatencyHistogram.Summary s = h.summary();
+            if (s.count() == 0) continue;
+            String metric = prometheusName(h.name()) + "_seconds";
+            sb.append("# TYPE ").append(metric).append(" summary\n");
+            appendSample(sb, metric + "{quantile=\"0.5\"}", s.p50Nanos() / 1e9);
+            appendSample(sb, metric + "{quantile=\"0.95\"}", s.p95Nanos() / 1e9);
+            appendSample(sb, metric + "{quantile=\"0.99\"}", s.p99Nanos() / 1e9);
+            appendSample(sb, metric + "_sum", s.sumNanos() / 1e9);
+            sb.append(metric).append("_count ").append(s.count()).append('\n');
+            sb.append("# TYPE ").append(metric).append("_max gauge\n");
+            appendSample(sb, metric + "_max", s.maxNanos() / 1e9);
+        }
+        new TreeMap<>(counters).forEach((name, c) -> {
+            String metric = prometheusName(name) + "_total";
+            sb.append("# TYPE ").append(metric).append(" counter\n");
+            sb.append(metric).append(' ').append(c.get()).append('\n');
+        });
+        new TreeMap<>(gauges).forEach((name, g) -> {
+            String metric = prometheusName(name);
+            sb.append("# TYPE ").append(metric).append(" gauge\n");
+            sb.append(metric).append(' ').append(g.getAsLong()).append('\n');
+        });
+        return sb.toString();
+    }
+
+    private static void appendSample(StringBuilder sb, String metric, double value) {
+        sb.append(metric).append(' ').append(String.format(Locale.ROOT, "%.6f", value)).append('\n');
+    }
+
+    private static String prometheusName(String name) {
+        return "lif_" + name.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    private static File prometheusFileFor(File jsonFile) {
+        return new File(jsonFile.getPath().replaceFirst("\\.json$", "") + ".prom");
+    }
+
+    private static void writeAtomically(File file, String content) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null) parent.mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.writeString(tmp.toPath(), content, StandardCharsets.UTF_8);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
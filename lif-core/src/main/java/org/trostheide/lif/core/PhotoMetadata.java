@@ -0,0 +1,85 @@
+package org.trostheide.lif.core;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.Imaging;
+import org.apache.commons.imaging.common.ImageMetadata;
+import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
+import org.apache.commons.imaging.formats.tiff.TiffField;
+import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
+import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
+import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
+import org.apache.commons.imaging.formats.tiff.taginfos.TagInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A file's EXIF data in a form that is cheap to cache: the values the lif tools decide
+ * on, plus every field as text for sidecars.
+ *
+ * @param dateTaken   DateTimeOriginal as stored ("yyyy:MM:dd HH:mm:ss"), or null
+ * @param orientation EXIF orientation (1-8), 0 if absent
+ * @param make        camera make, or null
+ * @param model       camera model, or null
+ * @param fields      all EXIF fields by tag name, as human-readable value descriptions
+ */
+public record PhotoMetadata(String dateTaken, int orientation, String make, String model,
+                            Map<String, String> fields) {
+
+    public static final PhotoMetadata EMPTY = new PhotoMetadata(null, 0, null, null, Map.of());
+
+    public PhotoMetadata {
+        fields = fields == null || fields.isEmpty() ? Map.of() : Collections.unmodifiableMap(new LinkedHashMap<>(fields));
+    }
+
+    /**
+     * Parses the file's metadata. Files without EXIF yield {@link #EMPTY}.
+     *
+     * @throws IOException       if the file cannot be read
+     * @throws ImageReadException if the metadata is malformed
+     */
+    public static PhotoMetadata read(File file) throws IOException, ImageReadException {
+        return from(Imaging.getMetadata(file));
+    }
+
+    /**
+     * Extracts the fields from already parsed metadata.
+     *
+     * @throws ImageReadException if a field is malformed
+     */
+    public static PhotoMetadata from(ImageMetadata metadata) throws ImageReadException {
+        TiffImageMetadata exif = null;
+        if (metadata instanceof JpegImageMetadata jpeg) {
+            exif = jpeg.getExif();
+        } else if (metadata instanceof TiffImageMetadata tiff) {
+            exif = tiff;
+        }
+        if (exif == null) {
+            return EMPTY;
+        }
+        Map<String, String> fields = new LinkedHashMap<>();
+        for (TiffField field : exif.getAllFields()) {
+            String value = field.getValueDescription();
+            if (value != null && !value.isBlank()) {
+                fields.put(field.getTagName(), value.replace("\"", ""));
+            }
+        }
+        TiffField orientation = exif.findField(TiffTagConstants.TIFF_TAG_ORIENTATION);
+        return new PhotoMetadata(
+                string(exif, ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL),
+                orientation != null ? orientation.getIntValue() : 0,
+                string(exif, TiffTagConstants.TIFF_TAG_MAKE),
+                string(exif, TiffTagConstants.TIFF_TAG_MODEL),
+                fields);
+    }
+
+    private static String string(TiffImageMetadata exif, TagInfo tag) throws ImageReadException {
+        TiffField field = exif.findField(tag);
+        if (field == null) return null;
+        String value = field.getStringValue();
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+}
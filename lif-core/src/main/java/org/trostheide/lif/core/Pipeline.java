@@ -0,0 +1,449 @@
+package org.trostheide.lif.core;
+
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Staged processing pipeline: items flow through named stages, each with its own
+ * worker threads and a bounded input queue.
+ * <p>
+ * Separate stages let I/O-bound and CPU-bound work be sized independently, and the
+ * bounded queues provide backpressure: {@link #submit(Object)} blocks once the first
+ * stage is saturated, so only a limited number of items is ever in flight.
+ * <p>
+ * All stages work on the same item type, typically a mutable per-item context that
+ * each stage fills in. A stage returning {@code false} finishes the item early
+ * (e.g. "already processed"); an exception, or an {@link Error} such as running out of
+ * memory, finishes it as failed. Either way, and on normal completion after the last
+ * stage, the {@link Listener} is told exactly once.
+ * <p>
+ * A stage may be restricted to some items with {@link #onlyIf}. The others skip it: they
+ * are handed straight to the next stage that applies to them, so they never wait behind
+ * the stage's items in its queue.
+ * <p>
+ * A stage may retry failed items with {@link #retrying}. A worker gives up its limiter
+ * permit while it waits for the next attempt, so a stage waiting out a failing resource
+ * does not hold up the other stages that share the limiter.
+ * <p>
+ * A batch stage ({@link #addBatchStage}) hands each worker whatever is queued, up to a
+ * maximum, as one batch, for work with a high fixed cost per call (e.g. starting a process).
+ *
+ * <pre>
+ *   Pipeline&lt;Job&gt; p = new Pipeline&lt;&gt;("photo-org", listener)
+ *       .addStage("read", 4, 64, this::read)
+ *       .addStage("decode", cores, 16, this::decode);
+ *   p.start();
+ *   for (File f : files) p.submit(new Job(f));
+ *   p.finish();
+ * </pre>
+ */
+public class Pipeline<T> {
+    private static final Logger log = LoggerService.getLogger(Pipeline.class);
+    private static final Object END = new Object();
+
+    /**
+     * Work done by one stage for one item.
+     */
+    @FunctionalInterface
+    public interface Step<T> {
+        /**
+         * @return true to pass the item on to the next stage, false if it is finished
+         */
+        boolean process(T item) throws Exception;
+    }
+
+    /**
+     * Work done by a batch stage for several items at once.
+     */
+    @FunctionalInterface
+    public interface BatchStep<T> {
+        /**
+         * Items reported to {@code failed} leave the pipeline as failed, the others are
+         * passed on. Throwing fails the whole batch.
+         */
+        void process(List<T> items, BiConsumer<T, Exception> failed) throws Exception;
+    }
+
+    /**
+     * Receives every item once it leaves the pipeline. Called from stage threads.
+     */
+    public interface Listener<T> {
+        void completed(T item);
+
+        void failed(T item, String stage, Exception error);
+    }
+
+    /**
+     * Snapshot of one stage. {@code utilization} is the share of the stage threads'
+     * time spent in {@link Step#process} since {@link #start()}. {@code limit} is the
+     * current concurrency limit of a stage with an {@link AdaptiveLimiter}, else its
+     * thread count.
+     */
+    public record StageStats(String name, int threads, int limit, int queueDepth, int queueCapacity,
+                             long processed, long failed, double utilization) {
+    }
+
+    private final String name;
+    private final Listener<T> listener;
+    private final List<Stage> stages = new ArrayList<>();
+    private CountDownLatch terminated;
+    private long startNanos;
+    private boolean started;
+
+    public Pipeline(String name, Listener<T> listener) {
+        this.name = name;
+        this.listener = listener;
+    }
+
+    /**
+     * Appends a stage. Must be called before {@link #start()}.
+     *
+     * @param threads       worker threads for this stage
+     * @param queueCapacity bound of the stage's input queue
+     */
+    public Pipeline<T> addStage(String stageName, int threads, int queueCapacity, Step<T> step) {
+        return addStage(stageName, threads, queueCapacity,
+                ExecutorFactory.threadFactory(ExecutionMode.PLATFORM, name + "-" + stageName), step);
+    }
+
+    /**
+     * Appends a stage whose workers are created by {@code threadFactory}, e.g. virtual
+     * threads for stages that mostly wait (see {@link ExecutorFactory}).
+     */
+    public Pipeline<T> addStage(String stageName, int threads, int queueCapacity, ThreadFactory threadFactory,
+                                Step<T> step) {
+        if (started) throw new IllegalStateException("Pipeline " + name + " already started");
+        stages.add(new Stage(stageName, Math.max(1, threads), Math.max(1, queueCapacity), threadFactory, null, step, null, 1));
+        return this;
+    }
+
+    /**
+     * Appends a stage whose concurrency is governed by {@code limiter}: it gets
+     * {@link AdaptiveLimiter#max()} workers, of which only {@link AdaptiveLimiter#limit()}
+     * run {@link Step#process} at a time. A limiter may be shared by several stages, which
+     * then count against one common limit.
+     */
+    public Pipeline<T> addStage(String stageName, AdaptiveLimiter limiter, int queueCapacity,
+                                ThreadFactory threadFactory, Step<T> step) {
+        if (started) throw new IllegalStateException("Pipeline " + name + " already started");
+        stages.add(new Stage(stageName, limiter.max(), Math.max(1, queueCapacity), threadFactory, limiter, step, null, 1));
+        return this;
+    }
+
+    /**
+     * Appends a batch stage governed by {@code limiter}, like
+     * {@link #addStage(String, AdaptiveLimiter, int, ThreadFactory, Step)}. A worker takes
+     * the next item and, without waiting for more, whatever else is queued up to
+     * {@code maxBatch} items, and processes them in one call holding one permit. The
+     * limiter sees the batch's latency divided by its size.
+     */
+    public Pipeline<T> addBatchStage(String stageName, AdaptiveLimiter limiter, int queueCapacity, int maxBatch,
+                                     ThreadFactory threadFactory, BatchStep<T> step) {
+        if (started) throw new IllegalStateException("Pipeline " + name + " already started");
+        stages.add(new Stage(stageName, limiter.max(), Math.max(1, queueCapacity), threadFactory, limiter, null, step,
+                Math.max(1, maxBatch)));
+        return this;
+    }
+
+    /**
+     * Restricts the stage added last to the items matching {@code condition}; the others
+     * skip it. Must be called before {@link #start()}.
+     */
+    public Pipeline<T> onlyIf(Predicate<? super T> condition) {
+        if (started) throw new IllegalStateException("Pipeline " + name + " already started");
+        if (stages.isEmpty()) throw new IllegalStateException("Pipeline " + name + " has no stages");
+        stages.get(stages.size() - 1).condition = condition;
+        return this;
+    }
+
+    /**
+     * Retries the items failing in the stage added last according to {@code retry}. Not
+     * for batch stages. Must be called before {@link #start()}.
+     */
+    public Pipeline<T> retrying(RetryExecutor retry) {
+        if (started) throw new IllegalStateException("Pipeline " + name + " already started");
+        if (stages.isEmpty()) throw new IllegalStateException("Pipeline " + name + " has no stages");
+        Stage stage = stages.get(stages.size() - 1);
+        if (stage.batchStep != null) throw new IllegalStateException("Batch stage " + stage.name + " cannot retry");
+        stage.retry = retry;
+        return this;
+    }
+
+    public synchronized void start() {
+        if (stages.isEmpty()) throw new IllegalStateException("Pipeline " + name + " has no stages");
+        if (started) return;
+        started = true;
+        startNanos = System.nanoTime();
+        int total = 0;
+        for (Stage s : stages) total += s.threads;
+        terminated = new CountDownLatch(total);
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            int position = i;
+            MetricsRegistry.global().gauge("pipeline." + name + "." + stage.name + ".queue", stage.queue::size);
+            for (int t = 0; t < stage.threads; t++) {
+                stage.threadFactory.newThread(() -> stage.run(position)).start();
+            }
+        }
+    }
+
+    /**
+     * Hands an item to the first stage, blocking while its queue is full.
+     */
+    public void submit(T item) throws InterruptedException {
+        if (!started) throw new IllegalStateException("Pipeline " + name + " not started");
+        Stage first = route(0, item);
+        if (first != null) {
+            first.queue.put(item);
+        } else {
+            stages.get(0).notifyCompleted(item);
+        }
+    }
+
+    /**
+     * The first stage from {@code position} on that applies to {@code item}, or null if none does.
+     * <p>
+     * Skipping stages cannot overtake the end of input: it reaches a stage only after all
+     * stages before it have finished, and so after every item put into its queue.
+     */
+    private Stage route(int position, T item) {
+        for (int i = position; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            if (stage.condition == null || stage.condition.test(item)) return stage;
+        }
+        return null;
+    }
+
+    /**
+     * Signals the end of input and waits until every submitted item has left the pipeline.
+     */
+    public void finish() throws InterruptedException {
+        Stage first = stages.get(0);
+        for (int i = 0; i < first.threads; i++) {
+            first.queue.put(END);
+        }
+        terminated.await();
+    }
+
+    public List<StageStats> stats() {
+        long elapsed = Math.max(1, System.nanoTime() - startNanos);
+        List<StageStats> result = new ArrayList<>(stages.size());
+        for (Stage s : stages) {
+            double utilization = started ? (double) s.busyNanos.sum() / ((double) elapsed * s.threads) : 0;
+            int limit = s.limiter != null ? s.limiter.limit() : s.threads;
+            result.add(new StageStats(s.name, s.threads, limit, s.queue.size(), s.capacity,
+                    s.processed.sum(), s.failed.sum(), Math.min(1.0, utilization)));
+        }
+        return result;
+    }
+
+    /**
+     * One line per stage, e.g. for a final summary.
+     */
+    public String formatStats() {
+        StringBuilder sb = new StringBuilder();
+        for (StageStats s : stats()) {
+            String threads = s.limit() != s.threads() ? s.limit() + "/" + s.threads() : String.valueOf(s.threads());
+            sb.append(String.format("  %-10s threads=%-5s processed=%-8d failed=%-6d queue=%d/%d busy=%.0f%%%n",
+                    s.name(), threads, s.processed(), s.failed(), s.queueDepth(), s.queueCapacity(),
+                    s.utilization() * 100));
+        }
+        return sb.toString();
+    }
+
+    private final class Stage {
+        final String name;
+        final int threads;
+        final int capacity;
+        final ThreadFactory threadFactory;
+        final AdaptiveLimiter limiter;
+        final Step<T> step;
+        final BatchStep<T> batchStep;
+        final int maxBatch;
+        final BlockingQueue<Object> queue;
+        final LatencyHistogram latency;
+        final AtomicInteger running;
+        final LongAdder processed = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder busyNanos = new LongAdder();
+        Predicate<? super T> condition;
+        RetryExecutor retry;
+
+        Stage(String name, int threads, int capacity, ThreadFactory threadFactory, AdaptiveLimiter limiter,
+              Step<T> step, BatchStep<T> batchStep, int maxBatch) {
+            this.name = name;
+            this.threads = threads;
+            this.capacity = capacity;
+            this.threadFactory = threadFactory;
+            this.limiter = limiter;
+            this.step = step;
+            this.batchStep = batchStep;
+            this.maxBatch = maxBatch;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.latency = MetricsRegistry.global().histogram("pipeline." + Pipeline.this.name + "." + name);
+            this.running = new AtomicInteger(threads);
+        }
+
+        @SuppressWarnings("unchecked")
+        void run(int position) {
+            Stage next = position + 1 < stages.size() ? stages.get(position + 1) : null;
+            try {
+                while (true) {
+                    Object taken = queue.take();
+                    if (taken == END) break;
+                    T item = (T) taken;
+                    if (batchStep != null) {
+                        List<T> batch = new ArrayList<>(maxBatch);
+                        batch.add(item);
+                        boolean end = false;
+                        while (batch.size() < maxBatch) {
+                            Object more = queue.poll();
+                            if (more == null) break;
+                            // each worker takes exactly one end marker
+                            if (more == END) {
+                                end = true;
+                                break;
+                            }
+                            batch.add((T) more);
+                        }
+                        runBatch(batch, position);
+                        if (end) break;
+                        continue;
+                    }
+                    runOne(item, position);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // the last worker of this stage passes the end of input on, even if it died,
+                // or finish() would never return
+                if (running.decrementAndGet() == 0 && next != null) {
+                    for (int i = 0; i < next.threads; i++) {
+                        putUninterruptibly(next.queue, END);
+                    }
+                }
+                terminated.countDown();
+            }
+        }
+
+        private void runOne(T item, int position) throws InterruptedException {
+            if (limiter != null) limiter.acquire();
+            long t0 = System.nanoTime();
+            long[] waited = new long[1];
+            boolean forward;
+            try {
+                forward = retry == null ? step.process(item) : retry.execute(() -> step.process(item),
+                        millis -> backoff(millis, waited));
+            } catch (Throwable e) {
+                // also an Error such as OutOfMemoryError fails only this item
+                busyNanos.add(System.nanoTime() - t0 - waited[0]);
+                if (limiter != null) limiter.releaseFailed();
+                failed.increment();
+                notifyFailed(item, e);
+                return;
+            }
+            long spent = System.nanoTime() - t0 - waited[0];
+            if (limiter != null) limiter.release(spent);
+            busyNanos.add(spent);
+            latency.record(spent);
+            processed.increment();
+            Stage target = forward ? route(position + 1, item) : null;
+            if (target != null) {
+                target.queue.put(item);
+            } else {
+                notifyCompleted(item);
+            }
+        }
+
+        /**
+         * Waits for the next attempt without holding a permit; {@code waited} accumulates
+         * the time, which is no work.
+         */
+        private void backoff(long millis, long[] waited) throws InterruptedException {
+            if (limiter != null) limiter.releaseFailed();
+            long t0 = System.nanoTime();
+            try {
+                Thread.sleep(millis);
+            } finally {
+                if (limiter != null) limiter.acquire();
+                waited[0] += System.nanoTime() - t0;
+            }
+        }
+
+        private void runBatch(List<T> batch, int position) throws InterruptedException {
+            if (limiter != null) limiter.acquire();
+            long t0 = System.nanoTime();
+            Map<T, Exception> failures = new IdentityHashMap<>();
+            try {
+                batchStep.process(batch, failures::put);
+            } catch (Throwable e) {
+                busyNanos.add(System.nanoTime() - t0);
+                if (limiter != null) limiter.releaseFailed();
+                failed.add(batch.size());
+                for (T item : batch) notifyFailed(item, e);
+                return;
+            }
+            long spent = System.nanoTime() - t0;
+            if (limiter != null) limiter.release(spent / batch.size());
+            busyNanos.add(spent);
+            for (T item : batch) {
+                Exception error = failures.get(item);
+                if (error != null) {
+                    failed.increment();
+                    notifyFailed(item, error);
+                    continue;
+                }
+                latency.record(spent / batch.size());
+                processed.increment();
+                Stage target = route(position + 1, item);
+                if (target != null) {
+                    target.queue.put(item);
+                } else {
+                    notifyCompleted(item);
+                }
+            }
+        }
+
+        // a throwing listener must not kill the worker, or finish() would never return
+        private void notifyCompleted(T item) {
+            try {
+                listener.completed(item);
+            } catch (RuntimeException e) {
+                log.error("Pipeline listener failed in stage {}", name, e);
+            }
+        }
+
+        private void notifyFailed(T item, Throwable error) {
+            try {
+                listener.failed(item, name, error instanceof Exception exception ? exception : new RuntimeException(error));
+            } catch (RuntimeException e) {
+                log.error("Pipeline listener failed in stage {}", name, e);
+            }
+        }
+    }
+
+    private static void putUninterruptibly(BlockingQueue<Object> queue, Object element) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(element);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,9 @@
+package org.trostheide.lif.core;
+
+/**
+ * Receives throttled progress updates from a {@link ProgressTracker}.
+ * Called from a single reporter thread, never concurrently.
+ */
+public interface ProgressSink {
+    void report(ProgressSnapshot snapshot);
+}
@@ -0,0 +1,50 @@
+package org.trostheide.lif.core;
+
+import java.util.Map;
+
+/**
+ * Immutable view of a {@link ProgressTracker} at one reporting tick.
+ *
+ * @param total          total units of work (0 if unknown)
+ * @param completed      completed units
+ * @param bytes          bytes processed so far
+ * @param elapsedMillis  time since {@link ProgressTracker#startTask(long)}
+ * @param filesPerSecond moving average throughput in units/s
+ * @param bytesPerSecond moving average throughput in bytes/s
+ * @param etaSeconds     estimated seconds to completion, or -1 if unknown
+ * @param stages         per-stage counters (e.g. written, skipped, failed)
+ * @param limits         current concurrency limits by name (see {@link AdaptiveLimiter})
+ * @param finished       true for the final snapshot
+ */
+public record ProgressSnapshot(long total, long completed, long bytes, long elapsedMillis,
+                               double filesPerSecond, double bytesPerSecond, long etaSeconds,
+                               Map<String, Long> stages, Map<String, Integer> limits, boolean finished) {
+
+    public int percent() {
+        return total > 0 ? (int) ((completed * 100) / total) : 100;
+    }
+
+    /**
+     * One-line human readable form used by the console and log sinks.
+     */
+    public String format() {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(String.format("[Progress] %d/%d processed (%d%%) | %.1f files/s | %.1f MB/s",
+                completed, total, percent(), filesPerSecond, bytesPerSecond / (1024 * 1024)));
+        if (!finished && etaSeconds >= 0) {
+            sb.append(String.format(" | ETA %d:%02d:%02d", etaSeconds / 3600, (etaSeconds / 60) % 60, etaSeconds % 60));
+        }
+        if (finished) {
+            sb.append(String.format(" | elapsed %ds", elapsedMillis / 1000));
+        }
+        if (!stages.isEmpty()) {
+            sb.append(" |");
+            stages.forEach((name, count) -> sb.append(' ').append(name).append('=').append(count));
+        }
+        if (!limits.isEmpty() && !finished) {
+            sb.append(" | limit");
+            limits.forEach((name, limit) -> sb.append(' ').append(name).append('=').append(limit));
+        }
+        return sb.toString();
+    }
+}
@@ -1,61 +1,188 @@
 package org.trostheide.lif.core;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory; // Use standard SLF4J factory
-
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Simple progress reporter that logs "completed/total (percent%)" on each step.
+ * Progress reporter for multi-threaded jobs.
+ * <p>
+ * Workers only bump striped counters ({@link LongAdder}), which is cheap and
+ * contention-free. A single scheduled thread turns the counters into a
+ * {@link ProgressSnapshot} at most {@code maxUpdatesPerSecond} times per second
+ * and hands it to the configured {@link ProgressSink}s.
  */
 public class ProgressTracker {
-    // Use standard LoggerFactory, not the custom LoggerService
-    private static final Logger log = LoggerFactory.getLogger(ProgressTracker.class);
-    private long totalWork;
-    private final AtomicLong completed = new AtomicLong(0);
+    private static final double EMA_ALPHA = 0.3;
+
+    private final List<ProgressSink> sinks;
+    private final long periodMillis;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final Map<String, LongAdder> stages = new ConcurrentHashMap<>();
+    private final Map<String, AdaptiveLimiter> limiters = new ConcurrentHashMap<>();
+    private volatile long totalWork;
+
+    private ScheduledExecutorService reporter;
+    private long startNanos;
+    private long lastNanos;
+    private long lastCompleted;
+    private long lastBytes;
+    private long lastReported = -1;
+    private double filesRate;
+    private double bytesRate;
 
     /**
-     * No-argument constructor.
+     * Reports to console and log, at most twice per second.
      */
     public ProgressTracker() {
-        // The constructor is now empty as it should be.
+        this(2, new ConsoleProgressSink(), new LogProgressSink());
+    }
+
+    /**
+     * @param maxUpdatesPerSecond upper bound for sink updates
+     * @param sinks               receivers of the updates
+     */
+    public ProgressTracker(double maxUpdatesPerSecond, ProgressSink... sinks) {
+        this.sinks = List.of(sinks);
+        this.periodMillis = Math.max(1, (long) (1000 / maxUpdatesPerSecond));
     }
 
     /**
-     * Initialize the tracker with the total units of work.
+     * Initialize the tracker with the total units of work and start periodic reporting.
      */
-    public void startTask(long totalWork) {
+    public synchronized void startTask(long totalWork) {
         this.totalWork = totalWork;
-        this.completed.set(0);
-        String msg = formatMessage(0);
-        log.info(msg);
-        System.out.println(msg); // Also print to stdout for visibility
+        this.completed.reset();
+        this.bytes.reset();
+        this.stages.clear();
+        this.startNanos = System.nanoTime();
+        this.lastNanos = startNanos;
+        this.lastCompleted = 0;
+        this.lastBytes = 0;
+        this.lastReported = -1;
+        this.filesRate = 0;
+        this.bytesRate = 0;
+        stopReporter();
+        publish(false);
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lif-progress");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(() -> publish(false), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Raises the total, for jobs whose size is discovered while they run.
+     */
+    public void addTotal(long count) {
+        synchronized (this) {
+            totalWork += count;
+        }
     }
 
     /**
      * Advance the completed count by the given amount.
      */
     public void step(long count) {
-        long done = this.completed.addAndGet(count);
-        String msg = formatMessage(done);
-        log.info(msg);
-        System.out.println(msg);
+        completed.add(count);
+    }
+
+    /**
+     * Advance the completed count and the processed byte volume.
+     */
+    public void step(long count, long byteCount) {
+        completed.add(count);
+        bytes.add(byteCount);
+    }
+
+    /**
+     * Counts one item for a named stage or outcome (e.g. "written", "skipped").
+     */
+    public void stage(String name) {
+        stages.computeIfAbsent(name, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Shows the limiter's current limit in every update. Kept across {@link #startTask}.
+     */
+    public void showLimit(AdaptiveLimiter limiter) {
+        limiters.put(limiter.name(), limiter);
     }
 
     /**
-     * Call when all work is done to log the final 100% message.
+     * Call when all work is done to report the final 100% message and stop the reporter.
      */
     public void onComplete() {
-        this.completed.set(this.totalWork);
-        String msg = formatMessage(this.totalWork);
-        log.info(msg);
-        System.out.println(msg);
+        synchronized (this) {
+            stopReporter();
+            long done = completed.sum();
+            if (done < totalWork) {
+                completed.add(totalWork - done);
+            }
+            publish(true);
+        }
+    }
+
+    /**
+     * Current state without waiting for the next tick.
+     */
+    public synchronized ProgressSnapshot snapshot() {
+        return buildSnapshot(System.nanoTime(), completed.sum(), bytes.sum(), false);
+    }
+
+    private synchronized void publish(boolean finished) {
+        long now = System.nanoTime();
+        long done = completed.sum();
+        long volume = bytes.sum();
+        if (!finished && done == lastReported && lastReported >= 0) {
+            return;
+        }
+        double dt = (now - lastNanos) / 1e9;
+        if (dt > 0 && now != startNanos) {
+            double instFiles = (done - lastCompleted) / dt;
+            double instBytes = (volume - lastBytes) / dt;
+            boolean first = lastCompleted == 0 && lastBytes == 0;
+            filesRate = first ? instFiles : EMA_ALPHA * instFiles + (1 - EMA_ALPHA) * filesRate;
+            bytesRate = first ? instBytes : EMA_ALPHA * instBytes + (1 - EMA_ALPHA) * bytesRate;
+        }
+        lastNanos = now;
+        lastCompleted = done;
+        lastBytes = volume;
+        lastReported = done;
+
+        ProgressSnapshot snapshot = buildSnapshot(now, done, volume, finished);
+        for (ProgressSink sink : sinks) {
+            sink.report(snapshot);
+        }
+    }
+
+    private ProgressSnapshot buildSnapshot(long now, long done, long volume, boolean finished) {
+        long elapsedMillis = (now - startNanos) / 1_000_000;
+        double files = filesRate;
+        double byteRate = bytesRate;
+        if (finished && elapsedMillis > 0) {
+            files = done * 1000.0 / elapsedMillis;
+            byteRate = volume * 1000.0 / elapsedMillis;
+        }
+        long eta = files > 0 && totalWork > done ? (long) ((totalWork - done) / files) : (totalWork > done ? -1 : 0);
+        Map<String, Long> stageCounts = new TreeMap<>();
+        stages.forEach((name, adder) -> stageCounts.put(name, adder.sum()));
+        Map<String, Integer> limits = new TreeMap<>();
+        limiters.forEach((name, limiter) -> limits.put(name, limiter.limit()));
+        return new ProgressSnapshot(totalWork, done, volume, elapsedMillis, files, byteRate, eta, stageCounts, limits, finished);
     }
 
-    private String formatMessage(long done) {
-        int percent = totalWork > 0
-                ? (int)((done * 100) / totalWork)
-                : 100;
-        return String.format("[Progress] %d/%d processed (%d%%)", done, totalWork, percent);
+    private void stopReporter() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
     }
 }
@@ -1,36 +1,177 @@
-
 // lif-core/src/main/java/org/trostheide/lif/core/RetryExecutor.java
 package org.trostheide.lif.core;
 
-import com.fasterxml.jackson.databind.JsonNode;
-
-import java.io.File;
-import java.nio.file.Files;
-import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Runs a task with retries according to a {@link RetryPolicy}, optionally guarded by a
+ * {@link CircuitBreaker}.
+ * <p>
+ * {@link #execute(Callable)} retries on the caller's thread. {@link #executeAsync} never
+ * blocks a thread while waiting: the backoff is a timer on a shared scheduler, and the
+ * next attempt is handed back to the given executor, so pool workers stay free for
+ * other work while an endpoint recovers.
+ */
 public class RetryExecutor {
-    private final int maxAttempts;
-    private final long backoffMillis;
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lif-retry-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final RetryPolicy policy;
+    private final CircuitBreaker breaker;
+
+    /**
+     * Waits between two attempts of {@link #execute(Callable, Backoff)}.
+     */
+    @FunctionalInterface
+    public interface Backoff {
+        void await(long millis) throws InterruptedException;
+    }
 
+    /**
+     * Linear backoff: the n-th retry waits {@code n * backoffMillis}.
+     */
     public RetryExecutor(int maxAttempts, long backoffMillis) {
-        this.maxAttempts = maxAttempts;
-        this.backoffMillis = backoffMillis;
+        this(RetryPolicy.linear(maxAttempts, backoffMillis), null);
+    }
+
+    /**
+     * @param breaker may be null
+     */
+    public RetryExecutor(RetryPolicy policy, CircuitBreaker breaker) {
+        this.policy = policy;
+        this.breaker = breaker;
     }
 
     public <T> T execute(Callable<T> callable) throws Exception {
+        return execute(callable, Thread::sleep);
+    }
+
+    /**
+     * Like {@link #execute(Callable)}, with {@code backoff} doing the waiting, e.g. to give
+     * up a resource the caller holds while it waits.
+     */
+    public <T> T execute(Callable<T> callable, Backoff backoff) throws Exception {
+        long start = System.currentTimeMillis();
         int attempts = 0;
+        Exception last = null;
         while (true) {
+            acquire(last);
             try {
-                return callable.call();
+                T value = callable.call();
+                if (breaker != null) breaker.onSuccess();
+                return value;
+            } catch (Error e) {
+                // releases a half-open trial, which would otherwise block the breaker for good
+                if (breaker != null) breaker.onFailure();
+                throw e;
             } catch (Exception e) {
                 attempts++;
-                if (attempts >= maxAttempts) {
+                long delay = nextDelay(e, attempts, start);
+                if (delay < 0) {
                     throw e;
                 }
-                Thread.sleep(backoffMillis * attempts);
+                last = e;
+                backoff.await(delay);
             }
         }
     }
-}
 
+    /**
+     * Runs the task on {@code executor}, retrying failures without blocking any thread
+     * during backoff. The future completes with the result or the last failure
+     * ({@link CircuitBreaker.OpenException} if the breaker rejected the first attempt).
+     */
+    public <T> CompletableFuture<T> executeAsync(Callable<T> callable, Executor executor) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        submit(callable, executor, result, 1, System.currentTimeMillis(), null);
+        return result;
+    }
+
+    private <T> void submit(Callable<T> callable, Executor executor, CompletableFuture<T> result,
+                            int attempt, long start, Exception last) {
+        try {
+            executor.execute(() -> runAttempt(callable, executor, result, attempt, start, last));
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private <T> void runAttempt(Callable<T> callable, Executor executor, CompletableFuture<T> result,
+                                int attempt, long start, Exception last) {
+        if (result.isDone()) return; // cancelled by the caller
+        T value;
+        try {
+            acquire(last);
+            value = callable.call();
+        } catch (Throwable e) {
+            long delay;
+            if (e instanceof Exception) {
+                delay = nextDelay(e, attempt, start);
+            } else {
+                if (breaker != null) breaker.onFailure(); // see execute
+                delay = -1;
+            }
+            if (delay < 0) {
+                result.completeExceptionally(e);
+            } else {
+                SCHEDULER.schedule(() -> submit(callable, executor, result, attempt + 1, start, (Exception) e),
+                        delay, TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+        if (breaker != null) breaker.onSuccess();
+        result.complete(value);
+    }
+
+    /**
+     * Fails fast if the breaker is open. When a retry is rejected, the previous failure is
+     * rethrown (it says more than "circuit open"), with the rejection attached as suppressed.
+     */
+    private void acquire(Exception last) throws Exception {
+        if (breaker != null && !breaker.tryAcquire()) {
+            CircuitBreaker.OpenException open = new CircuitBreaker.OpenException(breaker.name());
+            if (last == null) throw open;
+            last.addSuppressed(open);
+            throw last;
+        }
+    }
+
+    /**
+     * Records the failure and returns the delay before the next attempt, or -1 to give up.
+     */
+    private long nextDelay(Throwable error, int attempts, long start) {
+        if (error instanceof CircuitBreaker.OpenException || hasOpenSuppressed(error)) {
+            return -1;
+        }
+        boolean retryable = policy.isRetryable(error);
+        if (breaker != null) {
+            // only transient failures say something about the endpoint's health
+            if (retryable) breaker.onFailure();
+            else breaker.onSuccess();
+        }
+        if (!retryable || attempts >= policy.maxAttempts()) {
+            return -1;
+        }
+        long delay = policy.delayMillis(attempts);
+        if (policy.deadlineMillis() > 0 && System.currentTimeMillis() + delay - start > policy.deadlineMillis()) {
+            return -1;
+        }
+        return delay;
+    }
+
+    private static boolean hasOpenSuppressed(Throwable error) {
+        for (Throwable s : error.getSuppressed()) {
+            if (s instanceof CircuitBreaker.OpenException) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,99 @@
+package org.trostheide.lif.core;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * Immutable retry settings for {@link RetryExecutor}: attempt limit, exponential
+ * backoff with jitter, an overall deadline and a predicate selecting retryable errors.
+ * <p>
+ * Instances are derived from each other with the {@code with...} methods, e.g.
+ * <pre>
+ *   new RetryPolicy(5, 500).withMaxDelay(10_000).withDeadline(60_000).retryOn(e -&gt; e instanceof IOException)
+ * </pre>
+ */
+public class RetryPolicy {
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final double multiplier;
+    private final long maxDelayMillis;
+    private final double jitter;
+    private final long deadlineMillis;
+    private final Predicate<Throwable> retryOn;
+
+    /**
+     * Exponential backoff doubling from {@code initialDelayMillis}, 50% jitter, no deadline,
+     * retrying on every exception.
+     */
+    public RetryPolicy(int maxAttempts, long initialDelayMillis) {
+        this(maxAttempts, initialDelayMillis, 2.0, Long.MAX_VALUE, 0.5, 0, e -> true);
+    }
+
+    private RetryPolicy(int maxAttempts, long initialDelayMillis, double multiplier, long maxDelayMillis,
+                        double jitter, long deadlineMillis, Predicate<Throwable> retryOn) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialDelayMillis = Math.max(0, initialDelayMillis);
+        this.multiplier = multiplier;
+        this.maxDelayMillis = maxDelayMillis;
+        this.jitter = Math.min(1.0, Math.max(0.0, jitter));
+        this.deadlineMillis = deadlineMillis;
+        this.retryOn = retryOn;
+    }
+
+    /**
+     * The behaviour of the original {@code RetryExecutor(maxAttempts, backoffMillis)}:
+     * the n-th retry waits {@code n * backoffMillis}, without jitter.
+     */
+    public static RetryPolicy linear(int maxAttempts, long backoffMillis) {
+        return new RetryPolicy(maxAttempts, backoffMillis, 1.0, Long.MAX_VALUE, 0.0, 0, e -> true);
+    }
+
+    /** Growth factor between consecutive delays; 1.0 means linear growth. */
+    public RetryPolicy withMultiplier(double multiplier) {
+        return new RetryPolicy(maxAttempts, initialDelayMillis, multiplier, maxDelayMillis, jitter, deadlineMillis, retryOn);
+    }
+
+    public RetryPolicy withMaxDelay(long maxDelayMillis) {
+        return new RetryPolicy(maxAttempts, initialDelayMillis, multiplier, maxDelayMillis, jitter, deadlineMillis, retryOn);
+    }
+
+    /** Fraction (0..1) of each delay that is randomized, to spread out retries of concurrent callers. */
+    public RetryPolicy withJitter(double jitter) {
+        return new RetryPolicy(maxAttempts, initialDelayMillis, multiplier, maxDelayMillis, jitter, deadlineMillis, retryOn);
+    }
+
+    /** Gives up once the next attempt would start later than this many ms after the first one (0 = no deadline). */
+    public RetryPolicy withDeadline(long deadlineMillis) {
+        return new RetryPolicy(maxAttempts, initialDelayMillis, multiplier, maxDelayMillis, jitter, deadlineMillis, retryOn);
+    }
+
+    /** Only failures matching the predicate are retried; others fail immediately. */
+    public RetryPolicy retryOn(Predicate<Throwable> retryOn) {
+        return new RetryPolicy(maxAttempts, initialDelayMillis, multiplier, maxDelayMillis, jitter, deadlineMillis, retryOn);
+    }
+
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    public long deadlineMillis() {
+        return deadlineMillis;
+    }
+
+    public boolean isRetryable(Throwable error) {
+        return retryOn.test(error);
+    }
+
+    /**
+     * Delay before the given retry (1 = the first retry).
+     */
+    public long delayMillis(int retry) {
+        double base = multiplier == 1.0
+                ? (double) initialDelayMillis * retry
+                : initialDelayMillis * Math.pow(multiplier, retry - 1);
+        long capped = (long) Math.min(base, (double) maxDelayMillis);
+        if (jitter == 0 || capped == 0) return capped;
+        long spread = (long) (capped * jitter);
+        return capped - spread + ThreadLocalRandom.current().nextLong(spread + 1);
+    }
+}
@@ -0,0 +1,305 @@
+package org.trostheide.lif.core;
+
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Coordinates workers that share one run directory on a common filesystem.
+ * <p>
+ * Work is split into a fixed number of shards by a consistent hash of each file's
+ * relative path, so every worker computes the same partition without talking to the
+ * others. A worker claims a shard by creating a lease file, keeps it alive by touching
+ * it, and creates a done marker once the shard is finished.
+ * <p>
+ * Leases are numbered by generation ({@code shard-0007.g3.lease}). Claiming a free
+ * shard creates generation 1; taking over an expired lease creates the next generation.
+ * Both use {@code CREATE_NEW}, so exactly one worker wins each claim, and the highest
+ * generation is always the owner. A worker that stalls past its lease notices the newer
+ * generation on its next heartbeat. Expiry compares file mtimes with the local clock,
+ * so the lease duration must be well above the clock skew between machines.
+ */
+public class ShardCoordinator implements Closeable {
+    private static final Logger log = LoggerService.getLogger(ShardCoordinator.class);
+    private static final String LAYOUT_FILE = "shards";
+
+    private final Path runDir;
+    private final String workerId;
+    private final int shards;
+    private final long leaseMillis;
+    /** Owned shard → lease generation. */
+    private final ConcurrentHashMap<Integer, Integer> owned = new ConcurrentHashMap<>();
+    private final Set<Integer> lost = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService heartbeat;
+
+    /**
+     * @param runDir      directory shared by all workers of one run
+     * @param workerId    unique name of this worker
+     * @param shards      shard count; the first worker fixes it for the run, later ones adopt it
+     * @param leaseMillis time after which a lease that was not renewed may be taken over
+     */
+    public ShardCoordinator(Path runDir, String workerId, int shards, long leaseMillis) throws IOException {
+        if (shards < 1) throw new IllegalArgumentException("shard count must be positive");
+        this.runDir = Files.createDirectories(runDir);
+        this.workerId = workerId;
+        this.shards = fixLayout(shards);
+        this.leaseMillis = leaseMillis;
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lif-shard-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(100, leaseMillis / 3);
+        heartbeat.scheduleAtFixedRate(this::renewAll, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Jump consistent hash (Lamping and Veach) of the key's XXH64: uniform over the
+     * shards, and changing the shard count only moves the keys that have to move.
+     */
+    public static int shardOf(String key, int shards) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        long k = XxHash64.hash(bytes, 0, bytes.length, 0);
+        long b = -1;
+        long j = 0;
+        while (j < shards) {
+            b = j;
+            k = k * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((k >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+
+    public int shards() {
+        return shards;
+    }
+
+    public String workerId() {
+        return workerId;
+    }
+
+    /**
+     * Shard to start claiming from, different per worker so workers starting together
+     * do not all contend for shard 0.
+     */
+    public int firstShard() {
+        return shardOf(workerId, shards);
+    }
+
+    public boolean isDone(int shard) {
+        return Files.exists(doneFile(shard));
+    }
+
+    public boolean allDone() {
+        for (int s = 0; s < shards; s++) {
+            if (!isDone(s)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Tries to claim a shard that is neither done nor held by a live lease.
+     *
+     * @return true if this worker now owns the shard
+     */
+    public boolean tryAcquire(int shard) throws IOException {
+        if (isDone(shard)) return false;
+        int current = highestGeneration(shard);
+        int next;
+        if (current == 0) {
+            next = 1;
+        } else {
+            Path lease = leaseFile(shard, current);
+            String owner = readOwner(lease);
+            if (workerId.equals(owner)) {
+                // this worker restarted under the same id; keep going on its own lease
+                next = current;
+            } else if (isExpired(lease)) {
+                next = current + 1;
+            } else {
+                return false;
+            }
+        }
+        Path lease = leaseFile(shard, next);
+        if (next != current) {
+            try {
+                Files.write(lease, (workerId + "\n").getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            } catch (FileAlreadyExistsException e) {
+                return false;
+            }
+        } else {
+            touch(lease);
+        }
+        // the shard may have been finished, or taken over again, since we looked
+        if (isDone(shard) || highestGeneration(shard) != next) {
+            Files.deleteIfExists(lease);
+            return false;
+        }
+        owned.put(shard, next);
+        lost.remove(shard);
+        if (next > 1) {
+            log.info("Shard {}: took over expired lease (generation {})", shard, next);
+            for (int g = 1; g < next; g++) {
+                Files.deleteIfExists(leaseFile(shard, g));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * True while this worker holds the shard's lease. Once false, another worker may be
+     * processing the shard, and this worker must not mark it done.
+     */
+    public boolean stillOwns(int shard) {
+        return owned.containsKey(shard) && !lost.contains(shard);
+    }
+
+    /**
+     * Marks an owned shard finished and drops its lease.
+     */
+    public void complete(int shard) throws IOException {
+        try {
+            Files.createFile(doneFile(shard));
+        } catch (FileAlreadyExistsException e) {
+            // finished by a worker that took over the shard as well
+        }
+        release(shard);
+    }
+
+    /**
+     * Gives up an owned shard without finishing it, so another worker can claim it right away.
+     */
+    public void release(int shard) throws IOException {
+        Integer generation = owned.remove(shard);
+        lost.remove(shard);
+        if (generation != null && highestGeneration(shard) == generation) {
+            Files.deleteIfExists(leaseFile(shard, generation));
+        }
+    }
+
+    /**
+     * Stops the heartbeat and releases all leases still held.
+     */
+    @Override
+    public void close() {
+        heartbeat.shutdownNow();
+        for (Integer shard : List.copyOf(owned.keySet())) {
+            try {
+                release(shard);
+            } catch (IOException e) {
+                log.warn("Could not release lease of shard {}: {}", shard, e.getMessage());
+            }
+        }
+    }
+
+    private void renewAll() {
+        owned.forEach((shard, generation) -> {
+            if (lost.contains(shard)) return;
+            try {
+                if (highestGeneration(shard) != generation) {
+                    throw new NoSuchFileException(leaseFile(shard, generation).toString());
+                }
+                touch(leaseFile(shard, generation));
+            } catch (NoSuchFileException e) {
+                lost.add(shard);
+                log.warn("Lost the lease of shard {} to another worker", shard);
+            } catch (IOException e) {
+                log.warn("Could not renew lease of shard {}: {}", shard, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Records the shard count on first use; later workers adopt the recorded count so
+     * everyone hashes files into the same shards.
+     */
+    private int fixLayout(int requested) throws IOException {
+        Path layout = runDir.resolve(LAYOUT_FILE);
+        try {
+            Files.writeString(layout, requested + "\n", StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            return requested;
+        } catch (FileAlreadyExistsException e) {
+            String recorded = "";
+            // the creating worker may not have written the count yet
+            for (int attempt = 0; attempt < 50 && recorded.isEmpty(); attempt++) {
+                recorded = Files.readString(layout).trim();
+                if (recorded.isEmpty()) sleep(100);
+            }
+            int count = Integer.parseInt(recorded);
+            if (count != requested) {
+                log.warn("Run {} uses {} shards; ignoring the requested {}", runDir.getFileName(), count, requested);
+            }
+            return count;
+        }
+    }
+
+    private int highestGeneration(int shard) throws IOException {
+        String prefix = String.format("shard-%04d.g", shard);
+        int highest = 0;
+        try (Stream<Path> files = Files.list(runDir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                String name = p.getFileName().toString();
+                if (name.startsWith(prefix) && name.endsWith(".lease")) {
+                    try {
+                        highest = Math.max(highest, Integer.parseInt(name.substring(prefix.length(), name.length() - 6)));
+                    } catch (NumberFormatException ignored) {
+                        // not one of ours
+                    }
+                }
+            }
+        }
+        return highest;
+    }
+
+    private boolean isExpired(Path lease) throws IOException {
+        try {
+            return System.currentTimeMillis() - Files.getLastModifiedTime(lease).toMillis() > leaseMillis;
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+    }
+
+    private static String readOwner(Path lease) throws IOException {
+        try {
+            return Files.readString(lease).trim();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static void touch(Path lease) throws IOException {
+        Files.setLastModifiedTime(lease, FileTime.fromMillis(System.currentTimeMillis()));
+    }
+
+    private Path leaseFile(int shard, int generation) {
+        return runDir.resolve(String.format("shard-%04d.g%d.lease", shard, generation));
+    }
+
+    private Path doneFile(int shard) {
+        return runDir.resolve(String.format("shard-%04d.done", shard));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.trostheide.lif.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Streaming implementation of the XXH64 hash (compatible with the reference xxHash).
+ * Not thread-safe; use one instance per hash computation.
+ */
+public class XxHash64 {
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private final long seed;
+    private final ByteBuffer tail = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+    private long total;
+
+    public XxHash64() {
+        this(0);
+    }
+
+    public XxHash64(long seed) {
+        this.seed = seed;
+        reset();
+    }
+
+    public void reset() {
+        v1 = seed + P1 + P2;
+        v2 = seed + P2;
+        v3 = seed;
+        v4 = seed - P1;
+        total = 0;
+        tail.clear();
+    }
+
+    /**
+     * One-shot hash of a byte range.
+     */
+    public static long hash(byte[] data, int offset, int length, long seed) {
+        XxHash64 h = new XxHash64(seed);
+        h.update(ByteBuffer.wrap(data, offset, length));
+        return h.digest();
+    }
+
+    public void update(byte[] data, int offset, int length) {
+        update(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Consumes the remaining bytes of {@code data}; its position is advanced to the limit.
+     */
+    public void update(ByteBuffer data) {
+        ByteBuffer in = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int len = in.remaining();
+        total += len;
+
+        if (tail.position() > 0) {
+            int take = Math.min(tail.remaining(), in.remaining());
+            ByteBuffer part = in.slice();
+            part.limit(take);
+            tail.put(part);
+            in.position(in.position() + take);
+            if (tail.hasRemaining()) {
+                data.position(data.limit());
+                return;
+            }
+            tail.flip();
+            stripe(tail.getLong(0), tail.getLong(8), tail.getLong(16), tail.getLong(24));
+            tail.clear();
+        }
+
+        int pos = in.position();
+        int limit = in.limit();
+        while (limit - pos >= 32) {
+            stripe(in.getLong(pos), in.getLong(pos + 8), in.getLong(pos + 16), in.getLong(pos + 24));
+            pos += 32;
+        }
+        if (pos < limit) {
+            in.position(pos);
+            tail.put(in);
+        }
+        data.position(data.limit());
+    }
+
+    private void stripe(long a, long b, long c, long d) {
+        v1 = round(v1, a);
+        v2 = round(v2, b);
+        v3 = round(v3, c);
+        v4 = round(v4, d);
+    }
+
+    /**
+     * Returns the hash of everything consumed so far. Does not reset the state.
+     */
+    public long digest() {
+        long h;
+        if (total >= 32) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = merge(h, v1);
+            h = merge(h, v2);
+            h = merge(h, v3);
+            h = merge(h, v4);
+        } else {
+            h = seed + P5;
+        }
+        h += total;
+
+        int n = tail.position();
+        int i = 0;
+        while (i + 8 <= n) {
+            h ^= round(0, tail.getLong(i));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+            i += 8;
+        }
+        if (i + 4 <= n) {
+            h ^= (tail.getInt(i) & 0xFFFFFFFFL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            i += 4;
+        }
+        while (i < n) {
+            h ^= (tail.get(i) & 0xFFL) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+            i++;
+        }
+
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long merge(long acc, long val) {
+        acc ^= round(0, val);
+        return acc * P1 + P4;
+    }
+}
@@ -0,0 +1,95 @@
+package org.trostheide.lif.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryIndexTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void findsEveryEntry() throws Exception {
+        List<BinaryIndex.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            // shared prefixes across restart blocks, non-ASCII names, and paths longer than the scratch buffer
+            String folder = "/photos/" + (i % 37) + (i % 5 == 0 ? "/Köln Straße" : "") + (i % 997 == 0 ? "/x".repeat(400) : "");
+            entries.add(new BinaryIndex.Entry(folder + "/IMG_" + i + ".jpg", "/out/" + i + ".jpg", i, 1_000L + i, i * 31L));
+        }
+        File file = dir.resolve(".lif-index.bin").toFile();
+        BinaryIndex.write(file, entries);
+
+        try (BinaryIndex index = BinaryIndex.open(file)) {
+            assertEquals(entries.size(), index.size());
+            for (BinaryIndex.Entry e : entries) {
+                assertEquals(e.output(), index.outputFor(e.source(), e.size(), e.mtime()), e.source());
+                assertEquals(e.contentHash(), index.contentHash(e.source(), e.size(), e.mtime()));
+            }
+            BinaryIndex.Entry first = entries.get(0);
+            assertFalse(index.contains(first.source(), first.size() + 1, first.mtime()));
+            assertFalse(index.contains(first.source(), first.size(), first.mtime() + 1));
+            assertEquals(0, index.contentHash(first.source(), first.size() + 1, first.mtime()));
+            assertNull(index.outputFor("/photos/unknown.jpg", 0, 1_000));
+            assertNull(index.outputFor(first.source() + "x", first.size(), first.mtime()));
+        }
+    }
+
+    @Test
+    void lastEntryOfASourceWins() throws Exception {
+        File file = dir.resolve(".lif-index.bin").toFile();
+        BinaryIndex.write(file, List.of(
+                new BinaryIndex.Entry("/a.jpg", "/out/old.jpg", 1, 1, 0),
+                new BinaryIndex.Entry("/b.jpg", "/out/b.jpg", 2, 2, 0),
+                new BinaryIndex.Entry("/a.jpg", "/out/new.jpg", 3, 3, 0)));
+        try (BinaryIndex index = BinaryIndex.open(file)) {
+            assertEquals(2, index.size());
+            assertEquals("/out/new.jpg", index.outputFor("/a.jpg", 3, 3));
+            assertNull(index.outputFor("/a.jpg", 1, 1));
+        }
+    }
+
+    @Test
+    void emptyIndexFindsNothing() throws Exception {
+        File file = dir.resolve(".lif-index.bin").toFile();
+        BinaryIndex.write(file, List.of());
+        try (BinaryIndex index = BinaryIndex.open(file)) {
+            assertEquals(0, index.size());
+            assertFalse(index.contains("/a.jpg", 1, 1));
+        }
+    }
+
+    @Test
+    void rewriteReplacesTheFile() throws Exception {
+        File file = dir.resolve(".lif-index.bin").toFile();
+        BinaryIndex.write(file, List.of(new BinaryIndex.Entry("/a.jpg", "/out/a.jpg", 1, 1, 0)));
+        BinaryIndex old = BinaryIndex.open(file);
+        BinaryIndex.write(file, List.of(new BinaryIndex.Entry("/b.jpg", "/out/b.jpg", 1, 1, 0)));
+        try (BinaryIndex current = BinaryIndex.open(file)) {
+            assertTrue(current.contains("/b.jpg", 1, 1));
+            assertFalse(current.contains("/a.jpg", 1, 1));
+            // an index opened before still answers from its own mapping
+            assertTrue(old.contains("/a.jpg", 1, 1));
+        } finally {
+            old.close();
+        }
+    }
+
+    @Test
+    void rejectsOtherFiles() throws Exception {
+        Path file = dir.resolve("not-an-index.bin");
+        Files.write(file, new byte[128]);
+        assertThrows(IOException.class, () -> BinaryIndex.open(file.toFile()));
+    }
+}
@@ -0,0 +1,103 @@
+package org.trostheide.lif.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CheckpointTest {
+    @TempDir
+    Path root;
+
+    private List<Path> units(int count) {
+        List<Path> units = new ArrayList<>();
+        for (int i = 0; i < count; i++) units.add(root.resolve("photos/IMG_" + i + ".jpg"));
+        return units;
+    }
+
+    @Test
+    void resumesWithTheUnfinishedUnitsInPlanOrder() throws Exception {
+        File dir = root.resolve("checkpoint").toFile();
+        List<Path> units = units(10);
+        Checkpoint crashed = Checkpoint.begin(dir, units);
+        for (int i : new int[]{0, 3, 4, 9}) crashed.complete(units.get(i));
+        crashed.flush();
+        // no close(): the process died
+
+        Checkpoint resumed = Checkpoint.resume(dir);
+        assertNotNull(resumed);
+        assertEquals(10, resumed.planned());
+        assertEquals(4, resumed.completed());
+        assertEquals(List.of(units.get(1), units.get(2), units.get(5), units.get(6), units.get(7), units.get(8)),
+                resumed.remaining());
+        resumed.close();
+    }
+
+    @Test
+    void tornCompletionIsRedone() throws Exception {
+        File dir = root.resolve("checkpoint").toFile();
+        List<Path> units = units(3);
+        Checkpoint checkpoint = Checkpoint.begin(dir, units);
+        checkpoint.complete(units.get(0));
+        checkpoint.close();
+        Files.writeString(dir.toPath().resolve("done.jsonl"), "{\"unit\":\"" + units.get(1).toAbsolutePath(),
+                StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        Checkpoint resumed = Checkpoint.resume(dir);
+        assertEquals(List.of(units.get(1), units.get(2)), resumed.remaining());
+        resumed.close();
+    }
+
+    @Test
+    void planAddedDuringAScanIsResumableOnceSealed() throws Exception {
+        File dir = root.resolve("checkpoint").toFile();
+        Checkpoint scanning = Checkpoint.begin(dir);
+        for (Path unit : units(3)) scanning.plan(unit);
+        // the scan has not finished: nothing to resume
+        assertNull(Checkpoint.resume(dir));
+
+        scanning.sealPlan();
+        scanning.close();
+        Checkpoint resumed = Checkpoint.resume(dir);
+        assertEquals(units(3), resumed.remaining());
+        resumed.close();
+    }
+
+    @Test
+    void beginReplacesAnEarlierCheckpoint() throws Exception {
+        File dir = root.resolve("checkpoint").toFile();
+        List<Path> first = units(5);
+        Checkpoint old = Checkpoint.begin(dir, first);
+        old.complete(first.get(0));
+        old.close();
+
+        Checkpoint.begin(dir, List.of(root.resolve("other.jpg"))).close();
+        Checkpoint resumed = Checkpoint.resume(dir);
+        assertEquals(0, resumed.completed());
+        assertEquals(List.of(root.resolve("other.jpg")), resumed.remaining());
+        resumed.close();
+    }
+
+    @Test
+    void finishDeletesTheCheckpoint() throws Exception {
+        File dir = root.resolve("checkpoint").toFile();
+        List<Path> units = units(2);
+        Checkpoint checkpoint = Checkpoint.begin(dir, units);
+        for (Path unit : units) checkpoint.complete(unit);
+        checkpoint.finish();
+
+        assertFalse(dir.exists());
+        assertNull(Checkpoint.resume(dir));
+    }
+}
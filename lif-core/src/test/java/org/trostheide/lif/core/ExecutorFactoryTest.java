@@ -0,0 +1,110 @@
+package org.trostheide.lif.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs on every JDK of the CI matrix: on 21 the virtual mode must create virtual threads,
+ * before that it must fall back to platform threads.
+ */
+class ExecutorFactoryTest {
+
+    @Test
+    void virtualModeMatchesTheRuntime() throws Exception {
+        boolean expected = Runtime.version().feature() >= 21;
+        assertEquals(expected, ExecutorFactory.virtualThreadsAvailable());
+
+        Thread thread = ExecutorFactory.threadFactory(ExecutionMode.VIRTUAL, "test").newThread(() -> { });
+        assertEquals(expected, isVirtual(thread));
+        assertTrue(thread.isDaemon());
+        assertTrue(thread.getName().startsWith("test-"));
+    }
+
+    @Test
+    void platformModeCreatesDaemonThreads() throws Exception {
+        Thread thread = ExecutorFactory.threadFactory(ExecutionMode.PLATFORM, "test").newThread(() -> { });
+        assertFalse(isVirtual(thread));
+        assertTrue(thread.isDaemon());
+        assertEquals("test-0", thread.getName());
+    }
+
+    @Test
+    void boundedExecutorRunsAtMostItsConcurrency() throws Exception {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            ExecutorService executor = ExecutorFactory.newBoundedExecutor(mode, 4, "bounded");
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger peak = new AtomicInteger();
+            AtomicBoolean virtual = new AtomicBoolean();
+            CountDownLatch done = new CountDownLatch(100);
+            for (int i = 0; i < 100; i++) {
+                executor.execute(() -> {
+                    peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        virtual.set(isVirtual(Thread.currentThread()));
+                        Thread.sleep(2);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        running.decrementAndGet();
+                        done.countDown();
+                    }
+                });
+            }
+            assertTrue(done.await(30, TimeUnit.SECONDS), mode.name());
+            executor.shutdown();
+            assertTrue(peak.get() <= 4, mode + " ran " + peak.get() + " at once");
+            assertEquals(mode == ExecutionMode.VIRTUAL && ExecutorFactory.virtualThreadsAvailable(), virtual.get());
+        }
+    }
+
+    @Test
+    void pipelineRunsOnVirtualThreads() throws Exception {
+        AtomicInteger completed = new AtomicInteger();
+        Pipeline<Integer> pipeline = new Pipeline<>("test", new Pipeline.Listener<Integer>() {
+            @Override
+            public void completed(Integer item) {
+                completed.incrementAndGet();
+            }
+
+            @Override
+            public void failed(Integer item, String stage, Exception error) {
+            }
+        }).addStage("wait", 64, 16, ExecutorFactory.threadFactory(ExecutionMode.VIRTUAL, "wait"), item -> {
+            Thread.sleep(1);
+            return true;
+        });
+        pipeline.start();
+        for (int i = 0; i < 500; i++) pipeline.submit(i);
+        pipeline.finish();
+        assertEquals(500, completed.get());
+    }
+
+    @Test
+    void parsesCliValues() {
+        assertEquals(ExecutionMode.VIRTUAL, ExecutionMode.parse(" Virtual "));
+        assertEquals(ExecutionMode.PLATFORM, ExecutionMode.parse("platform"));
+        assertThrows(IllegalArgumentException.class, () -> ExecutionMode.parse("green"));
+    }
+
+    /** Thread.isVirtual() exists from Java 21 on; the project compiles for 17. */
+    private static boolean isVirtual(Thread thread) throws Exception {
+        Method isVirtual;
+        try {
+            isVirtual = Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+        return (boolean) isVirtual.invoke(thread);
+    }
+}
@@ -0,0 +1,63 @@
+package org.trostheide.lif.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FingerprintServiceTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void statusAllTellsNewChangedAndTouchedFiles() throws Exception {
+        Path unchanged = write("unchanged.jpg", 1);
+        Path touched = write("touched.jpg", 2);
+        Path edited = write("edited.jpg", 3);
+        Path fresh = write("new.jpg", 4);
+
+        try (FingerprintService fingerprints = new FingerprintService(dir.resolve("fp.jsonl").toFile(), 4)) {
+            for (Path p : List.of(unchanged, touched, edited)) {
+                fingerprints.refresh(p);
+            }
+            Files.setLastModifiedTime(touched, FileTime.fromMillis(Files.getLastModifiedTime(touched).toMillis() + 5000));
+            // same size and edges, different middle: only the full hash tells
+            byte[] content = Files.readAllBytes(edited);
+            content[content.length / 2] ^= 1;
+            Files.write(edited, content);
+            Files.setLastModifiedTime(edited, FileTime.fromMillis(Files.getLastModifiedTime(edited).toMillis() + 5000));
+
+            Map<Path, FingerprintService.Status> status = fingerprints.statusAll(List.of(unchanged, touched, edited, fresh));
+            assertEquals(FingerprintService.Status.UNCHANGED, status.get(unchanged));
+            assertEquals(FingerprintService.Status.UNCHANGED, status.get(touched));
+            assertEquals(FingerprintService.Status.CHANGED, status.get(edited));
+            assertEquals(FingerprintService.Status.NEW, status.get(fresh));
+        }
+    }
+
+    @Test
+    void fingerprintsSurviveReopening() throws Exception {
+        Path photo = write("photo.jpg", 5);
+        Path store = dir.resolve("fp.jsonl");
+        try (FingerprintService fingerprints = new FingerprintService(store.toFile(), 2)) {
+            fingerprints.fingerprintAll(List.of(photo), false);
+        }
+        try (FingerprintService fingerprints = new FingerprintService(store.toFile(), 2)) {
+            assertEquals(FingerprintService.Status.UNCHANGED, fingerprints.status(photo));
+        }
+    }
+
+    private Path write(String name, int seed) throws Exception {
+        byte[] content = new byte[300 * 1024];
+        new Random(seed).nextBytes(content);
+        return Files.write(dir.resolve(name), content);
+    }
+}
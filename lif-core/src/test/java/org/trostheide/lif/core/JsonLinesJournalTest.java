@@ -0,0 +1,113 @@
+package org.trostheide.lif.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JsonLinesJournalTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void concurrentAppendsAreAllCommitted() throws Exception {
+        File file = dir.resolve("index.journal").toFile();
+        JsonLinesJournal journal = new JsonLinesJournal(file, mapper);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    try {
+                        journal.append(mapper.createObjectNode().put("t", thread).put("i", i));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread t : threads) t.join();
+        journal.close();
+
+        List<JsonNode> entries = JsonLinesJournal.readEntries(file, mapper);
+        assertEquals(4_000, entries.size());
+        Set<String> distinct = new HashSet<>();
+        for (JsonNode e : entries) distinct.add(e.get("t").asInt() + ":" + e.get("i").asInt());
+        assertEquals(4_000, distinct.size());
+    }
+
+    @Test
+    void flushMakesEntriesReadable() throws Exception {
+        File file = dir.resolve("index.journal").toFile();
+        try (JsonLinesJournal journal = new JsonLinesJournal(file, mapper)) {
+            journal.append(mapper.createObjectNode().put("n", 1));
+            journal.append(mapper.createObjectNode().put("n", 2));
+            journal.flush();
+            assertEquals(2, JsonLinesJournal.readEntries(file, mapper).size());
+        }
+    }
+
+    @Test
+    void recoverCutsTornTail() throws Exception {
+        Path file = dir.resolve("index.journal");
+        String complete = "{\"n\":1}\n{\"n\":2}\n";
+        Files.writeString(file, complete + "{\"n\":3", StandardCharsets.UTF_8);
+
+        try (JsonLinesJournal journal = new JsonLinesJournal(file.toFile(), mapper)) {
+            List<JsonNode> recovered = journal.recover();
+            assertEquals(2, recovered.size());
+            assertEquals(complete.length(), Files.size(file));
+            // new entries start on a line of their own
+            journal.append(mapper.createObjectNode().put("n", 4));
+        }
+        List<JsonNode> entries = JsonLinesJournal.readEntries(file.toFile(), mapper);
+        assertEquals(List.of(1, 2, 4), entries.stream().map(e -> e.get("n").asInt()).toList());
+    }
+
+    @Test
+    void corruptLinesAreSkipped() throws Exception {
+        Path file = dir.resolve("index.journal");
+        Files.writeString(file, "{\"n\":1}\nnot json\n{\"n\":2}\n", StandardCharsets.UTF_8);
+        assertEquals(2, JsonLinesJournal.readEntries(file.toFile(), mapper).size());
+    }
+
+    @Test
+    void rotateContinuesWithEmptyJournal() throws Exception {
+        File file = dir.resolve("index.journal").toFile();
+        File segment = dir.resolve("index.journal.compacting").toFile();
+        try (JsonLinesJournal journal = new JsonLinesJournal(file, mapper)) {
+            journal.append(mapper.createObjectNode().put("n", 1));
+            journal.rotateTo(segment);
+            journal.append(mapper.createObjectNode().put("n", 2));
+            journal.flush();
+
+            assertEquals(1, JsonLinesJournal.readEntries(segment, mapper).size());
+            assertEquals(1, JsonLinesJournal.readEntries(file, mapper).size());
+            // a segment that was not folded yet is never overwritten
+            assertThrows(IOException.class, () -> journal.rotateTo(segment));
+        }
+    }
+
+    @Test
+    void appendAfterCloseFails() throws Exception {
+        JsonLinesJournal journal = new JsonLinesJournal(dir.resolve("index.journal").toFile(), mapper);
+        journal.close();
+        assertThrows(IOException.class, () -> journal.append(mapper.createObjectNode()));
+    }
+}
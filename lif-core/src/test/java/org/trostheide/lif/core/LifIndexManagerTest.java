@@ -0,0 +1,113 @@
+package org.trostheide.lif.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LifIndexManagerTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void journaledEntriesSurviveACrash() throws Exception {
+        File index = dir.resolve(".lif-index.json").toFile();
+        File source = source("a.jpg", "aaa");
+        File output = dir.resolve("out/a.jpg").toFile();
+
+        LifIndexManager crashed = new LifIndexManager(index, true);
+        crashed.writeIndexEntry(source, output);
+        crashed.flush();
+        // no close(): the entry is only in the journal
+
+        try (LifIndexManager reopened = new LifIndexManager(index, true)) {
+            assertEquals(output.getAbsolutePath(), reopened.lookupOutput(source));
+            assertEquals(1, reopened.readIndex().size());
+        }
+    }
+
+    @Test
+    void closeCompactsTheJournalIntoTheSnapshot() throws Exception {
+        File index = dir.resolve(".lif-index.json").toFile();
+        try (LifIndexManager manager = new LifIndexManager(index, true)) {
+            for (int i = 0; i < 20; i++) {
+                manager.writeIndexEntry(source(i + ".jpg", "x" + i), dir.resolve("out/" + i + ".jpg").toFile());
+            }
+        }
+        assertFalse(new File(index.getPath() + ".journal").exists());
+        List<JsonNode> snapshot = List.of(mapper.readValue(index, JsonNode[].class));
+        assertEquals(20, snapshot.size());
+
+        // answered from the binary index alone
+        try (LifIndexManager reopened = new LifIndexManager(index, true)) {
+            assertEquals(dir.resolve("out/7.jpg").toFile().getAbsolutePath(),
+                    reopened.lookupOutput(dir.resolve("7.jpg").toFile()));
+        }
+    }
+
+    @Test
+    void changedSourceIsNotFound() throws Exception {
+        File index = dir.resolve(".lif-index.json").toFile();
+        File source = source("a.jpg", "aaa");
+        try (LifIndexManager manager = new LifIndexManager(index, true)) {
+            manager.writeIndexEntry(source, dir.resolve("out/a.jpg").toFile());
+        }
+        Files.writeString(source.toPath(), "changed", StandardCharsets.UTF_8);
+        try (LifIndexManager reopened = new LifIndexManager(index, true)) {
+            assertNull(reopened.lookupOutput(source));
+        }
+    }
+
+    @Test
+    void leftoverCompactingSegmentIsFoldedOnce() throws Exception {
+        File index = dir.resolve(".lif-index.json").toFile();
+        File compacting = new File(index.getPath() + ".journal.compacting");
+        JsonNode kept = entry("/src/a.jpg", "/out/a.jpg", "2024-01-01T00:00:00Z");
+        JsonNode lost = entry("/src/b.jpg", "/out/b.jpg", "2024-01-01T00:00:01Z");
+        // the compaction died after publishing the snapshot with the first entry
+        ArrayNode snapshot = mapper.createArrayNode().add(kept);
+        mapper.writeValue(index, snapshot);
+        Files.writeString(compacting.toPath(), kept + "\n" + lost + "\n", StandardCharsets.UTF_8);
+
+        try (LifIndexManager manager = new LifIndexManager(index, true)) {
+            assertFalse(compacting.exists());
+            assertEquals(2, manager.readIndex().size());
+        }
+    }
+
+    @Test
+    void writeIndexReplacesEverything() throws Exception {
+        File index = dir.resolve(".lif-index.json").toFile();
+        try (LifIndexManager manager = new LifIndexManager(index, true)) {
+            manager.writeIndexEntry(source("a.jpg", "a"), dir.resolve("out/a.jpg").toFile());
+            manager.writeIndex(List.of(entry("/src/c.jpg", "/out/c.jpg", "2024-01-01T00:00:00Z")));
+            List<JsonNode> entries = manager.readIndex();
+            assertEquals(1, entries.size());
+            assertEquals("/src/c.jpg", entries.get(0).get("source").asText());
+        }
+    }
+
+    private File source(String name, String content) throws IOException {
+        Path file = dir.resolve(name);
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        return file.toFile();
+    }
+
+    private JsonNode entry(String source, String output, String timestamp) {
+        return mapper.createObjectNode().put("source", source).put("output", output).put("timestamp", timestamp);
+    }
+}
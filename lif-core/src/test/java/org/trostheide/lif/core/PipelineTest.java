@@ -0,0 +1,242 @@
+package org.trostheide.lif.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Timeout(30)
+class PipelineTest {
+
+    /** Mutable per-item context, as the pipeline's users have. */
+    static final class Job {
+        final int n;
+        final Set<String> stages = ConcurrentHashMap.newKeySet();
+
+        Job(int n) {
+            this.n = n;
+        }
+    }
+
+    /** Counts how each item left the pipeline. */
+    static final class Recorder implements Pipeline.Listener<Job> {
+        final Map<Integer, AtomicInteger> completed = new ConcurrentHashMap<>();
+        final Map<Integer, String> failedIn = new ConcurrentHashMap<>();
+        final Map<Integer, Exception> errors = new ConcurrentHashMap<>();
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public void completed(Job job) {
+            calls.incrementAndGet();
+            completed.computeIfAbsent(job.n, k -> new AtomicInteger()).incrementAndGet();
+        }
+
+        @Override
+        public void failed(Job job, String stage, Exception error) {
+            calls.incrementAndGet();
+            failedIn.put(job.n, stage);
+            errors.put(job.n, error);
+        }
+    }
+
+    private static Pipeline.Step<Job> mark(String stage) {
+        return job -> {
+            job.stages.add(stage);
+            return true;
+        };
+    }
+
+    @Test
+    void everyItemLeavesExactlyOnce() throws Exception {
+        Recorder recorder = new Recorder();
+        Pipeline<Job> pipeline = new Pipeline<>("test", recorder)
+                .addStage("a", 4, 2, mark("a"))
+                .addStage("b", 1, 1, mark("b"))
+                .addStage("c", 3, 2, mark("c"));
+        pipeline.start();
+        for (int i = 0; i < 1_000; i++) pipeline.submit(new Job(i));
+        pipeline.finish();
+
+        assertEquals(1_000, recorder.calls.get());
+        assertEquals(1_000, recorder.completed.size());
+        recorder.completed.values().forEach(count -> assertEquals(1, count.get()));
+        for (Pipeline.StageStats stats : pipeline.stats()) {
+            assertEquals(1_000, stats.processed(), stats.name());
+        }
+    }
+
+    @Test
+    void finishWithoutItemsReturns() throws Exception {
+        Pipeline<Job> pipeline = new Pipeline<>("test", new Recorder())
+                .addStage("a", 2, 1, mark("a"))
+                .addStage("b", 5, 1, mark("b"));
+        pipeline.start();
+        pipeline.finish();
+    }
+
+    @Test
+    void falseFinishesTheItemEarly() throws Exception {
+        Recorder recorder = new Recorder();
+        AtomicInteger reachedB = new AtomicInteger();
+        Pipeline<Job> pipeline = new Pipeline<>("test", recorder)
+                .addStage("a", 2, 4, job -> job.n % 2 == 0)
+                .addStage("b", 2, 4, job -> {
+                    reachedB.incrementAndGet();
+                    return true;
+                });
+        pipeline.start();
+        for (int i = 0; i < 100; i++) pipeline.submit(new Job(i));
+        pipeline.finish();
+
+        assertEquals(100, recorder.completed.size());
+        assertEquals(50, reachedB.get());
+    }
+
+    @Test
+    void onlyIfRoutesItemsPastStagesThatDoNotApply() throws Exception {
+        Recorder recorder = new Recorder();
+        Pipeline<Job> pipeline = new Pipeline<>("test", recorder)
+                .addStage("plan", 1, 4, mark("plan"))
+                .addStage("even", 2, 4, mark("even"))
+                .onlyIf(job -> job.n % 2 == 0)
+                .addStage("odd", 2, 4, mark("odd"))
+                .onlyIf(job -> job.n % 2 == 1)
+                .addStage("thirds", 1, 4, mark("thirds"))
+                .onlyIf(job -> job.n % 3 == 0);
+        pipeline.start();
+        Job[] jobs = new Job[300];
+        for (int i = 0; i < jobs.length; i++) {
+            jobs[i] = new Job(i);
+            pipeline.submit(jobs[i]);
+        }
+        pipeline.finish();
+
+        assertEquals(300, recorder.completed.size());
+        for (Job job : jobs) {
+            assertTrue(job.stages.contains("plan"));
+            assertEquals(job.n % 2 == 0, job.stages.contains("even"), "job " + job.n);
+            assertEquals(job.n % 2 == 1, job.stages.contains("odd"), "job " + job.n);
+            assertEquals(job.n % 3 == 0, job.stages.contains("thirds"), "job " + job.n);
+        }
+    }
+
+    @Test
+    void itemsMatchingNoStageComplete() throws Exception {
+        Recorder recorder = new Recorder();
+        Pipeline<Job> pipeline = new Pipeline<>("test", recorder)
+                .addStage("never", 1, 1, mark("never"))
+                .onlyIf(job -> false);
+        pipeline.start();
+        for (int i = 0; i < 10; i++) pipeline.submit(new Job(i));
+        pipeline.finish();
+        assertEquals(10, recorder.completed.size());
+    }
+
+    @Test
+    void exceptionsAndErrorsFailOnlyTheirItem() throws Exception {
+        Recorder recorder = new Recorder();
+        AdaptiveLimiter limiter = AdaptiveLimiter.fixed("io", 2);
+        Pipeline<Job> pipeline = new Pipeline<>("test", recorder)
+                .addStage("read", limiter, 4, ExecutorFactory.threadFactory(ExecutionMode.PLATFORM, "read"), job -> {
+                    if (job.n % 10 == 1) throw new IOException("unreadable");
+                    if (job.n % 10 == 2) throw new OutOfMemoryError("too big");
+                    return true;
+                })
+                .addStage("write", 2, 4, mark("write"));
+        pipeline.start();
+        for (int i = 0; i < 100; i++) pipeline.submit(new Job(i));
+        pipeline.finish();
+
+        assertEquals(100, recorder.calls.get());
+        assertEquals(80, recorder.completed.size());
+        assertEquals(20, recorder.failedIn.size());
+        recorder.failedIn.values().forEach(stage -> assertEquals("read", stage));
+        assertInstanceOf(IOException.class, recorder.errors.get(1));
+        assertInstanceOf(OutOfMemoryError.class, recorder.errors.get(2).getCause());
+        // every permit came back: both can be taken again
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            limiter.acquire();
+            limiter.acquire();
+        });
+    }
+
+    @Test
+    void retryingStageGetsAnotherAttempt() throws Exception {
+        Recorder recorder = new Recorder();
+        Map<Integer, AtomicInteger> attempts = new ConcurrentHashMap<>();
+        Pipeline<Job> pipeline = new Pipeline<>("test", recorder)
+                .addStage("flaky", 2, 4, job -> {
+                    // every item fails on its first attempt
+                    if (attempts.computeIfAbsent(job.n, k -> new AtomicInteger()).incrementAndGet() == 1) {
+                        throw new IOException("hiccup");
+                    }
+                    return true;
+                })
+                .retrying(new RetryExecutor(3, 1));
+        pipeline.start();
+        for (int i = 0; i < 20; i++) pipeline.submit(new Job(i));
+        pipeline.finish();
+
+        assertEquals(20, recorder.completed.size());
+        assertTrue(recorder.failedIn.isEmpty());
+        attempts.values().forEach(n -> assertEquals(2, n.get()));
+    }
+
+    @Test
+    void batchStageReportsFailuresPerItem() throws Exception {
+        Recorder recorder = new Recorder();
+        Map<Integer, Integer> batchSizes = new ConcurrentHashMap<>();
+        Pipeline<Job> pipeline = new Pipeline<>("test", recorder)
+                .addBatchStage("convert", AdaptiveLimiter.fixed("cpu", 2), 64, 8,
+                        ExecutorFactory.threadFactory(ExecutionMode.PLATFORM, "convert"), (jobs, failed) -> {
+                            for (Job job : jobs) {
+                                batchSizes.put(job.n, jobs.size());
+                                if (job.n % 5 == 0) failed.accept(job, new IOException("bad raw"));
+                            }
+                        })
+                .addStage("index", 1, 64, mark("index"));
+        pipeline.start();
+        for (int i = 0; i < 100; i++) pipeline.submit(new Job(i));
+        pipeline.finish();
+
+        assertEquals(100, recorder.calls.get());
+        assertEquals(20, recorder.failedIn.size());
+        assertEquals(80, recorder.completed.size());
+        assertEquals(100, batchSizes.size());
+        batchSizes.values().forEach(size -> assertTrue(size >= 1 && size <= 8));
+    }
+
+    @Test
+    void throwingListenerDoesNotStopThePipeline() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        Pipeline<Job> pipeline = new Pipeline<Job>("test", new Pipeline.Listener<Job>() {
+            @Override
+            public void completed(Job job) {
+                calls.incrementAndGet();
+                throw new IllegalStateException("listener bug");
+            }
+
+            @Override
+            public void failed(Job job, String stage, Exception error) {
+            }
+        }).addStage("a", 2, 2, mark("a"));
+        pipeline.start();
+        for (int i = 0; i < 10; i++) pipeline.submit(new Job(i));
+        pipeline.finish();
+        assertEquals(10, calls.get());
+        List<Pipeline.StageStats> stats = pipeline.stats();
+        assertFalse(stats.isEmpty());
+    }
+}
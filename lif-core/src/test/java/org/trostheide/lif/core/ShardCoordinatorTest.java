@@ -0,0 +1,140 @@
+package org.trostheide.lif.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Timeout(30)
+class ShardCoordinatorTest {
+    private static final long LEASE = 600;
+
+    @TempDir
+    Path runDir;
+
+    @Test
+    void shardsAreStableBalancedAndMoveOnlyToNewShards() {
+        int keys = 20_000;
+        int[] counts = new int[8];
+        int moved = 0;
+        for (int i = 0; i < keys; i++) {
+            String key = "2019/Rom/IMG_" + i + ".jpg";
+            int shard = ShardCoordinator.shardOf(key, 8);
+            assertEquals(shard, ShardCoordinator.shardOf(key, 8));
+            counts[shard]++;
+            int grown = ShardCoordinator.shardOf(key, 9);
+            if (grown != shard) {
+                // a key only ever moves to the added shard
+                assertEquals(8, grown);
+                moved++;
+            }
+        }
+        for (int count : counts) {
+            assertTrue(Math.abs(count - keys / 8) < keys / 8 / 10, "unbalanced: " + count);
+        }
+        assertTrue(Math.abs(moved - keys / 9) < keys / 9 / 10, "moved " + moved);
+    }
+
+    @Test
+    void onlyOneWorkerHoldsALease() throws Exception {
+        try (ShardCoordinator a = new ShardCoordinator(runDir, "a", 4, LEASE);
+             ShardCoordinator b = new ShardCoordinator(runDir, "b", 4, LEASE)) {
+            assertTrue(a.tryAcquire(0));
+            assertFalse(b.tryAcquire(0));
+            assertTrue(b.tryAcquire(1));
+
+            a.release(0);
+            assertTrue(b.tryAcquire(0));
+        }
+    }
+
+    @Test
+    void laterWorkersAdoptTheRecordedShardCount() throws Exception {
+        try (ShardCoordinator first = new ShardCoordinator(runDir, "a", 4, LEASE);
+             ShardCoordinator second = new ShardCoordinator(runDir, "b", 16, LEASE)) {
+            assertEquals(4, first.shards());
+            assertEquals(4, second.shards());
+        }
+    }
+
+    @Test
+    void expiredLeaseOfACrashedWorkerIsTakenOver() throws Exception {
+        Path dead = runDir.resolve("shard-0002.g1.lease");
+        Files.writeString(dead, "crashed\n", StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(dead, FileTime.fromMillis(System.currentTimeMillis() - 10 * LEASE));
+
+        try (ShardCoordinator b = new ShardCoordinator(runDir, "b", 4, LEASE)) {
+            assertTrue(b.tryAcquire(2));
+            assertTrue(Files.exists(runDir.resolve("shard-0002.g2.lease")));
+            assertFalse(Files.exists(dead));
+        }
+    }
+
+    @Test
+    void liveLeaseIsNotTakenOver() throws Exception {
+        Path live = runDir.resolve("shard-0002.g1.lease");
+        Files.writeString(live, "busy\n", StandardCharsets.UTF_8);
+        try (ShardCoordinator b = new ShardCoordinator(runDir, "b", 4, LEASE)) {
+            assertFalse(b.tryAcquire(2));
+        }
+    }
+
+    @Test
+    void stalledWorkerNoticesTheTakeover() throws Exception {
+        try (ShardCoordinator a = new ShardCoordinator(runDir, "a", 4, LEASE);
+             ShardCoordinator b = new ShardCoordinator(runDir, "b", 4, LEASE)) {
+            assertTrue(a.tryAcquire(3));
+            Path lease = runDir.resolve("shard-0003.g1.lease");
+            // a stalls: its lease ages past expiry before the heartbeat renews it
+            boolean taken = false;
+            for (int attempt = 0; attempt < 20 && !taken; attempt++) {
+                Files.setLastModifiedTime(lease, FileTime.fromMillis(System.currentTimeMillis() - 10 * LEASE));
+                taken = b.tryAcquire(3);
+            }
+            assertTrue(taken);
+
+            while (a.stillOwns(3)) Thread.sleep(20);
+            assertTrue(b.stillOwns(3));
+
+            // the stalled worker giving up must not drop the new owner's lease
+            a.release(3);
+            assertTrue(Files.exists(runDir.resolve("shard-0003.g2.lease")));
+            b.complete(3);
+            assertTrue(a.isDone(3));
+            assertFalse(a.tryAcquire(3));
+        }
+    }
+
+    @Test
+    void restartedWorkerKeepsItsLease() throws Exception {
+        ShardCoordinator before = new ShardCoordinator(runDir, "a", 4, LEASE);
+        assertTrue(before.tryAcquire(1));
+        // the process dies without releasing; the lease is still live
+        try (ShardCoordinator after = new ShardCoordinator(runDir, "a", 4, LEASE)) {
+            assertTrue(after.tryAcquire(1));
+            assertTrue(Files.exists(runDir.resolve("shard-0001.g1.lease")));
+        } finally {
+            before.close();
+        }
+    }
+
+    @Test
+    void allDoneOnceEveryShardIsComplete() throws Exception {
+        try (ShardCoordinator a = new ShardCoordinator(runDir, "a", 3, LEASE)) {
+            for (int s = 0; s < 3; s++) {
+                assertFalse(a.allDone());
+                assertTrue(a.tryAcquire(s));
+                a.complete(s);
+            }
+            assertTrue(a.allDone());
+        }
+    }
+}
@@ -2,7 +2,11 @@ package org.trostheide.lif.photofaces;
 
 import org.opencv.imgproc.Imgproc;
 import org.trostheide.lif.photofaces.config.PhotoFacesConfig;
+import org.trostheide.lif.core.LatencyHistogram;
+import org.trostheide.lif.core.LogProgressSink;
 import org.trostheide.lif.core.LoggerService;
+import org.trostheide.lif.core.MetricsRegistry;
+import org.trostheide.lif.core.ProgressTracker;
 
 import org.slf4j.Logger;
 
@@ -29,6 +33,9 @@ import java.util.List;
  */
 public class FaceDetectionService {
     private static final Logger log = LoggerService.getLogger(FaceDetectionService.class);
+    private static final LatencyHistogram RUN = MetricsRegistry.global().histogram("faces.run");
+    private static final LatencyHistogram DETECT = MetricsRegistry.global().histogram("faces.detect");
+    private static final LatencyHistogram EMBED = MetricsRegistry.global().histogram("faces.embed");
     private final PhotoFacesConfig config;
     private Net faceEmbedder;
 
@@ -102,6 +109,15 @@ public class FaceDetectionService {
      * Main method for running face detection over the input image directory and its subdirectories.
      */
     public void runDetection() {
+        long t0 = RUN.start();
+        try {
+            detectAll();
+        } finally {
+            RUN.stop(t0);
+        }
+    }
+
+    private void detectAll() {
         log.info("Starting face detection in: " + config.getImageDir());
 
         File imgDir = new File(config.getImageDir());
@@ -162,6 +178,8 @@ public class FaceDetectionService {
 
         int totalImages = 0;
         int totalWithFaces = 0;
+        ProgressTracker progress = new ProgressTracker(1, new LogProgressSink());
+        progress.startTask(imageFiles.size());
 
         for (File imageFile : imageFiles) {
             totalImages++;
@@ -170,9 +188,12 @@ public class FaceDetectionService {
             Mat image = Imgcodecs.imread(imageFile.getAbsolutePath());
             if (image.empty()) {
                 log.error("Could not read image: " + imageFile.getAbsolutePath());
+                progress.stage("unreadable");
+                progress.step(1, imageFile.length());
                 continue;
             }
 
+            long tDetect = DETECT.start();
             MatOfRect faces = new MatOfRect();
             faceDetector.detectMultiScale(
                     image,
@@ -184,9 +205,12 @@ public class FaceDetectionService {
                     new Size()          // maxSize
             );
             Rect[] facesArray = faces.toArray();
+            DETECT.stop(tDetect);
 
             if (facesArray.length < 1 || facesArray.length > 3) {
                 log.info("Skipping image (faces found: " + facesArray.length + "): " + imageFile.getAbsolutePath());
+                progress.stage("skipped");
+                progress.step(1, imageFile.length());
                 continue;
             }
 
@@ -220,7 +244,9 @@ public class FaceDetectionService {
                 faceNode.put("height", rect.height);
 
                 // Extract and add embedding (from normalized crop)
+                long tEmbed = EMBED.start();
                 float[] embedding = extractEmbedding(normalizedFace);
+                EMBED.stop(tEmbed);
                 ArrayNode embeddingNode = mapper.createArrayNode();
                 for (float v : embedding) embeddingNode.add(v);
                 faceNode.set("embedding", embeddingNode);
@@ -232,7 +258,10 @@ public class FaceDetectionService {
             imageNode.set("faces", facesNode);
             detectionResults.add(imageNode);
             log.info("Faces found: " + facesArray.length);
+            progress.stage("with_faces");
+            progress.step(1, imageFile.length());
         }
+        progress.onComplete();
 
         File outJson = new File(config.getImageDir(), "face-detections.json");
         try {
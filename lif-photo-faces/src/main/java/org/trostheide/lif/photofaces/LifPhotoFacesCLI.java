@@ -1,8 +1,11 @@
 package org.trostheide.lif.photofaces;
 
 import org.apache.commons.cli.*;
+import org.trostheide.lif.core.MetricsRegistry;
 import org.trostheide.lif.photofaces.config.PhotoFacesConfig;
 
+import java.io.File;
+
 public class LifPhotoFacesCLI {
 
     public static void main(String[] args) {
@@ -47,6 +50,13 @@ public class LifPhotoFacesCLI {
                 .argName("DATE")
                 .build());
 
+        options.addOption(Option.builder()
+                .longOpt("metrics")
+                .desc("Write detection latency metrics to this JSON file (plus a .prom file)")
+                .hasArg()
+                .argName("FILE")
+                .build());
+
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
         try {
@@ -58,6 +68,10 @@ public class LifPhotoFacesCLI {
             boolean dryRun = cmd.hasOption("dry-run");
             String sinceDate = cmd.getOptionValue("since-date");
             boolean debugMode = cmd.hasOption("debug");
+            String metricsFile = cmd.getOptionValue("metrics");
+            if (metricsFile != null) {
+                MetricsRegistry.global().enable();
+            }
 
             // Config object (expand as needed)
             PhotoFacesConfig config = new PhotoFacesConfig(imageDir, personDir, dryRun, sinceDate, debugMode);
@@ -79,6 +93,10 @@ public class LifPhotoFacesCLI {
                 formatter.printHelp("lif-photo-faces", options);
             }
 
+            if (metricsFile != null) {
+                MetricsRegistry.global().dump(new File(metricsFile));
+            }
+
         } catch (ParseException e) {
             System.err.println("Error: " + e.getMessage());
             formatter.printHelp("lif-photo-faces", options);
@@ -0,0 +1,70 @@
+package org.trostheide.lif.photoorg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory output kept in fixed-size chunks. Unlike a ByteArrayOutputStream it never
+ * copies what it holds as it grows, and it is written out with gathering writes instead
+ * of being flattened into one array first.
+ */
+public final class ChunkedBuffer extends OutputStream {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final List<byte[]> chunks = new ArrayList<>();
+    private int lastUsed = CHUNK_SIZE;
+    private long size;
+
+    @Override
+    public void write(int b) {
+        if (lastUsed == CHUNK_SIZE) addChunk();
+        chunks.get(chunks.size() - 1)[lastUsed++] = (byte) b;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            if (lastUsed == CHUNK_SIZE) addChunk();
+            int n = Math.min(len, CHUNK_SIZE - lastUsed);
+            System.arraycopy(b, off, chunks.get(chunks.size() - 1), lastUsed, n);
+            lastUsed += n;
+            off += n;
+            len -= n;
+            size += n;
+        }
+    }
+
+    private void addChunk() {
+        chunks.add(new byte[CHUNK_SIZE]);
+        lastUsed = 0;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Writes the whole content to {@code channel}, e.g. a FileChannel.
+     */
+    public void writeTo(GatheringByteChannel channel) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[chunks.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap(chunks.get(i), 0, i == buffers.length - 1 ? lastUsed : CHUNK_SIZE);
+        }
+        long remaining = size;
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        for (int i = 0; i < chunks.size(); i++) {
+            out.write(chunks.get(i), 0, i == chunks.size() - 1 ? lastUsed : CHUNK_SIZE);
+        }
+    }
+}
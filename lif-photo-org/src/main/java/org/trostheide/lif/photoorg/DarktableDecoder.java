@@ -2,110 +2,251 @@ package org.trostheide.lif.photoorg;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.trostheide.lif.core.LoggerService;
+import org.trostheide.lif.core.LatencyHistogram;
+import org.trostheide.lif.core.MetricsRegistry;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Uses darktable-cli to convert & resize images in parallel, preserving metadata.
- * Each process runs with a temporary, isolated config directory to avoid database locks.
+ * <p>
+ * Starting darktable (library init, OpenCL and pixelpipe warm-up) costs more than
+ * converting a small RAW, so {@link #convertAll} passes many files to one darktable-cli
+ * run. Every concurrent process gets a config/cache directory of its own to avoid
+ * database locks; these directories are pooled and kept across runs (and across
+ * invocations of the tool, guarded by a lock file), so compiled OpenCL kernels and other
+ * caches survive.
  */
 public class DarktableDecoder implements PhotoDecoder {
     private static final Logger log = LoggerFactory.getLogger(DarktableDecoder.class);
+    private static final LatencyHistogram CONVERT = MetricsRegistry.global().histogram("darktable.convert");
+    private static final LatencyHistogram BATCH = MetricsRegistry.global().histogram("darktable.batch");
+    public static final int DEFAULT_BATCH_SIZE = 16;
+    private static final Path SLOT_ROOT = Path.of(System.getProperty("java.io.tmpdir"),
+            "lif-darktable-" + System.getProperty("user.name", "user"));
 
+    /** A config/cache directory, used by one darktable-cli process at a time. */
+    private record Slot(Path dir, FileChannel lock) {}
 
     private final String dtBinary;
     private final int longSide;
     private final int quality;
+    private final int batchSize;
+    private final Deque<Slot> idleSlots = new ArrayDeque<>();
 
     public DarktableDecoder(String dtBinary, int longSide, int quality) {
+        this(dtBinary, longSide, quality, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param batchSize most files passed to one darktable-cli run (1 = one run per file)
+     */
+    public DarktableDecoder(String dtBinary, int longSide, int quality, int batchSize) {
         this.dtBinary = dtBinary;
         this.longSide  = longSide;
         this.quality   = quality;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public int batchSize() {
+        return batchSize;
     }
 
     /**
-     * Raw mode entrypoint: runs darktable-cli to convert the source file
-     * into a JPEG at the given outputPath.
+     * Converts several files in one darktable-cli run, each to its own output path. The run
+     * writes into a hidden directory next to the first output, from where the results are
+     * moved. Files the run left without output, files whose name (without extension)
+     * occurs twice in the batch, and all files of a run that failed as a whole are
+     * converted again one by one, so each failure is reported for its own file.
      *
-     * @param srcFile    source RAW or image file
-     * @param outputPath desired .jpg file path
+     * @param outputs output path per source file
+     * @return the files that could not be converted, with the reason; empty if all were
      */
-    public void convertTo(File srcFile, Path outputPath) throws Exception {
-        // Create a unique temporary directory for this process's config
-        Path tempConfigDir = Files.createTempDirectory("lif-darktable-config-" + UUID.randomUUID());
+    public Map<File, Exception> convertAll(Map<File, Path> outputs) throws IOException, InterruptedException {
+        Map<String, File> batch = new LinkedHashMap<>();
+        List<File> single = new ArrayList<>();
+        for (File src : outputs.keySet()) {
+            if (batch.putIfAbsent(outputName(src).toLowerCase(), src) != null) single.add(src);
+        }
+        Map<File, Exception> failures = new LinkedHashMap<>();
+        Slot slot = acquireSlot();
+        try {
+            if (batch.size() > 1) {
+                single.addAll(convertBatch(slot, new ArrayList<>(batch.values()), outputs));
+            } else {
+                single.addAll(batch.values());
+            }
+            for (File src : single) {
+                try {
+                    convertSingle(slot, src, outputs.get(src));
+                } catch (IOException e) {
+                    failures.put(src, e);
+                }
+            }
+        } finally {
+            releaseSlot(slot);
+        }
+        return failures;
+    }
 
+    /**
+     * @return the files that still need converting
+     */
+    private List<File> convertBatch(Slot slot, List<File> sources, Map<File, Path> outputs)
+            throws IOException, InterruptedException {
+        long t0 = BATCH.start();
+        Path staging = Files.createTempDirectory(outputs.get(sources.get(0)).getParent(), ".lif-darktable-");
+        try {
+            List<String> inputs = sources.stream().map(File::getAbsolutePath).collect(Collectors.toList());
+            Result result = run(command(slot, inputs, staging.toString(), true));
+            if (result.exit() != 0) {
+                log.warn("darktable-cli failed for a batch of {} files with exit code {}, converting them one by one. Output:\n{}",
+                        sources.size(), result.exit(), result.output());
+                return sources;
+            }
+            List<File> remaining = new ArrayList<>();
+            for (File src : sources) {
+                Path staged = staging.resolve(outputName(src));
+                if (Files.exists(staged)) {
+                    Files.move(staged, outputs.get(src), StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    log.warn("darktable-cli wrote no output for {} in its batch, converting it alone", src.getName());
+                    remaining.add(src);
+                }
+            }
+            return remaining;
+        } finally {
+            deleteRecursively(staging);
+            BATCH.stop(t0);
+        }
+    }
+
+    private void convertSingle(Slot slot, File srcFile, Path outputPath) throws IOException, InterruptedException {
+        long t0 = CONVERT.start();
         try {
             // Ensure output directory exists
-            Path outDir = outputPath.getParent();
-            Files.createDirectories(outDir);
-
-            // Build command with isolated config directory
-            List<String> cmd = new ArrayList<>();
-            cmd.add(dtBinary);
-            cmd.add(srcFile.getAbsolutePath());
-            cmd.add(outputPath.toString()); // Directly specify the output file
-            if (longSide > 0) {
-                cmd.add("--width");  cmd.add(String.valueOf(longSide));
-                cmd.add("--height"); cmd.add(String.valueOf(longSide));
+            Files.createDirectories(outputPath.getParent());
+            Result result = run(command(slot, List.of(srcFile.getAbsolutePath()), outputPath.toString(), false));
+            if (result.exit() != 0) {
+                log.error("darktable-cli failed for {} with exit code {}. Output:\n{}", srcFile.getName(), result.exit(), result.output());
+                throw new IOException("darktable-cli failed (exit=" + result.exit() + ")");
             }
-            cmd.add("--core");
-            cmd.add("--configdir");
-            cmd.add(tempConfigDir.toString());
-            cmd.add("--cachedir");
-            cmd.add(tempConfigDir.toString());
-
-            if (quality >= 1 && quality <= 100) {
-                cmd.add("--conf");
-                cmd.add("plugins/imageio/format/jpeg/quality=" + quality);
+            if (!Files.exists(outputPath)) {
+                log.error("Expected output not found: {}. Output:\n{}", outputPath, result.output());
+                throw new IOException("Expected output not found: " + outputPath);
             }
+        } finally {
+            CONVERT.stop(t0);
+        }
+    }
 
-            // Execute the process
-            Process proc = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+    /**
+     * @param intoDirectory whether {@code destination} is a directory rather than the output file
+     */
+    private List<String> command(Slot slot, List<String> inputs, String destination, boolean intoDirectory) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(dtBinary);
+        cmd.addAll(inputs);
+        cmd.add(destination);
+        if (intoDirectory) {
+            cmd.add("--out-ext"); cmd.add("jpg");
+        }
+        if (longSide > 0) {
+            cmd.add("--width");  cmd.add(String.valueOf(longSide));
+            cmd.add("--height"); cmd.add(String.valueOf(longSide));
+        }
+        cmd.add("--core");
+        cmd.add("--configdir");
+        cmd.add(slot.dir().toString());
+        cmd.add("--cachedir");
+        cmd.add(slot.dir().toString());
+
+        if (quality >= 1 && quality <= 100) {
+            cmd.add("--conf");
+            cmd.add("plugins/imageio/format/jpeg/quality=" + quality);
+        }
+        return cmd;
+    }
 
-            // It's good practice to consume the output stream to prevent the process buffer from filling up
-            String output = new BufferedReader(new InputStreamReader(proc.getInputStream()))
-                    .lines().collect(Collectors.joining("\n"));
+    private record Result(int exit, String output) {}
 
-            int exit = proc.waitFor();
-            if (exit != 0) {
-                log.error("darktable-cli failed for {} with exit code {}. Output:\n{}", srcFile.getName(), exit, output);
-                throw new IOException("darktable-cli failed (exit=" + exit + ")");
-            }
+    private static Result run(List<String> cmd) throws IOException, InterruptedException {
+        Process proc = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        // consume the output so the process never blocks on a full pipe
+        String output;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream()))) {
+            output = reader.lines().collect(Collectors.joining("\n"));
+        }
+        return new Result(proc.waitFor(), output);
+    }
 
-            if (!Files.exists(outputPath)) {
-                log.error("Expected output not found: {}. Output:\n{}", outputPath, output);
-                throw new IOException("Expected output not found: " + outputPath);
+    /** The name darktable-cli gives the output when exporting into a directory. */
+    private static String outputName(File src) {
+        return src.getName().replaceAll("\\.[^.]+$", "") + ".jpg";
+    }
+
+    /**
+     * An idle slot, or a new one: the first slot directory that no other process holds.
+     * Slots stay locked until this JVM exits.
+     */
+    private Slot acquireSlot() throws IOException {
+        synchronized (idleSlots) {
+            Slot slot = idleSlots.poll();
+            if (slot != null) return slot;
+        }
+        for (int n = 0; ; n++) {
+            Path dir = SLOT_ROOT.resolve("slot-" + n);
+            Files.createDirectories(dir);
+            FileChannel lock = FileChannel.open(dir.resolve(".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                if (lock.tryLock() != null) return new Slot(dir, lock);
+            } catch (OverlappingFileLockException e) {
+                // held by another slot of this JVM
             }
+            lock.close();
+        }
+    }
 
-        } finally {
-            // Cleanup: Recursively delete the temporary config directory
-            Files.walk(tempConfigDir)
-                    .sorted(Comparator.reverseOrder())
+    private void releaseSlot(Slot slot) {
+        synchronized (idleSlots) {
+            idleSlots.push(slot);
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder())
                     .map(Path::toFile)
                     .forEach(File::delete);
         }
     }
 
     /**
-     * Not used in raw mode. PhotoProcessor invokes convertTo(...) directly.
+     * Not used in raw mode: darktable-cli writes the JPEGs itself, see {@link #convertAll}.
      */
     @Override
     public BufferedImage decode(File rawFile) {
         throw new UnsupportedOperationException(
-                "decode(...) is not supported in raw mode; use convertTo(...) instead"
+                "decode(...) is not supported in raw mode; use convertAll(...) instead"
         );
     }
 }
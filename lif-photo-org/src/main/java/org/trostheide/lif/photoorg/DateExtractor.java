@@ -1,11 +1,9 @@
 package org.trostheide.lif.photoorg;
 
-import org.apache.commons.imaging.Imaging;
-import org.apache.commons.imaging.common.ImageMetadata;
-import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
-import org.apache.commons.imaging.formats.tiff.TiffField;
-import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
-import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
+import org.apache.commons.imaging.ImageReadException;
+import org.trostheide.lif.core.ExifHeaderReader;
+import org.trostheide.lif.core.MetadataCache;
+import org.trostheide.lif.core.PhotoMetadata;
 
 import java.io.File;
 import java.io.IOException;
@@ -19,7 +17,7 @@ import java.time.format.DateTimeParseException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
@@ -50,45 +48,45 @@ public class DateExtractor {
             "jpg", "jpeg", "png", "tif", "tiff", "cr2", "nef", "arw", "dng", "orf", "raf", "rw2", "pef", "srw", "kdc"
     );
 
-    private static final String MONTH_REGEX_PART = String.join("|", ALL_MONTHS.keySet());
-    private static final String YEAR_REGEX_PART = "(19[89]\\d|20\\d\\d)";
-
-    private static final Pattern QUALIFIER_MONTH_YEAR_PATTERN = Pattern.compile(
-            "^(.*?)\\s+(" + MONTH_REGEX_PART + ")\\s+" + YEAR_REGEX_PART + "\\s*$", Pattern.CASE_INSENSITIVE);
-    private static final Pattern YEAR_MONTH_QUALIFIER_PATTERN = Pattern.compile(
-            "^" + YEAR_REGEX_PART + "\\s+(" + MONTH_REGEX_PART + ")\\s+(.*?)\\s*$", Pattern.CASE_INSENSITIVE);
-    private static final Pattern YYYY_MM_QUALIFIER_PATTERN = Pattern.compile(
-            "^" + YEAR_REGEX_PART + "[-_](\\d{1,2})\\s+(.*?)\\s*$", Pattern.CASE_INSENSITIVE);
-    private static final Pattern MONTH_YEAR_PATTERN = Pattern.compile(
-            "^(" + MONTH_REGEX_PART + ")\\s+" + YEAR_REGEX_PART + "\\s*$", Pattern.CASE_INSENSITIVE);
-    private static final Pattern YEAR_MONTH_PATTERN = Pattern.compile(
-            "^" + YEAR_REGEX_PART + "\\s+(" + MONTH_REGEX_PART + ")\\s*$", Pattern.CASE_INSENSITIVE);
-    private static final Pattern YYYY_MM_ONLY_PATTERN = Pattern.compile(
-            "^" + YEAR_REGEX_PART + "[-_](\\d{1,2})\\s*$", Pattern.CASE_INSENSITIVE);
-    private static final Pattern YYYY_QUALIFIER_PATTERN = Pattern.compile(
-            "^" + YEAR_REGEX_PART + "\\s+[-_]?\\s+(.*?)\\s*$", Pattern.CASE_INSENSITIVE);
-    private static final Pattern YYYY_ONLY_PATTERN = Pattern.compile(
-            "^" + YEAR_REGEX_PART + "$");
+    /** Directory names classified so far; cleared when full. */
+    private static final int PATH_CACHE_CAPACITY = 10_000;
+    private static final PathInfo NO_INFO = new PathInfo(null, null);
+    private static final Pattern QUALIFIER_DISALLOWED = Pattern.compile("[^a-zA-Z0-9\\säöüÄÖÜß-]");
+    private static final Pattern WHITESPACE_RUN = Pattern.compile("\\s+");
 
+    private final ConcurrentHashMap<String, PathInfo> pathCache = new ConcurrentHashMap<>();
 
     public PathInfo extractPathInfo(File file) {
         if (file.isDirectory()) {
             return getInfoFromPath(file);
         }
+        return extractFileInfo(file);
+    }
+
+    /**
+     * Like {@link #extractPathInfo} for a directory, e.g. one found by a scan: only its name
+     * is looked at, the file system is not asked.
+     */
+    public PathInfo extractDirectoryInfo(File directory) {
+        return getInfoFromPath(directory);
+    }
 
+    /**
+     * Like {@link #extractPathInfo} for a path known to be a file, e.g. one found by a scan,
+     * without the extra stat to tell files from directories.
+     */
+    public PathInfo extractFileInfo(File file) {
         if (!isSupportedImageFile(file)) {
             return null;
         }
 
         PathInfo pathInfo = getInfoFromPath(file.getParentFile());
         if (pathInfo != null) {
-            System.out.println(String.format("[DEBUG] Using info from path for %s: %s", file.getName(), pathInfo));
             return pathInfo;
         }
 
         LocalDate exifDate = getDateFromExif(file);
         if (exifDate != null) {
-            System.out.println(String.format("[DEBUG] Using date from EXIF for %s: %s", file.getName(), exifDate));
             return new PathInfo(exifDate.withDayOfMonth(1), null);
         }
 
@@ -96,88 +94,184 @@ public class DateExtractor {
         return new PathInfo(getDateFromFileSystem(file).withDayOfMonth(1), null);
     }
 
+    /**
+     * Like {@link #extractFileInfo} for any file, e.g. a video, without reading its content:
+     * the parent directory's name, else the file system date.
+     */
+    public PathInfo extractFileInfoFromPath(File file) {
+        PathInfo pathInfo = getInfoFromPath(file.getParentFile());
+        if (pathInfo != null) {
+            return pathInfo;
+        }
+        return new PathInfo(getDateFromFileSystem(file).withDayOfMonth(1), null);
+    }
+
+    /**
+     * Date and qualifier from a directory name. Only the name counts, so the result is cached
+     * by name: the files of one folder, and folders with the same name, classify it once.
+     */
     private PathInfo getInfoFromPath(File directory) {
         if (directory == null) return null;
         String dirName = directory.getName();
-        Matcher m;
-
-        // PRIORITY 1: Patterns with month names are most specific.
-        m = QUALIFIER_MONTH_YEAR_PATTERN.matcher(dirName);
-        if (m.matches()) {
-            System.out.println("[DEBUG] Matched Rule 1 (Qualifier Month Year) for: " + dirName);
-            int year = Integer.parseInt(m.group(3));
-            Month month = ALL_MONTHS.get(m.group(2).toLowerCase());
-            String qualifier = sanitizeQualifier(m.group(1));
-            return new PathInfo(LocalDate.of(year, month, 1), qualifier);
-        }
-
-        m = YEAR_MONTH_QUALIFIER_PATTERN.matcher(dirName);
-        if (m.matches()) {
-            System.out.println("[DEBUG] Matched Rule 2 (Year Month Qualifier) for: " + dirName);
-            int year = Integer.parseInt(m.group(1));
-            Month month = ALL_MONTHS.get(m.group(2).toLowerCase());
-            String qualifier = sanitizeQualifier(m.group(3));
-            return new PathInfo(LocalDate.of(year, month, 1), qualifier);
-        }
-
-        m = MONTH_YEAR_PATTERN.matcher(dirName);
-        if (m.matches()) {
-            System.out.println("[DEBUG] Matched Rule 3 (Month Year) for: " + dirName);
-            int year = Integer.parseInt(m.group(2));
-            Month month = ALL_MONTHS.get(m.group(1).toLowerCase());
-            return new PathInfo(LocalDate.of(year, month, 1), null);
-        }
-
-        m = YEAR_MONTH_PATTERN.matcher(dirName);
-        if (m.matches()) {
-            System.out.println("[DEBUG] Matched Rule 4 (Year Month) for: " + dirName);
-            int year = Integer.parseInt(m.group(1));
-            Month month = ALL_MONTHS.get(m.group(2).toLowerCase());
-            return new PathInfo(LocalDate.of(year, month, 1), null);
-        }
-
-        // PRIORITY 2: Patterns with YYYY-MM format.
-        m = YYYY_MM_QUALIFIER_PATTERN.matcher(dirName);
-        if (m.matches()) {
-            System.out.println("[DEBUG] Matched Rule 5 (YYYY-MM Qualifier) for: " + dirName);
-            int year = Integer.parseInt(m.group(1));
-            int month = Integer.parseInt(m.group(2));
-            String qualifier = sanitizeQualifier(m.group(3));
-            return new PathInfo(LocalDate.of(year, month, 1), qualifier);
-        }
-
-        m = YYYY_MM_ONLY_PATTERN.matcher(dirName);
-        if (m.matches()) {
-            System.out.println("[DEBUG] Matched Rule 6 (YYYY-MM Only) for: " + dirName);
-            int year = Integer.parseInt(m.group(1));
-            int month = Integer.parseInt(m.group(2));
-            return new PathInfo(LocalDate.of(year, month, 1), null);
-        }
-
-        // PRIORITY 3: Generic patterns as a last resort.
-        m = YYYY_QUALIFIER_PATTERN.matcher(dirName);
-        if (m.matches()) {
-            System.out.println("[DEBUG] Matched Rule 7 (YYYY Qualifier) for: " + dirName);
-            int year = Integer.parseInt(m.group(1));
-            String qualifier = sanitizeQualifier(m.group(2));
-            return new PathInfo(LocalDate.of(year, 1, 1), qualifier);
-        }
-
-        m = YYYY_ONLY_PATTERN.matcher(dirName);
-        if (m.matches()) {
-            System.out.println("[DEBUG] Matched Rule 8 (YYYY Only) for: " + dirName);
-            int year = Integer.parseInt(m.group(1));
+        PathInfo cached = pathCache.get(dirName);
+        if (cached == null) {
+            cached = classify(dirName);
+            if (cached == null) cached = NO_INFO;
+            if (pathCache.size() >= PATH_CACHE_CAPACITY) pathCache.clear();
+            pathCache.put(dirName, cached);
+        }
+        return cached == NO_INFO ? null : cached;
+    }
+
+    /**
+     * Classifies a directory name in one pass over its characters, by rule priority
+     * (YEAR is 1980-2099, MONTH a German or English month name, case-insensitive):
+     * <ol>
+     *   <li>{@code <qualifier> MONTH YEAR}</li>
+     *   <li>{@code YEAR MONTH <qualifier>}</li>
+     *   <li>{@code MONTH YEAR}</li>
+     *   <li>{@code YEAR MONTH}</li>
+     *   <li>{@code YEAR-MM <qualifier>} ({@code -} or {@code _})</li>
+     *   <li>{@code YEAR-MM}</li>
+     *   <li>{@code YEAR - <qualifier>} (the dash is optional, but then two blanks are needed)</li>
+     *   <li>{@code YEAR}</li>
+     * </ol>
+     * These are the rules the extractor used to apply as a cascade of regular expressions,
+     * with the same results: whitespace is ASCII whitespace, case folding is ASCII-only,
+     * and a qualifier may not contain a line break.
+     */
+    public static PathInfo classify(String name) {
+        int n = name.length();
+        int end = n; // end of the name without trailing whitespace
+        while (end > 0 && isSpace(name.charAt(end - 1))) end--;
+
+        // rules 1 and 3: MONTH YEAR at the end
+        int yearAt = end - 4;
+        if (yearAt > 0 && isYear(name, yearAt) && isSpace(name.charAt(yearAt - 1))) {
+            int monthEnd = skipSpaceBack(name, yearAt - 1);
+            int monthStart = monthEnd;
+            while (monthStart > 0 && !isSpace(name.charAt(monthStart - 1))) monthStart--;
+            Month month = month(name, monthStart, monthEnd);
+            if (month != null) {
+                int year = parseYear(name, yearAt);
+                if (monthStart == 0) {
+                    return new PathInfo(LocalDate.of(year, month, 1), null);
+                }
+                int qualifierEnd = skipSpaceBack(name, monthStart - 1);
+                if (!hasLineBreak(name, 0, qualifierEnd)) {
+                    return new PathInfo(LocalDate.of(year, month, 1), sanitizeQualifier(name.substring(0, qualifierEnd)));
+                }
+            }
+        }
+
+        if (n < 4 || !isYear(name, 0)) return null;
+        int year = parseYear(name, 0);
+        if (n == 4) {
+            // rule 8
             return new PathInfo(LocalDate.of(year, 1, 1), null);
         }
+        char afterYear = name.charAt(4);
+        if (isSpace(afterYear)) {
+            // rules 2 and 4: YEAR MONTH
+            int monthStart = skipSpace(name, 4);
+            int monthEnd = monthStart;
+            while (monthEnd < n && !isSpace(name.charAt(monthEnd))) monthEnd++;
+            Month month = month(name, monthStart, monthEnd);
+            if (month != null) {
+                if (monthEnd == n) {
+                    return new PathInfo(LocalDate.of(year, month, 1), null);
+                }
+                PathInfo info = withQualifier(name, skipSpace(name, monthEnd), end, year, month.getValue());
+                if (info != null) return info;
+            }
 
+            // rule 7: YEAR - qualifier
+            int blanksEnd = skipSpace(name, 4);
+            if (blanksEnd + 1 < n && (name.charAt(blanksEnd) == '-' || name.charAt(blanksEnd) == '_')
+                    && isSpace(name.charAt(blanksEnd + 1))) {
+                return withQualifier(name, skipSpace(name, blanksEnd + 1), end, year, 1);
+            }
+            if (blanksEnd - 4 >= 2) {
+                return withQualifier(name, blanksEnd, end, year, 1);
+            }
+        } else if (afterYear == '-' || afterYear == '_') {
+            // rules 5 and 6: YEAR-MM
+            int digitsEnd = 5;
+            while (digitsEnd < n && digitsEnd < 8 && isDigit(name.charAt(digitsEnd))) digitsEnd++;
+            int digits = digitsEnd - 5;
+            if (digits < 1 || digits > 2) return null;
+            int monthValue = Integer.parseInt(name, 5, digitsEnd, 10);
+            if (digitsEnd < n && isSpace(name.charAt(digitsEnd))) {
+                PathInfo info = withQualifier(name, skipSpace(name, digitsEnd), end, year, monthValue);
+                if (info != null) return info;
+            }
+            if (end == digitsEnd) {
+                return new PathInfo(LocalDate.of(year, monthValue, 1), null);
+            }
+        }
         return null;
     }
 
-    private String sanitizeQualifier(String raw) {
+    /** The qualifier runs from {@code from} to {@code end}; null if it contains a line break. */
+    private static PathInfo withQualifier(String name, int from, int end, int year, int month) {
+        if (from >= end) return new PathInfo(LocalDate.of(year, month, 1), null);
+        if (hasLineBreak(name, from, end)) return null;
+        return new PathInfo(LocalDate.of(year, month, 1), sanitizeQualifier(name.substring(from, end)));
+    }
+
+    private static Month month(String name, int from, int to) {
+        int length = to - from;
+        if (length < 3 || length > 9) return null;
+        char[] lower = new char[length];
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(from + i);
+            lower[i] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return ALL_MONTHS.get(new String(lower));
+    }
+
+    private static boolean isYear(String s, int at) {
+        char c0 = s.charAt(at), c1 = s.charAt(at + 1), c2 = s.charAt(at + 2), c3 = s.charAt(at + 3);
+        if (!isDigit(c2) || !isDigit(c3)) return false;
+        return (c0 == '1' && c1 == '9' && (c2 == '8' || c2 == '9')) || (c0 == '2' && c1 == '0');
+    }
+
+    private static int parseYear(String s, int at) {
+        return Integer.parseInt(s, at, at + 4, 10);
+    }
+
+    /** {@code \s} of {@link Pattern}: ASCII whitespace only. */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /** Characters {@code .} of {@link Pattern} does not match. */
+    private static boolean hasLineBreak(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') return true;
+        }
+        return false;
+    }
+
+    private static int skipSpace(String s, int from) {
+        while (from < s.length() && isSpace(s.charAt(from))) from++;
+        return from;
+    }
+
+    /** Start of the whitespace run ending just before {@code last + 1}. */
+    private static int skipSpaceBack(String s, int last) {
+        while (last >= 0 && isSpace(s.charAt(last))) last--;
+        return last + 1;
+    }
+
+    private static String sanitizeQualifier(String raw) {
         if (raw == null) return null;
-        String cleaned = raw.trim()
-                .replaceAll("[^a-zA-Z0-9\\säöüÄÖÜß-]", "")
-                .replaceAll("\\s+", " ");
+        String cleaned = WHITESPACE_RUN.matcher(QUALIFIER_DISALLOWED.matcher(raw.trim()).replaceAll("")).replaceAll(" ");
         return cleaned.isEmpty() ? null : cleaned;
     }
 
@@ -195,21 +289,9 @@ public class DateExtractor {
         }
 
         try {
-            ImageMetadata metadata = Imaging.getMetadata(file);
-            TiffImageMetadata exif = null;
-
-            if (metadata instanceof JpegImageMetadata) {
-                exif = ((JpegImageMetadata) metadata).getExif();
-            } else if (metadata instanceof TiffImageMetadata) {
-                exif = (TiffImageMetadata) metadata;
-            }
-
-            if (exif != null) {
-                TiffField dateField = exif.findField(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL);
-                if (dateField != null) {
-                    String dateStr = dateField.getStringValue().trim();
-                    return LocalDate.parse(dateStr, EXIF_DATE_FORMATTER);
-                }
+            String dateStr = exifDate(file);
+            if (dateStr != null) {
+                return LocalDate.parse(dateStr, EXIF_DATE_FORMATTER);
             }
         } catch (DateTimeParseException e) {
             System.err.println(String.format("[WARN] Could not parse EXIF date for %s: %s", file.getName(), e.getMessage()));
@@ -219,6 +301,22 @@ public class DateExtractor {
         return null;
     }
 
+    /**
+     * DateTimeOriginal as stored: from the metadata cache if the file is in it, else from the
+     * file header, and only if that fails from a full parse (which is then cached).
+     */
+    private static String exifDate(File file) throws IOException, ImageReadException {
+        PhotoMetadata cached = MetadataCache.global().peek(file);
+        if (cached != null) {
+            return cached.dateTaken();
+        }
+        ExifHeaderReader.Header header = ExifHeaderReader.read(file);
+        if (header != null) {
+            return header.dateTaken();
+        }
+        return MetadataCache.global().get(file).dateTaken();
+    }
+
     private LocalDate getDateFromFileSystem(File file) {
         try {
             BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
@@ -1,7 +1,6 @@
 package org.trostheide.lif.photoorg;
 
 import java.io.File;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.time.format.DateTimeParseException;
@@ -9,7 +8,8 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 /**
- * Recursively scans a directory for files:
+ * Selects the files to process from those found by a
+ * {@link org.trostheide.lif.core.DirectorySnapshot} scan:
  * - filtered by creation/modification date (since)
  * - matching one of the given extensions
  * - optionally including video files
@@ -72,42 +72,36 @@ public class DirectoryScanner {
     }
 
     /**
-     * Walks sourceDir recursively and returns a list of files that:
-     * - are modified on/after 'sinceInstant' (if set)
-     * - have an extension in the 'extensions' set
+     * Whether the file name has one of the video extensions included by {@code copyVideo}.
      */
-    public List<File> scan(File sourceDir) {
-        if (!sourceDir.isDirectory()) {
-            System.err.println("Source is not a directory: " + sourceDir);
-            return Collections.emptyList();
-        }
+    public static boolean isVideo(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot >= 0 && VIDEO_EXTS.contains(fileName.substring(dot + 1).toLowerCase());
+    }
 
+    /**
+     * Filters already known files (e.g. the added and changed files of a
+     * {@link org.trostheide.lif.core.ChangeSet}) by extension and date.
+     */
+    public List<File> select(Collection<Path> candidates) {
         List<File> result = new ArrayList<>();
-        scanRecursive(sourceDir.toPath(), result);
+        for (Path path : candidates) {
+            File f = path.toFile();
+            if (matches(f.getName(), sinceInstant != null ? f.lastModified() : 0)) {
+                result.add(f);
+            }
+        }
         System.out.println("Queued " + result.size() + " files for processing");
         return result;
     }
 
-    private void scanRecursive(Path dir, List<File> out) {
-        try {
-            Files.list(dir).forEach(path -> {
-                File f = path.toFile();
-                if (f.isDirectory()) {
-                    scanRecursive(path, out);
-                } else if (matches(f)) {
-                    out.add(f);
-                    System.out.println("  + " + f.getAbsolutePath());
-                }
-            });
-        } catch (Exception e) {
-            System.err.println("Error scanning directory: " + dir);
-            e.printStackTrace(System.err);
-        }
-    }
-
-    private boolean matches(File f) {
+    /**
+     * Whether a file with this name and modification time would be selected; for callers
+     * that already have the file's attributes and must not stat it again.
+     */
+    public boolean matches(String fileName, long lastModifiedMillis) {
         // extension check
-        String name = f.getName().toLowerCase();
+        String name = fileName.toLowerCase();
         int dot = name.lastIndexOf('.');
         if (dot < 0) return false;
         String ext = name.substring(dot + 1);
@@ -115,7 +109,7 @@ public class DirectoryScanner {
 
         // date filter
         if (sinceInstant != null) {
-            Instant mod = Instant.ofEpochMilli(f.lastModified());
+            Instant mod = Instant.ofEpochMilli(lastModifiedMillis);
             if (mod.isBefore(sinceInstant)) {
                 return false;
             }
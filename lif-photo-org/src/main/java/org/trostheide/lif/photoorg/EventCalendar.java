@@ -0,0 +1,188 @@
+package org.trostheide.lif.photoorg;
+
+import org.trostheide.lif.photoorg.EventManager.Event;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * The learned events, indexed for lookups by date and by name.
+ * <p>
+ * Dates are looked up in sorted, non-overlapping day segments, each holding the shortest
+ * event that covers it (the first one added on a tie), so {@link #bestFor} is a binary
+ * search instead of a pass over all events. The segments are rebuilt lazily after events
+ * were added, and are saved along with the events, so a loaded calendar needs no rebuild.
+ * Names are indexed case-insensitively, matching {@link String#equalsIgnoreCase}.
+ */
+public class EventCalendar {
+
+    /**
+     * Days {@code start} to {@code end} (inclusive), whose best event is {@code event}, an
+     * index into {@link #events()}.
+     */
+    public record Segment(LocalDate start, LocalDate end, int event) {}
+
+    /** Immutable lookup structure, replaced as a whole. */
+    private record Index(long[] starts, long[] ends, Event[] best, int[] eventIndex) {}
+
+    private final List<Event> events = new ArrayList<>();
+    private final Map<String, Event> byName = new HashMap<>();
+    /** Null while events were added since it was built. */
+    private volatile Index index = new Index(new long[0], new long[0], new Event[0], new int[0]);
+
+    public synchronized void add(Event event) {
+        events.add(event);
+        byName.putIfAbsent(nameKey(event.name()), event);
+        index = null;
+    }
+
+    /**
+     * Adds loaded events. If {@code segments} were saved with exactly these events and this
+     * calendar was empty, they are used as they are; otherwise they are rebuilt on the next lookup.
+     */
+    public synchronized void addAll(List<Event> loaded, List<Segment> segments) {
+        boolean adopt = events.isEmpty() && segments != null;
+        for (Event event : loaded) add(event);
+        if (adopt) index = fromSegments(events, segments);
+    }
+
+    public synchronized boolean containsName(String name) {
+        return byName.containsKey(nameKey(name));
+    }
+
+    public synchronized int size() {
+        return events.size();
+    }
+
+    public synchronized List<Event> events() {
+        return new ArrayList<>(events);
+    }
+
+    /**
+     * The segments of the current events, for saving them.
+     */
+    public List<Segment> segments() {
+        Index ix = index();
+        List<Segment> segments = new ArrayList<>(ix.starts().length);
+        for (int i = 0; i < ix.starts().length; i++) {
+            segments.add(new Segment(LocalDate.ofEpochDay(ix.starts()[i]), LocalDate.ofEpochDay(ix.ends()[i]), ix.eventIndex()[i]));
+        }
+        return segments;
+    }
+
+    /**
+     * The shortest event whose range contains {@code date}, or null.
+     */
+    public Event bestFor(LocalDate date) {
+        Index ix = index();
+        long day = date.toEpochDay();
+        int i = Arrays.binarySearch(ix.starts(), day);
+        if (i < 0) i = -i - 2;
+        return i >= 0 && day <= ix.ends()[i] ? ix.best()[i] : null;
+    }
+
+    private Index index() {
+        Index ix = index;
+        if (ix != null) return ix;
+        synchronized (this) {
+            if (index == null) index = build(events);
+            return index;
+        }
+    }
+
+    /**
+     * Sweeps over all start and end boundaries, keeping the events covering the current
+     * day in a queue ordered by duration, then insertion order.
+     */
+    private static Index build(List<Event> events) {
+        List<Integer> valid = new ArrayList<>();
+        for (int i = 0; i < events.size(); i++) {
+            if (!events.get(i).endDate().isBefore(events.get(i).startDate())) valid.add(i);
+        }
+        long[] points = new long[valid.size() * 2];
+        int p = 0;
+        for (int i : valid) {
+            points[p++] = start(events, i);
+            points[p++] = end(events, i) + 1;
+        }
+        points = Arrays.stream(points).sorted().distinct().toArray();
+        valid.sort(Comparator.comparingLong(i -> start(events, i)));
+        PriorityQueue<Integer> active = new PriorityQueue<>(Comparator
+                .comparingLong((Integer i) -> end(events, i) - start(events, i))
+                .thenComparingInt(i -> i));
+
+        long[] starts = new long[points.length];
+        long[] ends = new long[points.length];
+        int[] best = new int[points.length];
+        int n = 0;
+        int next = 0;
+        for (int k = 0; k + 1 < points.length; k++) {
+            long day = points[k];
+            while (next < valid.size() && start(events, valid.get(next)) <= day) active.add(valid.get(next++));
+            while (!active.isEmpty() && end(events, active.peek()) < day) active.poll();
+            if (active.isEmpty()) continue;
+            int event = active.peek();
+            if (n > 0 && best[n - 1] == event && ends[n - 1] == day - 1) {
+                ends[n - 1] = points[k + 1] - 1;
+            } else {
+                starts[n] = day;
+                ends[n] = points[k + 1] - 1;
+                best[n] = event;
+                n++;
+            }
+        }
+        return index(events, Arrays.copyOf(starts, n), Arrays.copyOf(ends, n), Arrays.copyOf(best, n));
+    }
+
+    /**
+     * The index described by saved segments, or null (rebuild) if they do not fit the events.
+     */
+    private static Index fromSegments(List<Event> events, List<Segment> segments) {
+        long[] starts = new long[segments.size()];
+        long[] ends = new long[segments.size()];
+        int[] best = new int[segments.size()];
+        for (int i = 0; i < segments.size(); i++) {
+            Segment s = segments.get(i);
+            if (s == null || s.start() == null || s.end() == null || s.event() < 0 || s.event() >= events.size()) return null;
+            starts[i] = s.start().toEpochDay();
+            ends[i] = s.end().toEpochDay();
+            best[i] = s.event();
+            if (ends[i] < starts[i] || (i > 0 && starts[i] <= ends[i - 1])
+                    || starts[i] < start(events, best[i]) || ends[i] > end(events, best[i])) {
+                return null;
+            }
+        }
+        return index(events, starts, ends, best);
+    }
+
+    private static Index index(List<Event> events, long[] starts, long[] ends, int[] eventIndex) {
+        Event[] best = new Event[eventIndex.length];
+        for (int i = 0; i < best.length; i++) best[i] = events.get(eventIndex[i]);
+        return new Index(starts, ends, best, eventIndex);
+    }
+
+    private static long start(List<Event> events, int i) {
+        return events.get(i).startDate().toEpochDay();
+    }
+
+    private static long end(List<Event> events, int i) {
+        return events.get(i).endDate().toEpochDay();
+    }
+
+    /**
+     * Equal for two names exactly if {@link String#equalsIgnoreCase} holds.
+     */
+    private static String nameKey(String name) {
+        StringBuilder key = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            key.append(Character.toLowerCase(Character.toUpperCase(name.charAt(i))));
+        }
+        return key.toString();
+    }
+}
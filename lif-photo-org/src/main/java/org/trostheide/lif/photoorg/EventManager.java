@@ -1,25 +1,39 @@
 package org.trostheide.lif.photoorg;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.trostheide.lif.core.DirectoryListing;
+import org.trostheide.lif.core.DirectorySnapshot;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Stream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 public class EventManager {
 
-    private final List<Event> eventCalendar = new ArrayList<>();
+    /** Files dated per task; dating may read EXIF, so larger folders are spread over threads. */
+    private static final int FILE_CHUNK = 64;
+
+    private final EventCalendar eventCalendar = new EventCalendar();
     private final DateExtractor dateExtractor = new DateExtractor();
     private final ObjectMapper mapper;
     private final File eventFile;
@@ -37,13 +51,27 @@ public class EventManager {
         mapper.enable(SerializationFeature.INDENT_OUTPUT);
     }
 
+    /**
+     * Loads the calendar, either as saved by {@link #saveEvents()} (events and their lookup
+     * segments) or as a plain array of events, as written by earlier versions.
+     */
     public void loadEvents() {
         if (eventFile.exists()) {
             try {
-                List<Event> loadedEvents = mapper.readValue(eventFile, new TypeReference<>() {});
-                eventCalendar.addAll(loadedEvents);
+                JsonNode root = mapper.readTree(eventFile);
+                List<Event> loadedEvents;
+                List<EventCalendar.Segment> segments = null;
+                if (root.isArray()) {
+                    loadedEvents = mapper.convertValue(root, new TypeReference<>() {});
+                } else {
+                    loadedEvents = mapper.convertValue(root.path("events"), new TypeReference<>() {});
+                    if (root.hasNonNull("segments")) {
+                        segments = mapper.convertValue(root.get("segments"), new TypeReference<>() {});
+                    }
+                }
+                eventCalendar.addAll(loadedEvents, segments);
                 System.out.println(String.format("Successfully loaded %d events from %s", loadedEvents.size(), eventFile.getName()));
-            } catch (IOException e) {
+            } catch (IOException | IllegalArgumentException e) {
                 System.err.println(String.format("Could not load event calendar from %s. A new one will be created.", eventFile.getName()));
                 e.printStackTrace(System.err);
             }
@@ -51,8 +79,14 @@ public class EventManager {
     }
 
     public void saveEvents() {
+        // written aside and moved into place, since sharded workers save the same file concurrently
+        File tmp = new File(eventFile.getPath() + "." + ProcessHandle.current().pid() + ".tmp");
         try {
-            mapper.writeValue(eventFile, eventCalendar);
+            ObjectNode root = mapper.createObjectNode();
+            root.set("events", mapper.valueToTree(eventCalendar.events()));
+            root.set("segments", mapper.valueToTree(eventCalendar.segments()));
+            mapper.writeValue(tmp, root);
+            Files.move(tmp.toPath(), eventFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
             System.out.println(String.format("Successfully saved %d events to %s", eventCalendar.size(), eventFile.getName()));
         } catch (IOException e) {
             System.err.println(String.format("Could not save event calendar to %s", eventFile.getName()));
@@ -60,63 +94,161 @@ public class EventManager {
         }
     }
 
-    public void discoverNewEvents(File sourceRoot) {
-        System.out.println("--- Starting Event Discovery Phase ---");
-        try (Stream<Path> paths = Files.walk(sourceRoot.toPath())) {
-            paths.filter(Files::isDirectory).forEach(dirPath -> {
-                // Convert Path to File before passing to the method
-                DateExtractor.PathInfo info = dateExtractor.extractPathInfo(dirPath.toFile());
-                if (info != null && info.qualifier() != null) {
-                    boolean eventExists = eventCalendar.stream().anyMatch(e -> e.name().equalsIgnoreCase(info.qualifier()));
-                    if (!eventExists) {
-                        System.out.println(String.format("Found new potential event folder: '%s' with qualifier '%s'", dirPath, info.qualifier()));
-                        calculateAndStoreEventRange(dirPath.toFile(), info.qualifier());
-                    } else {
-                        System.out.println(String.format("[DEBUG] Skipping already known event: '%s'", info.qualifier()));
-                    }
-                }
-            });
-        } catch (IOException e) {
-            System.err.println("Error during event discovery walk");
-            e.printStackTrace(System.err);
+    /**
+     * Learns the events among all directories of {@code tree}, e.g. for --event-rescan.
+     */
+    public void discoverNewEvents(DirectorySnapshot tree) {
+        List<Path> directories = new ArrayList<>();
+        collectDirectories(tree, "", directories);
+        discoverNewEvents(tree, directories);
+    }
+
+    /**
+     * Learns the events among {@code directories}, e.g. those a delta scan listed as new or
+     * modified; new event folders are always among them.
+     * <p>
+     * The date ranges come from the files recorded in {@code tree}, the snapshot of the scan
+     * that found the directories, so nothing is walked again. One parallel pass dates each
+     * file once, however many event folders it is nested in, and folds the earliest and
+     * latest dates up the tree.
+     */
+    public void discoverNewEvents(DirectorySnapshot tree, Collection<Path> directories) {
+        System.out.println("--- Starting Event Discovery Phase (" + directories.size() + " directories) ---");
+        Map<String, String> eventDirs = new LinkedHashMap<>();
+        for (Path dir : directories) {
+            String rel = tree.relativePath(dir);
+            if (rel == null || tree.directory(rel) == null) continue;
+            DateExtractor.PathInfo info = dateExtractor.extractDirectoryInfo(dir.toFile());
+            if (info == null || info.qualifier() == null) continue;
+            if (eventCalendar.containsName(info.qualifier())) {
+                System.out.println(String.format("[DEBUG] Skipping already known event: '%s'", info.qualifier()));
+            } else {
+                System.out.println(String.format("Found new potential event folder: '%s' with qualifier '%s'", dir, info.qualifier()));
+                eventDirs.put(rel, info.qualifier());
+            }
+        }
+
+        Map<String, long[]> ranges = eventDirs.isEmpty() ? Map.of() : dateRanges(tree, eventDirs.keySet());
+        for (Map.Entry<String, String> e : eventDirs.entrySet()) {
+            String name = e.getValue();
+            long[] range = ranges.get(e.getKey());
+            if (eventCalendar.containsName(name)) {
+                // learned from an earlier folder of the same name in this pass
+                System.out.println(String.format("[DEBUG] Skipping already known event: '%s'", name));
+            } else if (range == null) {
+                System.err.println(String.format("No processable files found in event folder '%s', skipping.", tree.root().resolve(e.getKey())));
+            } else {
+                Event event = new Event(name, LocalDate.ofEpochDay(range[0]), LocalDate.ofEpochDay(range[1]));
+                eventCalendar.add(event);
+                System.out.println(String.format("=> Learned Event: '%s' spans from %s to %s (%d days)",
+                        event.name(), event.startDate(), event.endDate(), event.durationInDays()));
+            }
         }
         System.out.println("--- Event Discovery Phase Complete ---");
         System.out.println(String.format("Final event calendar contains %d events.", eventCalendar.size()));
     }
 
-    private void calculateAndStoreEventRange(File eventDir, String eventName) {
-        List<LocalDate> dates = new ArrayList<>();
-        try (Stream<Path> paths = Files.walk(eventDir.toPath())) {
-            paths.filter(Files::isRegularFile)
-                    .map(path -> dateExtractor.extractPathInfo(path.toFile())) // Convert Path to File
-                    .filter(Objects::nonNull)
-                    .map(DateExtractor.PathInfo::date)
-                    .filter(Objects::nonNull)
-                    .forEach(dates::add);
-        } catch (IOException e) {
-            System.err.println("Could not read files in event directory: " + eventDir);
-            e.printStackTrace(System.err);
-            return;
+    private static void collectDirectories(DirectorySnapshot tree, String rel, List<Path> directories) {
+        DirectorySnapshot.DirEntry dir = tree.directory(rel);
+        if (dir == null) return;
+        directories.add(tree.root().resolve(rel));
+        for (String sub : dir.subdirs()) {
+            collectDirectories(tree, rel.isEmpty() ? sub : rel + "/" + sub, directories);
         }
+    }
 
-        if (dates.isEmpty()) {
-            System.err.println(String.format("No processable files found in event folder '%s', skipping.", eventDir));
-            return;
+    /**
+     * Earliest and latest file date (as epoch days) below each of {@code eventDirs} that has
+     * dated files. Nested event folders share one pass over their common subtree.
+     */
+    private Map<String, long[]> dateRanges(DirectorySnapshot tree, Set<String> eventDirs) {
+        Map<String, long[]> ranges = new ConcurrentHashMap<>();
+        List<DateRange> tasks = new ArrayList<>();
+        for (String rel : eventDirs) {
+            if (!insideAny(rel, eventDirs)) tasks.add(new DateRange(tree, rel, eventDirs, ranges));
         }
+        ForkJoinPool pool = DirectoryListing.newPool("lif-events");
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } finally {
+            pool.shutdownNow();
+        }
+        return ranges;
+    }
 
-        LocalDate minDate = dates.stream().min(LocalDate::compareTo).get();
-        LocalDate maxDate = dates.stream().max(LocalDate::compareTo).get();
+    private static boolean insideAny(String rel, Set<String> dirs) {
+        if (rel.isEmpty()) return false;
+        if (dirs.contains("")) return true;
+        for (int i = rel.lastIndexOf('/'); i > 0; i = rel.lastIndexOf('/', i - 1)) {
+            if (dirs.contains(rel.substring(0, i))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Dates the files of one directory and its subtree: files in chunks, subdirectories
+     * as tasks of their own. Records the range of every event folder it passes.
+     */
+    private final class DateRange extends RecursiveTask<long[]> {
+        private final DirectorySnapshot tree;
+        private final String rel;
+        private final Set<String> eventDirs;
+        private final Map<String, long[]> ranges;
+
+        DateRange(DirectorySnapshot tree, String rel, Set<String> eventDirs, Map<String, long[]> ranges) {
+            this.tree = tree;
+            this.rel = rel;
+            this.eventDirs = eventDirs;
+            this.ranges = ranges;
+        }
 
-        Event event = new Event(eventName, minDate, maxDate);
-        eventCalendar.add(event);
-        System.out.println(String.format("=> Learned Event: '%s' spans from %s to %s (%d days)",
-                event.name(), event.startDate(), event.endDate(), event.durationInDays()));
+        @Override
+        protected long[] compute() {
+            long[] range = {Long.MAX_VALUE, Long.MIN_VALUE};
+            DirectorySnapshot.DirEntry dir = tree.directory(rel);
+            if (dir == null) return range;
+            Path path = tree.root().resolve(rel);
+            List<ForkJoinTask<long[]>> tasks = new ArrayList<>();
+            List<DirectorySnapshot.FileEntry> files = dir.files();
+            for (int from = 0; from < files.size(); from += FILE_CHUNK) {
+                List<DirectorySnapshot.FileEntry> chunk = files.subList(from, Math.min(files.size(), from + FILE_CHUNK));
+                tasks.add(ForkJoinTask.adapt(() -> dateFiles(path, chunk)));
+            }
+            for (String sub : dir.subdirs()) {
+                tasks.add(new DateRange(tree, rel.isEmpty() ? sub : rel + "/" + sub, eventDirs, ranges));
+            }
+            for (ForkJoinTask<long[]> task : invokeAll(tasks)) {
+                long[] r = task.join();
+                range[0] = Math.min(range[0], r[0]);
+                range[1] = Math.max(range[1], r[1]);
+            }
+            if (range[0] <= range[1] && eventDirs.contains(rel)) ranges.put(rel, range.clone());
+            return range;
+        }
+
+        private long[] dateFiles(Path dir, List<DirectorySnapshot.FileEntry> files) {
+            long[] range = {Long.MAX_VALUE, Long.MIN_VALUE};
+            for (DirectorySnapshot.FileEntry f : files) {
+                DateExtractor.PathInfo info = dateExtractor.extractFileInfo(dir.resolve(f.name()).toFile());
+                if (info != null && info.date() != null) {
+                    long day = info.date().toEpochDay();
+                    range[0] = Math.min(range[0], day);
+                    range[1] = Math.max(range[1], day);
+                }
+            }
+            return range;
+        }
     }
 
+    /**
+     * The shortest learned event whose range contains {@code date}, or null.
+     */
     public Event findBestEventForDate(LocalDate date) {
-        return eventCalendar.stream()
-                .filter(event -> !date.isBefore(event.startDate()) && !date.isAfter(event.endDate()))
-                .min(Comparator.comparingLong(Event::durationInDays))
-                .orElse(null);
+        return eventCalendar.bestFor(date);
     }
 }
@@ -1,46 +1,89 @@
 package org.trostheide.lif.photoorg;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
+import org.apache.commons.imaging.ImageReadException;
 import org.apache.commons.imaging.Imaging;
 import org.apache.commons.imaging.common.ImageMetadata;
 import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
 import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
+import org.apache.commons.imaging.formats.tiff.write.TiffImageWriterLossy;
 import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
-import org.apache.commons.imaging.formats.jpeg.exif.ExifRewriter;
+import org.trostheide.lif.core.LatencyHistogram;
+import org.trostheide.lif.core.MetadataCache;
+import org.trostheide.lif.core.MetricsRegistry;
+import org.trostheide.lif.core.PhotoMetadata;
 
+/**
+ * Encodes images as JPEG carrying the EXIF data of their source. The EXIF block is
+ * written as the APP1 segment while encoding, not spliced into finished JPEG bytes.
+ */
 public class ExifPreservingWriter {
-    public static void writeJpegWithExif(File sourceRaw,
-                                         BufferedImage img,
-                                         Path outputFile) throws Exception {
-        // 1) Serialize resized image
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(img, "jpg", baos);
-        byte[] jpegBytes = baos.toByteArray();
+    private static final LatencyHistogram ENCODE = MetricsRegistry.global().histogram("exif.encode");
+    private static final LatencyHistogram READ = MetricsRegistry.global().histogram("exif.read");
+    private static final LatencyHistogram WRITE = MetricsRegistry.global().histogram("exif.write");
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+    /**
+     * Encodes {@code img} straight into {@code outputFile}, with the EXIF data of the source.
+     */
+    public static void writeJpegWithExif(File sourceRaw, BufferedImage img, Path outputFile,
+                                         JpegEncoder encoder) throws Exception {
+        byte[] exif = readExifSegment(sourceRaw, null);
+        long tWrite = WRITE.start();
+        Files.createDirectories(outputFile.getParent());
+        try (FileChannel channel = FileChannel.open(outputFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024)) {
+            encoder.encode(img, exif, out);
+        }
+        WRITE.stop(tWrite);
+    }
+
+    /**
+     * Encodes {@code img} as JPEG and embeds the EXIF data of the source.
+     *
+     * @param sourceBytes the source file's content if already in memory (avoids reading it again), or null
+     */
+    public static ChunkedBuffer encodeWithExif(File sourceRaw, byte[] sourceBytes, BufferedImage img,
+                                               JpegEncoder encoder) throws Exception {
+        byte[] exif = readExifSegment(sourceRaw, sourceBytes);
+        long t0 = ENCODE.start();
+        ChunkedBuffer out = new ChunkedBuffer();
+        encoder.encode(img, exif, out);
+        ENCODE.stop(t0);
+        return out;
+    }
 
-        // 2) Extract EXIF from source
+    /**
+     * The source's EXIF data as APP1 segment content, or null if it has none.
+     */
+    private static byte[] readExifSegment(File sourceRaw, byte[] sourceBytes) throws Exception {
+        long tRead = READ.start();
         TiffOutputSet exif = null;
-        ImageMetadata md = Imaging.getMetadata(sourceRaw);
+        ImageMetadata md = sourceBytes != null ? Imaging.getMetadata(sourceBytes) : Imaging.getMetadata(sourceRaw);
         if (md instanceof JpegImageMetadata) {
             var jpegMd = (JpegImageMetadata) md;
             if (jpegMd.getExif() != null) exif = jpegMd.getExif().getOutputSet();
         } else if (md instanceof TiffImageMetadata) {
             exif = ((TiffImageMetadata) md).getOutputSet();
         }
-
-        // 3) Write out, embedding EXIF if present
-        Files.createDirectories(outputFile.getParent());
-        try (OutputStream os = Files.newOutputStream(outputFile,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.TRUNCATE_EXISTING)) {
-            if (exif != null) {
-                new ExifRewriter()
-                        .updateExifMetadataLossy(jpegBytes, os, exif);
-            } else {
-                os.write(jpegBytes);
-            }
+        // the full parse is needed to copy the EXIF block; keep its fields for later readers
+        try {
+            MetadataCache.global().put(sourceRaw, PhotoMetadata.from(md));
+        } catch (ImageReadException | RuntimeException e) {
+            // a malformed field: not cached, so readers get the error from their own parse
+        }
+        if (exif == null) {
+            READ.stop(tRead);
+            return null;
         }
+        ByteArrayOutputStream segment = new ByteArrayOutputStream(16 * 1024);
+        segment.write(EXIF_HEADER);
+        new TiffImageWriterLossy(exif.byteOrder).write(segment, exif);
+        READ.stop(tRead);
+        return segment.toByteArray();
     }
 }
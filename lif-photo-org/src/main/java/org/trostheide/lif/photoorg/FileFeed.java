@@ -0,0 +1,71 @@
+package org.trostheide.lif.photoorg;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Files to process, either a known list or handed over by a scan that is still running.
+ * A running scan fills a bounded queue, so processing starts with the first match and
+ * the scan cannot run ahead of it by more than the queue's capacity.
+ */
+public class FileFeed {
+    private static final Object END = new Object();
+
+    private final Iterator<File> files;
+    private final BlockingQueue<Object> queue;
+    private final int size;
+
+    private FileFeed(Iterator<File> files, BlockingQueue<Object> queue, int size) {
+        this.files = files;
+        this.queue = queue;
+        this.size = size;
+    }
+
+    public static FileFeed of(List<File> files) {
+        return new FileFeed(files.iterator(), null, files.size());
+    }
+
+    /**
+     * A feed for a scan that calls {@link #put(File)} for each match and {@link #close()}
+     * at the end, also if it fails.
+     */
+    public static FileFeed streaming(int capacity) {
+        return new FileFeed(null, new ArrayBlockingQueue<>(capacity), -1);
+    }
+
+    /**
+     * Number of files, or -1 while a scan is still discovering them.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a file, blocking while the queue is full.
+     */
+    public void put(File file) throws InterruptedException {
+        queue.put(file);
+    }
+
+    public void close() throws InterruptedException {
+        if (queue != null) queue.put(END);
+    }
+
+    /**
+     * The next file, blocking until the scan found one; null once there are no more.
+     */
+    public File take() throws InterruptedException {
+        if (queue == null) {
+            return files.hasNext() ? files.next() : null;
+        }
+        Object next = queue.take();
+        if (next == END) {
+            queue.put(END);
+            return null;
+        }
+        return (File) next;
+    }
+}
@@ -2,42 +2,190 @@
 package org.trostheide.lif.photoorg;
 
 import net.coobird.thumbnailator.Thumbnails;
+import org.trostheide.lif.core.LatencyHistogram;
+import org.trostheide.lif.core.MetricsRegistry;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
 
 /**
- * Reads a JPEG file and optionally resizes it to a specified maximum long side length,
- * using the given JPEG quality.
+ * Reads a JPEG file and optionally resizes it to a specified maximum long side length;
+ * its {@link #encoder()} writes the result with the given JPEG quality.
+ * <p>
+ * When resizing, large images with little fine detail are decoded at a reduced resolution:
+ * the reader skips all but every 2nd, 4th, ... pixel, which saves most of the heap and part
+ * of the decode time. Skipping pixels does not filter them, so fine detail such as foliage,
+ * fabric or sensor noise would fold into moiré that no later resize can remove. The JDK
+ * reader offers no prefilter (and decoding in strips to average them re-decodes the image
+ * from the top for every strip), so images above {@value #DETAIL_BITS_PER_PIXEL} compressed
+ * bits per pixel are decoded in full; a JPEG's size is mostly its high-frequency
+ * coefficients, which makes it a cheap proxy for detail. Subsampled decodes keep at least
+ * {@value #SUBSAMPLING_HEADROOM} times the target size for the final resize to filter.
  */
 public class JpegDecoder implements PhotoDecoder {
+    private static final LatencyHistogram DECODE = MetricsRegistry.global().histogram("jpeg.decode");
+    private static final LatencyHistogram RESIZE = MetricsRegistry.global().histogram("jpeg.resize");
+    private static final int SUBSAMPLING_HEADROOM = 2;
+    private static final double DETAIL_BITS_PER_PIXEL = 1.0;
+
     private final int longSide;
-    private final int quality;
+    private final JpegEncoder encoder;
 
     /**
      * @param longSide max length of the longer side in pixels (<=0 = no resize)
      * @param quality  JPEG quality percentage (1-100)
      */
     public JpegDecoder(int longSide, int quality) {
+        this(longSide, quality, false);
+    }
+
+    /**
+     * @param longSide    max length of the longer side in pixels (<=0 = no resize)
+     * @param quality     JPEG quality percentage (1-100)
+     * @param progressive encode progressive JPEGs
+     */
+    public JpegDecoder(int longSide, int quality, boolean progressive) {
         this.longSide = longSide;
-        this.quality  = quality;
+        this.encoder = new JpegEncoder(quality, progressive);
     }
 
     @Override
     public BufferedImage decode(File srcFile) throws Exception {
-        BufferedImage img = ImageIO.read(srcFile);
+        long t0 = DECODE.start();
+        BufferedImage img = read(srcFile, srcFile.length());
+        DECODE.stop(t0);
         if (img == null) {
             throw new IllegalStateException("Failed to read JPEG: " + srcFile);
         }
+        return resize(img);
+    }
 
-        if (longSide > 0) {
-            // resize & set output quality
-            img = Thumbnails.of(img)
-                    .size(longSide, longSide)
-                    .outputQuality(quality / 100.0)
-                    .asBufferedImage();
+    /**
+     * Decodes an image already read into memory, reduced toward the configured long side
+     * by a power of two if it has little fine detail, but not resized.
+     */
+    public BufferedImage decode(byte[] data, File srcFile) throws Exception {
+        long t0 = DECODE.start();
+        BufferedImage img = read(new ByteArrayInputStream(data), data.length);
+        DECODE.stop(t0);
+        if (img == null) {
+            throw new IllegalStateException("Failed to read JPEG: " + srcFile);
+        }
+        return img;
+    }
+
+    /**
+     * Like {@link ImageIO#read}, with source subsampling for the configured long side.
+     *
+     * @param size the size of the compressed input in bytes
+     * @return the image, or null if no reader understands the input
+     */
+    private BufferedImage read(Object input, long size) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(input)) {
+            if (in == null) return null;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int factor = subsampling(reader.getWidth(0), reader.getHeight(0), size, longSide);
+                if (factor > 1) {
+                    param.setSourceSubsampling(factor, factor, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * The largest power of two by which a {@code width} × {@code height} image can be
+     * reduced and still keep {@value #SUBSAMPLING_HEADROOM} times {@code longSide}; 1 if
+     * {@code longSide} is not positive or the image, {@code compressedBytes} long, has too
+     * much fine detail to skip pixels without aliasing.
+     */
+    static int subsampling(int width, int height, long compressedBytes, int longSide) {
+        if (longSide <= 0) return 1;
+        if (compressedBytes * 8.0 > DETAIL_BITS_PER_PIXEL * width * height) return 1;
+        long side = Math.max(width, height);
+        long keep = (long) longSide * SUBSAMPLING_HEADROOM;
+        int factor = 1;
+        while (factor < (1 << 16) && (side + 2L * factor - 1) / (2L * factor) >= keep) {
+            factor *= 2;
+        }
+        return factor;
+    }
+
+    /**
+     * Estimates the heap a full-size decode of {@code data} needs, see
+     * {@link #estimateDecodedBytes(byte[], int)}.
+     */
+    public static long estimateDecodedBytes(byte[] data) {
+        return estimateDecodedBytes(data, 0);
+    }
+
+    /**
+     * Estimates the heap a decode of {@code data} for the given long side needs (width ×
+     * height × bands after subsampling), from the image header alone: the reader stops
+     * after the frame header, no pixels are decoded.
+     *
+     * @return the estimate in bytes, or -1 if the header cannot be read
+     */
+    public static long estimateDecodedBytes(byte[] data, int longSide) {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return -1;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int factor = subsampling(width, height, data.length, longSide);
+                long pixels = ((long) width + factor - 1) / factor * (((long) height + factor - 1) / factor);
+                ImageTypeSpecifier type = reader.getRawImageType(0);
+                int bands = type != null ? type.getSampleModel().getNumBands() : 3;
+                return pixels * bands;
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    public int longSide() {
+        return longSide;
+    }
+
+    /**
+     * Encoder for the output, with the configured quality.
+     */
+    public JpegEncoder encoder() {
+        return encoder;
+    }
+
+    /**
+     * Scales the image down to the configured long side; returns it unchanged if no resize is configured.
+     */
+    public BufferedImage resize(BufferedImage img) throws Exception {
+        if (longSide <= 0) {
+            return img;
         }
+        long tResize = RESIZE.start();
+        img = Thumbnails.of(img)
+                .size(longSide, longSide)
+                .asBufferedImage();
+        RESIZE.stop(tResize);
         return img;
     }
 }
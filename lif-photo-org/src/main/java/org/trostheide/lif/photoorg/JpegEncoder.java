@@ -0,0 +1,161 @@
+package org.trostheide.lif.photoorg;
+
+import org.w3c.dom.Node;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encodes JPEGs with an explicit quality, optimized Huffman tables and optionally
+ * progressive scans, writing an EXIF APP1 segment in the same pass.
+ * <p>
+ * Looking up and setting up an {@link ImageWriter} is not free, so each thread keeps one
+ * and reuses it until {@link #dispose()}. The encoded bytes go straight to the given stream, without the in-memory
+ * cache {@link ImageIO#write} puts in between.
+ */
+public class JpegEncoder {
+    private static final String NATIVE_FORMAT = "javax_imageio_jpeg_image_1.0";
+    private static final int APP1 = 0xE1;
+    /** A segment's length field counts itself and is 16 bits wide. */
+    private static final int MAX_SEGMENT_DATA = 0xFFFF - 2;
+
+    private final int quality;
+    private final boolean progressive;
+    private final ThreadLocal<ImageWriter> writers = new ThreadLocal<>();
+    /** The writers of all threads, so {@link #dispose()} reaches them; a thread's writer not in here was disposed. */
+    private final Set<ImageWriter> live = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param quality     JPEG quality percentage (1-100)
+     * @param progressive write progressive scans instead of a baseline JPEG
+     */
+    public JpegEncoder(int quality, boolean progressive) {
+        this.quality = Math.max(1, Math.min(100, quality));
+        this.progressive = progressive;
+    }
+
+    public int quality() {
+        return quality;
+    }
+
+    /**
+     * Encodes {@code img} to {@code out}, which is not closed.
+     *
+     * @param exif content of the APP1 segment ("Exif\0\0" and the TIFF structure), or null
+     *             for none; it is placed right after SOI, without a JFIF segment before it
+     */
+    public void encode(BufferedImage img, byte[] exif, OutputStream out) throws IOException {
+        if (exif != null && exif.length > MAX_SEGMENT_DATA) {
+            throw new IOException("EXIF segment too long: " + exif.length + " bytes");
+        }
+        ImageWriter writer = writer();
+        JPEGImageWriteParam param = (JPEGImageWriteParam) writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality / 100f);
+        param.setOptimizeHuffmanTables(true);
+        if (progressive) {
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+        IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(img), param);
+        if (exif != null) {
+            addApp1(metadata, exif);
+        }
+        try (DirectImageOutputStream ios = new DirectImageOutputStream(out)) {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(img, null, metadata), param);
+        } finally {
+            writer.reset();
+        }
+    }
+
+    /**
+     * Disposes the writers of all threads, e.g. when the pipeline that encoded has finished.
+     * Must not overlap with {@link #encode}; later encodes set up new writers.
+     */
+    public void dispose() {
+        for (Iterator<ImageWriter> it = live.iterator(); it.hasNext(); ) {
+            ImageWriter writer = it.next();
+            it.remove();
+            writer.dispose();
+        }
+    }
+
+    private ImageWriter writer() {
+        ImageWriter writer = writers.get();
+        if (writer == null || !live.contains(writer)) {
+            writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+            live.add(writer);
+            writers.set(writer);
+        }
+        return writer;
+    }
+
+    private static void addApp1(IIOMetadata metadata, byte[] exif) throws IOException {
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(NATIVE_FORMAT);
+        // Exif wants its APP1 right after SOI, so the JFIF APP0 goes
+        Node variety = root.getElementsByTagName("JPEGvariety").item(0);
+        if (variety != null) {
+            while (variety.hasChildNodes()) variety.removeChild(variety.getFirstChild());
+        }
+        Node markers = root.getElementsByTagName("markerSequence").item(0);
+        IIOMetadataNode app1 = new IIOMetadataNode("unknown");
+        app1.setAttribute("MarkerTag", Integer.toString(APP1));
+        app1.setUserObject(exif);
+        markers.insertBefore(app1, markers.getFirstChild());
+        metadata.setFromTree(NATIVE_FORMAT, root);
+    }
+
+    /**
+     * An ImageOutputStream straight onto an OutputStream. Only for writers that never seek
+     * back, which the JPEG writer does not.
+     */
+    private static final class DirectImageOutputStream extends ImageOutputStreamImpl {
+        private final OutputStream out;
+
+        DirectImageOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            flushBits();
+            out.write(b);
+            streamPos++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            flushBits();
+            out.write(b, off, len);
+            streamPos += len;
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            if (pos != streamPos) throw new IOException("Cannot seek in a direct output stream");
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw new IOException("Write-only stream");
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            throw new IOException("Write-only stream");
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package org.trostheide.lif.photoorg;
+
+import org.trostheide.lif.core.LatencyHistogram;
+import org.trostheide.lif.core.MetricsRegistry;
+import org.trostheide.lif.core.XxHash64;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * Copies files that need no transformation (videos, JPEGs that are not resized) without
+ * passing their content through the JVM heap.
+ * <p>
+ * A copy goes through {@link FileChannel#transferTo}, which the JDK maps to
+ * copy_file_range or sendfile where the OS has them; on file systems that support it,
+ * copy_file_range shares the blocks instead of copying them. While copying, the source
+ * and the written target are hashed window by window through memory mappings and
+ * compared, so a copy that does not match its source fails instead of being indexed.
+ * The target is read back from the page cache, not from the disk: the check catches a
+ * short or garbled transfer and a source that changed while it was copied, but not a
+ * write error the disk reports later. A failed copy leaves no target behind.
+ * <p>
+ * In {@link Method#LINK} mode the target is a hard link to the source when both are on
+ * the same file system, so nothing is copied at all; the two names then share one file.
+ */
+public class PassthroughCopier {
+    private static final LatencyHistogram COPY = MetricsRegistry.global().histogram("passthrough.copy");
+    private static final MetricsRegistry.Counter BYTES = MetricsRegistry.global().counter("passthrough.bytes");
+    private static final MetricsRegistry.Counter LINKED = MetricsRegistry.global().counter("passthrough.linked");
+    private static final long WINDOW = 64L * 1024 * 1024;
+
+    public enum Method { COPY, LINK }
+
+    private final Method method;
+
+    public PassthroughCopier(Method method) {
+        this.method = method;
+    }
+
+    public Method method() {
+        return method;
+    }
+
+    /**
+     * Copies (or links) {@code source} to {@code target}, replacing a leftover target.
+     *
+     * @throws IOException if the copy fails, or the source changed while it was copied;
+     *                     the target is deleted then
+     */
+    public void copy(Path source, Path target) throws IOException {
+        long t0 = COPY.start();
+        Files.deleteIfExists(target);
+        try {
+            if (method == Method.LINK && sameFileStore(source, target.getParent())) {
+                Files.createLink(target, source);
+                LINKED.increment();
+            } else {
+                copyVerified(source, target);
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            deleteAfterFailure(target, e);
+            throw e;
+        }
+        COPY.stop(t0);
+    }
+
+    /**
+     * Deletes what a failed copy left at {@code target}; a failure to do so is added to
+     * {@code error}.
+     */
+    static void deleteAfterFailure(Path target, Throwable error) {
+        try {
+            Files.deleteIfExists(target);
+        } catch (IOException e) {
+            error.addSuppressed(e);
+        }
+    }
+
+    private static void copyVerified(Path source, Path target) throws IOException {
+        BasicFileAttributes before = Files.readAttributes(source, BasicFileAttributes.class);
+        XxHash64 sourceHash = new XxHash64();
+        XxHash64 targetHash = new XxHash64();
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW,
+                     StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            for (long pos = 0; pos < size; pos += WINDOW) {
+                long length = Math.min(WINDOW, size - pos);
+                // hashing first brings the window into the page cache for the transfer
+                sourceHash.update(in.map(FileChannel.MapMode.READ_ONLY, pos, length));
+                long done = 0;
+                while (done < length) {
+                    long n = in.transferTo(pos + done, length - done, out);
+                    if (n <= 0) throw new IOException("Source " + source + " ended early at " + (pos + done));
+                    done += n;
+                }
+                targetHash.update(out.map(FileChannel.MapMode.READ_ONLY, pos, length));
+            }
+            BYTES.add(size);
+        }
+        BasicFileAttributes after = Files.readAttributes(source, BasicFileAttributes.class);
+        if (after.size() != before.size() || !after.lastModifiedTime().equals(before.lastModifiedTime())) {
+            throw new IOException("Source " + source + " changed while it was copied");
+        }
+        if (sourceHash.digest() != targetHash.digest()) {
+            throw new IOException("Copy of " + source + " does not match its source");
+        }
+    }
+
+    private static boolean sameFileStore(Path a, Path b) {
+        try {
+            return Objects.equals(Files.getFileStore(a), Files.getFileStore(b));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
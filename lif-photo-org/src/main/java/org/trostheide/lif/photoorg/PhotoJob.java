@@ -0,0 +1,41 @@
+package org.trostheide.lif.photoorg;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Path;
+
+/**
+ * Per-file state passed between the stages of the photo-org pipeline.
+ * Large buffers are released as soon as the next stage no longer needs them.
+ */
+public class PhotoJob {
+    final File srcFile;
+    final long sourceSize;
+    Path outFile;
+    /** Copied unchanged instead of being converted. */
+    boolean passthrough;
+    byte[] sourceBytes;
+    BufferedImage image;
+    ChunkedBuffer encoded;
+    /** Bytes reserved in the pipeline's memory budget while the image is decoded. */
+    long reservedBytes;
+    long startNanos;
+    PhotoProcessor.Outcome outcome = PhotoProcessor.Outcome.WRITTEN;
+
+    public PhotoJob(File srcFile) {
+        this.srcFile = srcFile;
+        this.sourceSize = srcFile.length();
+    }
+
+    public File srcFile() {
+        return srcFile;
+    }
+
+    public long sourceSize() {
+        return sourceSize;
+    }
+
+    public PhotoProcessor.Outcome outcome() {
+        return outcome;
+    }
+}
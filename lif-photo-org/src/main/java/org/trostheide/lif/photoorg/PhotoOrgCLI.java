@@ -1,16 +1,45 @@
 package org.trostheide.lif.photoorg;
 
 import org.apache.commons.cli.*;
+import org.trostheide.lif.core.AdaptiveLimiter;
+import org.trostheide.lif.core.ChangeSet;
+import org.trostheide.lif.core.Checkpoint;
+import org.trostheide.lif.core.ConsoleProgressSink;
+import org.trostheide.lif.core.DirectorySnapshot;
+import org.trostheide.lif.core.DirectoryWatcher;
+import org.trostheide.lif.core.ExecutionMode;
+import org.trostheide.lif.core.IndexSegments;
+import org.trostheide.lif.core.JsonFileProgressSink;
 import org.trostheide.lif.core.LifIndexManager;
+import org.trostheide.lif.core.LogProgressSink;
+import org.trostheide.lif.core.MemoryBudget;
+import org.trostheide.lif.core.MetricsRegistry;
+import org.trostheide.lif.core.Pipeline;
+import org.trostheide.lif.core.ProgressSink;
 import org.trostheide.lif.core.ProgressTracker;
+import org.trostheide.lif.core.ShardCoordinator;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class PhotoOrgCLI {
+    /** Safety rescan interval in watch mode, for changes no notification was sent for. */
+    private static final long DEFAULT_WATCH_RESCAN_SECONDS = 300;
+    /** Upper bound for how long an idle worker waits before looking for expired leases again. */
+    private static final long MAX_SHARD_WAIT_MILLIS = 10_000;
+    /** Files a streaming scan may be ahead of processing. */
+    private static final int SCAN_QUEUE_CAPACITY = 4096;
 
     public static void main(String[] args) {
         int exitCode = new PhotoOrgCLI().run(args);
@@ -27,11 +56,31 @@ public class PhotoOrgCLI {
         options.addOption(null, "event-rescan", false, "Force a full rescan of all events, ignoring the saved cache.");
         options.addOption(Option.builder().longOpt("longside").hasArg().argName("pixels").desc("Max length of the longer side (0 = no resize)").build());
         options.addOption(Option.builder().longOpt("since").hasArg().argName("ISO").desc("Only include files modified on/after this ISO-8601 timestamp").build());
+        options.addOption(null, "delta", false, "Only process files added or changed since the last run (uses the directory snapshot in the target)");
+        options.addOption(null, "resume", false, "Continue an interrupted run from its checkpoint, without rescanning the source or re-checking finished files");
+        options.addOption(null, "watch", false, "Keep running and process new or changed files as they arrive (implies --delta)");
+        options.addOption(Option.builder().longOpt("watch-poll").hasArg().argName("seconds").desc("With --watch, poll the source every n seconds instead of using file notifications (for network mounts)").build());
+        options.addOption(Option.builder().longOpt("watch-quiet").hasArg().argName("seconds").desc("With --watch, wait until no file changed for this long before processing a burst (default: 2)").build());
+        options.addOption(Option.builder().longOpt("sharded").hasArg().argName("run").desc("Share the work with other workers started with the same run name (processes or machines with the same target)").build());
+        options.addOption(Option.builder().longOpt("shards").hasArg().argName("n").desc("With --sharded, number of shards the file list is split into (default: 64; fixed by the first worker of a run)").build());
+        options.addOption(Option.builder().longOpt("worker-id").hasArg().argName("id").desc("With --sharded, unique name of this worker (default: host name and process id)").build());
+        options.addOption(Option.builder().longOpt("lease-seconds").hasArg().argName("seconds").desc("With --sharded, time after which a silent worker's shard is taken over (default: 60)").build());
+        options.addOption(null, "merge-shards", false, "With --sharded, merge all index segments of the run into the main index and exit (after a worker crashed)");
         options.addOption(Option.builder().longOpt("extensions").hasArg().argName("csv").desc("Comma-separated file extensions to include").build());
-        options.addOption(Option.builder().longOpt("threads").hasArg().argName("n").desc("Number of parallel worker threads").build());
+        options.addOption(Option.builder().longOpt("threads").hasArg().argName("n|auto").desc("Parallel image or darktable tasks; auto adapts to latency, CPU and memory (default: auto)").build());
+        options.addOption(Option.builder().longOpt("io-threads").hasArg().argName("n|auto").desc("Parallel file reads and writes; auto adapts to latency (default: auto, starting at half the cores or 32 with --executor virtual)").build());
+        options.addOption(Option.builder().longOpt("memory-budget").hasArg().argName("size").desc("Max memory for images being decoded, resized and encoded at once, e.g. 2g or 512m (default: half the max heap)").build());
+        options.addOption(Option.builder().longOpt("executor").hasArg().argName("platform|virtual").desc("Thread type for I/O and darktable stages (default: platform; virtual needs Java 21+)").build());
+        options.addOption(Option.builder().longOpt("darktable-batch").hasArg().argName("n").desc("In raw mode, files converted per darktable-cli run (default: 16; 1 = one run per file)").build());
         options.addOption(Option.builder().longOpt("darktable-path").hasArg().argName("path").desc("Full path to darktable-cli binary").build());
         options.addOption(Option.builder().longOpt("quality").hasArg().argName("1-100").desc("JPEG quality percentage (default: 95)").build());
+        options.addOption(null, "progressive", false, "In jpeg mode, write progressive JPEGs (smaller, slower to encode)");
         options.addOption(Option.builder().longOpt("video").hasArg().argName("true|false").desc("Copy video files instead of skipping (default: false)").build());
+        options.addOption(Option.builder().longOpt("passthrough").hasArg().argName("copy|link").desc("How files that need no conversion are written: verified copy, or hard link on the same file system (default: copy)").build());
+        options.addOption(Option.builder().longOpt("progress-json").hasArg().argName("file").desc("Also write the latest progress snapshot to this JSON file").build());
+        options.addOption(Option.builder().longOpt("progress-rate").hasArg().argName("n").desc("Max progress updates per second (default: 2)").build());
+        options.addOption(Option.builder().longOpt("metrics").hasArg().argName("file").desc("Write per-stage latency metrics to this JSON file (plus a .prom file)").build());
+        options.addOption(Option.builder().longOpt("metrics-interval").hasArg().argName("seconds").desc("Also dump metrics periodically during the run").build());
         options.addOption("h", "help", false, "Show help");
 
 
@@ -53,13 +102,84 @@ public class PhotoOrgCLI {
         String mode = cmd.getOptionValue("mode");
         String order = cmd.getOptionValue("order", "structure");
         boolean eventRescan = cmd.hasOption("event-rescan");
+        boolean watch = cmd.hasOption("watch");
+        boolean delta = cmd.hasOption("delta") || watch;
+        boolean resume = cmd.hasOption("resume");
+        long watchPoll = Long.parseLong(cmd.getOptionValue("watch-poll", "0"));
+        double watchQuiet = Double.parseDouble(cmd.getOptionValue("watch-quiet", "2"));
         int longSide = Integer.parseInt(cmd.getOptionValue("longside", "0"));
         String since = cmd.getOptionValue("since", null);
         String extsCsv = cmd.getOptionValue("extensions", null);
-        int threads = Integer.parseInt(cmd.getOptionValue("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        ExecutionMode executionMode;
+        try {
+            executionMode = ExecutionMode.parse(cmd.getOptionValue("executor", "platform"));
+        } catch (IllegalArgumentException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            return 1;
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        String threadsOpt = cmd.getOptionValue("threads", "auto");
+        String ioThreadsOpt = cmd.getOptionValue("io-threads", "auto");
+        AdaptiveLimiter cpuLimit;
+        if (!"auto".equalsIgnoreCase(threadsOpt)) {
+            cpuLimit = AdaptiveLimiter.fixed("cpu", Integer.parseInt(threadsOpt));
+        } else if ("raw".equalsIgnoreCase(mode)) {
+            // every darktable-cli is multi-threaded and memory-hungry itself
+            cpuLimit = new AdaptiveLimiter("cpu", Math.max(1, cores / 4), 1, cores);
+        } else {
+            cpuLimit = new AdaptiveLimiter("cpu", cores, 1, cores * 2);
+        }
+        boolean virtualIo = executionMode == ExecutionMode.VIRTUAL;
+        AdaptiveLimiter ioLimit = "auto".equalsIgnoreCase(ioThreadsOpt)
+                ? new AdaptiveLimiter("io", virtualIo ? 32 : Math.max(2, cores / 2), 1, virtualIo ? 256 : 64)
+                : AdaptiveLimiter.fixed("io", Integer.parseInt(ioThreadsOpt));
+        MemoryBudget memoryBudget;
+        try {
+            // darktable decodes in its own process; the cpu limiter's memory check covers it
+            memoryBudget = "raw".equalsIgnoreCase(mode) ? null
+                    : cmd.hasOption("memory-budget")
+                    ? new MemoryBudget("images", MemoryBudget.parseSize(cmd.getOptionValue("memory-budget")))
+                    : MemoryBudget.ofHeap("images", 0.5);
+        } catch (IllegalArgumentException e) {
+            System.err.println("ERROR: invalid --memory-budget: " + e.getMessage());
+            return 1;
+        }
         String dtPath = cmd.getOptionValue("darktable-path", "darktable-cli");
+        int dtBatch = Integer.parseInt(cmd.getOptionValue("darktable-batch", String.valueOf(DarktableDecoder.DEFAULT_BATCH_SIZE)));
         int quality = Integer.parseInt(cmd.getOptionValue("quality", "95"));
+        boolean progressive = cmd.hasOption("progressive");
         boolean copyVideo = Boolean.parseBoolean(cmd.getOptionValue("video", "false"));
+        PassthroughCopier.Method passthrough;
+        try {
+            passthrough = PassthroughCopier.Method.valueOf(cmd.getOptionValue("passthrough", "copy").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("ERROR: --passthrough must be copy or link");
+            return 1;
+        }
+        String progressJson = cmd.getOptionValue("progress-json", null);
+        double progressRate = Double.parseDouble(cmd.getOptionValue("progress-rate", "2"));
+        String metricsFile = cmd.getOptionValue("metrics", null);
+        long metricsInterval = Long.parseLong(cmd.getOptionValue("metrics-interval", "0"));
+        String shardRun = cmd.getOptionValue("sharded", null);
+        int shardCount = Integer.parseInt(cmd.getOptionValue("shards", "64"));
+        String workerId = cmd.getOptionValue("worker-id", defaultWorkerId()).replaceAll("[^A-Za-z0-9._-]", "_");
+        long leaseSeconds = Long.parseLong(cmd.getOptionValue("lease-seconds", "60"));
+        if (shardRun != null && delta) {
+            System.err.println("ERROR: --sharded cannot be combined with --delta or --watch");
+            return 1;
+        }
+        if (resume && (watch || shardRun != null)) {
+            System.err.println("ERROR: --resume cannot be combined with --watch or --sharded");
+            return 1;
+        }
+        if (cmd.hasOption("merge-shards") && shardRun == null) {
+            System.err.println("ERROR: --merge-shards needs the run name given with --sharded");
+            return 1;
+        }
+        Path shardDir = shardRun != null
+                ? new File(targetDir, ".lif-shards").toPath().resolve(shardRun.replaceAll("[^A-Za-z0-9._-]", "_"))
+                : null;
+        File mainIndex = new File(targetDir, ".lif-index.json");
 
         System.out.println("Source:          " + sourceDir);
         System.out.println("Target:          " + targetDir);
@@ -67,69 +187,503 @@ public class PhotoOrgCLI {
         System.out.println("Ordering:        " + order);
         System.out.println("Event Rescan:    " + eventRescan);
         System.out.println("Long side:       " + longSide);
+        System.out.println("Passthrough:     " + passthrough.name().toLowerCase());
         System.out.println("Since:           " + (since != null ? since : "not set"));
-        System.out.println("Threads:         " + threads);
+        System.out.println("Delta run:       " + delta);
+        System.out.println("Resume:          " + resume);
+        System.out.println("Watch:           " + (!watch ? "false"
+                : watchPoll > 0 ? "polling every " + watchPoll + " s" : "file notifications"));
+        System.out.println("Sharded run:     " + (shardRun == null ? "false"
+                : shardRun + " (worker " + workerId + ", lease " + leaseSeconds + " s)"));
+        System.out.println("Threads:         " + describe(cpuLimit) + " (I/O: " + describe(ioLimit) + ", "
+                + executionMode.name().toLowerCase() + ")");
+        System.out.println("Memory budget:   " + (memoryBudget == null ? "not used"
+                : (memoryBudget.capacity() >> 20) + " MB for images in flight"));
+        if ("raw".equalsIgnoreCase(mode)) {
+            System.out.println("Darktable batch: " + dtBatch + " files per darktable-cli run");
+        }
+
+        if (cmd.hasOption("merge-shards")) {
+            try {
+                int merged = new IndexSegments(shardDir, mainIndex).merge(true);
+                System.out.println("Merged " + merged + " index segments of run " + shardRun + ".");
+                return 0;
+            } catch (IOException e) {
+                System.err.println("Failed to merge index segments: " + e.getMessage());
+                e.printStackTrace(System.err);
+                return 3;
+            }
+        }
+
+        MetricsRegistry metrics = MetricsRegistry.global();
+        if (metricsFile != null) {
+            metrics.enable();
+            if (metricsInterval > 0) {
+                metrics.startPeriodicDump(new File(metricsFile), metricsInterval);
+            }
+        }
+
+        // runs other than sharded and watch ones keep a checkpoint, which --resume continues from
+        File checkpointDir = new File(targetDir, ".lif-checkpoint");
+        Checkpoint checkpoint = null;
+        if (resume) {
+            try {
+                checkpoint = Checkpoint.resume(checkpointDir);
+            } catch (IOException e) {
+                System.err.println("Failed to read checkpoint: " + e.getMessage());
+                e.printStackTrace(System.err);
+                return 3;
+            }
+            if (checkpoint == null) {
+                System.out.println("No checkpoint found in the target, starting a full run.");
+            } else {
+                System.out.println("Resuming:        " + checkpoint.completed() + " of " + checkpoint.planned() + " files already done");
+            }
+        }
+
+        // every run records a snapshot of the source tree; --delta diffs against the previous one.
+        // Sharded workers only process part of it, and resumed runs skip the scan, so neither saves it.
+        // Unless the event calendar or the shards need the whole file list first, the scan
+        // runs alongside processing and hands files over as it finds them.
+        File snapshotFile = new File(targetDir, ".lif-snapshot.jsonl");
+        boolean streamScan = checkpoint == null && shardDir == null && !"event".equalsIgnoreCase(order);
+        DirectorySnapshot previous = delta && checkpoint == null
+                ? DirectorySnapshot.load(snapshotFile, new File(sourceDir).toPath())
+                : null;
+        ChangeSet changes = null;
+        if (checkpoint == null && !streamScan) {
+            try {
+                changes = DirectorySnapshot.scan(new File(sourceDir).toPath(), previous);
+            } catch (IOException e) {
+                System.err.println("Failed to scan source directory: " + e.getMessage());
+                e.printStackTrace(System.err);
+                return 3;
+            }
+            System.out.println("Source changes:  " + changes.summary());
+        }
 
         EventManager eventManager = null;
         if ("event".equalsIgnoreCase(order)) {
             eventManager = new EventManager(new File(targetDir));
-            if (!eventRescan) {
+            if (!eventRescan || checkpoint != null) {
                 eventManager.loadEvents();
             }
-            eventManager.discoverNewEvents(new File(sourceDir));
+            if (checkpoint == null) {
+                // learns from the scan above, so the source tree is walked only once
+                if (delta && eventRescan) {
+                    eventManager.discoverNewEvents(changes.snapshot());
+                } else {
+                    eventManager.discoverNewEvents(changes.snapshot(), changes.listedDirectories());
+                }
+                // saved before processing, so a resumed run finds the calendar this run sorted by
+                eventManager.saveEvents();
+            }
         }
 
         DirectoryScanner scanner = new DirectoryScanner(since, extsCsv, copyVideo);
-        LifIndexManager indexMgr = new LifIndexManager(new File(targetDir, ".lif-index.json"));
-        PhotoDecoder decoder = createDecoder(mode, dtPath, longSide, quality);
+        IndexSegments segments = shardDir != null ? new IndexSegments(shardDir, mainIndex) : null;
+        LifIndexManager indexMgr;
+        try {
+            indexMgr = segments != null ? segments.open(workerId) : new LifIndexManager(mainIndex, true);
+        } catch (IOException e) {
+            System.err.println("Failed to open index: " + e.getMessage());
+            e.printStackTrace(System.err);
+            return 3;
+        }
+        PhotoDecoder decoder = createDecoder(mode, dtPath, dtBatch, longSide, quality, progressive);
         if (decoder == null) return 2;
 
         PhotoProcessor processor = new PhotoProcessor(
                 new File(sourceDir), new File(targetDir),
-                indexMgr, decoder, order, eventManager
+                indexMgr, decoder, order, eventManager, new PassthroughCopier(passthrough)
         );
 
         long startTime = System.currentTimeMillis();
         System.out.println("\n--- Starting File Processing Phase ---");
-        List<File> files = scanner.scan(new File(sourceDir));
-        System.out.println("Found " + files.size() + " files to process.");
+        List<File> files = null;
+        FileFeed feed;
+        if (checkpoint != null) {
+            files = new ArrayList<>();
+            for (Path p : checkpoint.remaining()) files.add(p.toFile());
+            System.out.println(files.size() + " files left to process.");
+            feed = FileFeed.of(files);
+        } else if (streamScan) {
+            System.out.println("Scanning " + sourceDir + " while processing...");
+            feed = FileFeed.streaming(SCAN_QUEUE_CAPACITY);
+            if (!watch) {
+                try {
+                    checkpoint = Checkpoint.begin(checkpointDir);
+                } catch (IOException e) {
+                    System.err.println("Could not create checkpoint, this run cannot be resumed: " + e.getMessage());
+                }
+            }
+        } else {
+            List<Path> candidates = new ArrayList<>(changes.added());
+            candidates.addAll(changes.changed());
+            files = scanner.select(candidates);
+            System.out.println("Found " + files.size() + " files to process.");
+            if (!changes.removed().isEmpty()) {
+                System.out.println(changes.removed().size() + " source files were removed since the last run (outputs are kept).");
+            }
+            if (shardDir == null && !watch) {
+                try {
+                    checkpoint = Checkpoint.begin(checkpointDir, files.stream().map(File::toPath).toList());
+                } catch (IOException e) {
+                    System.err.println("Could not create checkpoint, this run cannot be resumed: " + e.getMessage());
+                }
+            }
+            feed = FileFeed.of(files);
+        }
 
-        ProgressTracker progress = new ProgressTracker();
-        progress.startTask(files.size());
-        ExecutorService exec = Executors.newFixedThreadPool(threads);
-        for (File f : files) {
-            exec.submit(() -> {
-                processor.process(f);
-                progress.step(1);
-            });
+        List<ProgressSink> sinks = new ArrayList<>(List.of(new ConsoleProgressSink(), new LogProgressSink()));
+        if (progressJson != null) {
+            sinks.add(new JsonFileProgressSink(new File(progressJson)));
         }
-        exec.shutdown();
-        try {
-            exec.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
-            System.err.println("Processing was interrupted.");
+        ProgressTracker progress = new ProgressTracker(progressRate, sinks.toArray(new ProgressSink[0]));
+        if (cpuLimit.isAdaptive()) progress.showLimit(cpuLimit);
+        if (ioLimit.isAdaptive() && !"raw".equalsIgnoreCase(mode)) progress.showLimit(ioLimit);
+        if (shardDir != null) {
+            Queue<File> failed = new ConcurrentLinkedQueue<>();
+            try (ShardCoordinator coordinator = new ShardCoordinator(shardDir, workerId, shardCount, leaseSeconds * 1000)) {
+                // on Ctrl+C, free the current shard right away instead of letting its lease expire
+                Runtime.getRuntime().addShutdownHook(new Thread(coordinator::close, "lif-shard-release"));
+                if (!processShards(coordinator, new File(sourceDir).toPath(), files, processor, indexMgr, progress,
+                        ioLimit, cpuLimit, memoryBudget, executionMode, failed, leaseSeconds * 1000)) {
+                    System.err.println("Processing was interrupted.");
+                    return 4;
+                }
+            } catch (IOException e) {
+                System.err.println("Shard coordination failed: " + e.getMessage());
+                e.printStackTrace(System.err);
+                return 3;
+            }
+            finishBatch(null, snapshotFile, failed, indexMgr, eventManager);
+            System.out.println("\nProcessing finished. Total time: "
+                    + TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - startTime) + " seconds.");
+            closeAndReport(indexMgr, metricsFile);
+            try {
+                segments.markClosed(workerId);
+                int merged = segments.merge(false);
+                System.out.println("Merged " + merged + " index segments into " + mainIndex.getName() + ".");
+            } catch (IOException e) {
+                System.err.println("Failed to merge index segments (run --merge-shards later): " + e.getMessage());
+                e.printStackTrace(System.err);
+                return 3;
+            }
+            return 0;
+        }
+        FutureTask<ChangeSet> scan = null;
+        if (streamScan) {
+            Checkpoint plan = checkpoint;
+            scan = new FutureTask<>(() -> scanStreaming(new File(sourceDir).toPath(), previous, scanner, feed, plan));
+            new Thread(scan, "lif-scan").start();
+        }
+        Queue<File> failed = processFiles(processor, feed, progress, ioLimit, cpuLimit, memoryBudget, executionMode, checkpoint);
+        if (failed == null) {
+            if (scan != null) scan.cancel(true);
+            System.err.println("Processing was interrupted. Continue with --resume.");
+            closeCheckpoint(checkpoint, false);
             return 4;
         }
-        progress.onComplete();
+        if (scan != null) {
+            try {
+                changes = scan.get();
+            } catch (ExecutionException | InterruptedException e) {
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                System.err.println("Failed to scan source directory: " + cause.getMessage());
+                cause.printStackTrace(System.err);
+                closeCheckpoint(checkpoint, false);
+                return 3;
+            }
+            System.out.println("Source changes:  " + changes.summary());
+            if (!changes.removed().isEmpty()) {
+                System.out.println(changes.removed().size() + " source files were removed since the last run (outputs are kept).");
+            }
+        }
+        finishBatch(changes != null ? changes.snapshot() : null, snapshotFile, failed, indexMgr, eventManager);
+        closeCheckpoint(checkpoint, true);
 
         long endTime = System.currentTimeMillis();
         long duration = endTime - startTime;
         System.out.println("\nProcessing finished. Total time: " + TimeUnit.MILLISECONDS.toSeconds(duration) + " seconds.");
 
+        if (watch) {
+            // index, event calendar and decoder stay loaded; each burst of changes is one small batch
+            DirectoryWatcher watcher = new DirectoryWatcher(new File(sourceDir).toPath(), changes.snapshot(),
+                    (long) (watchQuiet * 1000), (watchPoll > 0 ? watchPoll : DEFAULT_WATCH_RESCAN_SECONDS) * 1000,
+                    watchPoll > 0);
+            CountDownLatch stopped = new CountDownLatch(1);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                watcher.close();
+                try {
+                    stopped.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "lif-watch-shutdown"));
+            System.out.println("\n--- Watching " + sourceDir + " for new files (Ctrl+C to stop) ---");
+            EventManager events = eventManager;
+            try {
+                watcher.run(batch -> {
+                    if (events != null && !batch.listedDirectories().isEmpty()) {
+                        events.discoverNewEvents(batch.snapshot(), batch.listedDirectories());
+                    }
+                    List<Path> changed = new ArrayList<>(batch.added());
+                    changed.addAll(batch.changed());
+                    List<File> arrived = scanner.select(changed);
+                    if (arrived.isEmpty()) return;
+                    Queue<File> batchFailed = processFiles(processor, arrived, progress, ioLimit, cpuLimit, memoryBudget, executionMode, null);
+                    if (batchFailed == null) {
+                        watcher.close();
+                        return;
+                    }
+                    finishBatch(batch.snapshot(), snapshotFile, batchFailed, indexMgr, events);
+                    if (metricsFile != null) {
+                        metrics.dump(new File(metricsFile));
+                    }
+                });
+            } catch (IOException e) {
+                System.err.println("Watching " + sourceDir + " failed: " + e.getMessage());
+                e.printStackTrace(System.err);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            System.out.println("Stopped watching.");
+            closeAndReport(indexMgr, metricsFile);
+            stopped.countDown();
+            return 0;
+        }
+
+        closeAndReport(indexMgr, metricsFile);
+        return 0;
+    }
+
+    /**
+     * Runs the files through a fresh pipeline on the long-lived processor.
+     *
+     * @param checkpoint if set, records every file that did not fail
+     * @return the files that failed, or null if interrupted
+     */
+    private Queue<File> processFiles(PhotoProcessor processor, List<File> files, ProgressTracker progress,
+                                     AdaptiveLimiter ioLimit, AdaptiveLimiter cpuLimit, MemoryBudget memoryBudget,
+                                     ExecutionMode executionMode, Checkpoint checkpoint) {
+        return processFiles(processor, FileFeed.of(files), progress, ioLimit, cpuLimit, memoryBudget, executionMode, checkpoint);
+    }
+
+    /**
+     * Like {@link #processFiles(PhotoProcessor, List, ProgressTracker, AdaptiveLimiter, AdaptiveLimiter,
+     * MemoryBudget, ExecutionMode, Checkpoint)}, taking the files from a feed that a scan may
+     * still be filling; the progress total then grows as files arrive.
+     */
+    private Queue<File> processFiles(PhotoProcessor processor, FileFeed feed, ProgressTracker progress,
+                                     AdaptiveLimiter ioLimit, AdaptiveLimiter cpuLimit, MemoryBudget memoryBudget,
+                                     ExecutionMode executionMode, Checkpoint checkpoint) {
+        progress.startTask(Math.max(0, feed.size()));
+        Queue<File> failed = new ConcurrentLinkedQueue<>();
+        Pipeline<PhotoJob> pipeline = processor.buildPipeline(ioLimit, cpuLimit, memoryBudget, executionMode, job -> {
+            if (job.outcome() == PhotoProcessor.Outcome.FAILED) {
+                failed.add(job.srcFile());
+            } else if (checkpoint != null) {
+                try {
+                    checkpoint.complete(job.srcFile().toPath());
+                } catch (IOException e) {
+                    System.err.println("Failed to update checkpoint: " + e.getMessage());
+                }
+            }
+            progress.stage(job.outcome().name().toLowerCase());
+            progress.step(1, job.sourceSize());
+        });
+        pipeline.start();
+        try {
+            File f;
+            while ((f = feed.take()) != null) {
+                if (feed.size() < 0) progress.addTotal(1);
+                pipeline.submit(new PhotoJob(f));
+            }
+            pipeline.finish();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        processor.releasePipelineResources();
+        progress.onComplete();
+        System.out.println("Pipeline stages:\n" + pipeline.formatStats());
+        return failed;
+    }
+
+    /**
+     * Claims shards until every shard of the run is done and processes each claimed
+     * shard as one batch. While other workers hold the remaining shards this worker
+     * waits, so the shards of a crashed worker are taken over once their leases expire.
+     * A shard is only marked done after its index entries are flushed.
+     *
+     * @return false if interrupted
+     */
+    private boolean processShards(ShardCoordinator coordinator, Path sourceRoot, List<File> files,
+                                  PhotoProcessor processor, LifIndexManager indexMgr, ProgressTracker progress,
+                                  AdaptiveLimiter ioLimit, AdaptiveLimiter cpuLimit, MemoryBudget memoryBudget,
+                                  ExecutionMode executionMode, Queue<File> failed, long leaseMillis) throws IOException {
+        int shards = coordinator.shards();
+        List<List<File>> byShard = new ArrayList<>(shards);
+        for (int s = 0; s < shards; s++) byShard.add(new ArrayList<>());
+        Path root = sourceRoot.toAbsolutePath().normalize();
+        for (File f : files) {
+            // relative paths, so machines that mount the source elsewhere agree on the shards
+            String key = root.relativize(f.toPath().toAbsolutePath().normalize()).toString().replace(File.separatorChar, '/');
+            byShard.get(ShardCoordinator.shardOf(key, shards)).add(f);
+        }
+
+        int first = coordinator.firstShard();
+        while (true) {
+            int claimed = 0;
+            for (int i = 0; i < shards; i++) {
+                int shard = (first + i) % shards;
+                if (!coordinator.tryAcquire(shard)) continue;
+                claimed++;
+                List<File> shardFiles = byShard.get(shard);
+                if (!shardFiles.isEmpty()) {
+                    System.out.println("\n--- Shard " + shard + " of " + shards + ": " + shardFiles.size() + " files ---");
+                    Queue<File> shardFailed = processFiles(processor, shardFiles, progress, ioLimit, cpuLimit, memoryBudget, executionMode, null);
+                    if (shardFailed == null) {
+                        coordinator.release(shard);
+                        return false;
+                    }
+                    failed.addAll(shardFailed);
+                    indexMgr.flush();
+                }
+                if (coordinator.stillOwns(shard)) {
+                    coordinator.complete(shard);
+                } else {
+                    System.err.println("Shard " + shard + " was taken over by another worker while processing; leaving it to them.");
+                    coordinator.release(shard);
+                }
+            }
+            if (coordinator.allDone()) return true;
+            if (claimed == 0) {
+                System.out.println("Waiting for shards held by other workers...");
+                try {
+                    Thread.sleep(Math.min(MAX_SHARD_WAIT_MILLIS, Math.max(1000, leaseMillis / 2)));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Scans the source against the previous snapshot and hands matching added and changed
+     * files to {@code feed}, recording each in the checkpoint's plan first. The plan is only
+     * sealed, and the run resumable, once the scan completed.
+     */
+    private static ChangeSet scanStreaming(Path source, DirectorySnapshot previous, DirectoryScanner scanner,
+                                           FileFeed feed, Checkpoint checkpoint) throws Exception {
+        AtomicBoolean planned = new AtomicBoolean(checkpoint != null);
+        try {
+            ChangeSet changes = DirectorySnapshot.scan(source, previous, (file, entry) -> {
+                if (!scanner.matches(entry.name(), entry.mtime())) return;
+                if (planned.get()) {
+                    try {
+                        checkpoint.plan(file);
+                    } catch (IOException e) {
+                        System.err.println("Could not update checkpoint, this run cannot be resumed: " + e.getMessage());
+                        planned.set(false);
+                    }
+                }
+                feed.put(file.toFile());
+            });
+            if (planned.get()) checkpoint.sealPlan();
+            return changes;
+        } finally {
+            feed.close();
+        }
+    }
+
+    private static String describe(AdaptiveLimiter limiter) {
+        return limiter.isAdaptive() ? "auto, starting at " + limiter.limit() + ", up to " + limiter.max()
+                : String.valueOf(limiter.limit());
+    }
+
+    private static String defaultWorkerId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "worker";
+        }
+        return host + "-" + ProcessHandle.current().pid();
+    }
+
+    /**
+     * Makes a finished batch durable: index entries, event calendar and the source snapshot
+     * (if given).
+     */
+    private void finishBatch(DirectorySnapshot snapshot, File snapshotFile, Queue<File> failed,
+                             LifIndexManager indexMgr, EventManager eventManager) {
+        try {
+            indexMgr.flush();
+        } catch (IOException e) {
+            System.err.println("Failed to flush index: " + e.getMessage());
+            e.printStackTrace(System.err);
+        }
+
+        // failed files are left out of the snapshot so the next delta run picks them up again
+        if (snapshot != null) {
+            for (File f : failed) {
+                snapshot.invalidate(f.toPath());
+            }
+            try {
+                snapshot.save(snapshotFile);
+            } catch (IOException e) {
+                System.err.println("Failed to save directory snapshot: " + e.getMessage());
+                e.printStackTrace(System.err);
+            }
+        }
+
         if (eventManager != null) {
             eventManager.saveEvents();
         }
+    }
 
-        return 0;
+    /**
+     * Deletes the checkpoint after a completed run, or keeps it for --resume.
+     */
+    private void closeCheckpoint(Checkpoint checkpoint, boolean completed) {
+        if (checkpoint == null) return;
+        try {
+            if (completed) {
+                checkpoint.finish();
+            } else {
+                checkpoint.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to close checkpoint: " + e.getMessage());
+            e.printStackTrace(System.err);
+        }
+    }
+
+    private void closeAndReport(LifIndexManager indexMgr, String metricsFile) {
+        try {
+            indexMgr.close();
+        } catch (IOException e) {
+            System.err.println("Failed to compact index: " + e.getMessage());
+            e.printStackTrace(System.err);
+        }
+
+        if (metricsFile != null) {
+            MetricsRegistry metrics = MetricsRegistry.global();
+            metrics.stopPeriodicDump();
+            metrics.dump(new File(metricsFile));
+            System.out.println("Metrics written to: " + metricsFile);
+        }
     }
 
-    private PhotoDecoder createDecoder(String mode, String dtPath, int longSide, int quality) {
+    private PhotoDecoder createDecoder(String mode, String dtPath, int dtBatch, int longSide, int quality, boolean progressive) {
         try {
             if ("raw".equalsIgnoreCase(mode)) {
-                return new DarktableDecoder(dtPath, longSide, quality);
+                return new DarktableDecoder(dtPath, longSide, quality, dtBatch);
             } else if ("jpeg".equalsIgnoreCase(mode)) {
-                return new JpegDecoder(longSide, quality);
+                return new JpegDecoder(longSide, quality, progressive);
             } else {
                 System.err.println("ERROR: Unknown mode '" + mode + "'");
                 return null;
@@ -1,99 +1,442 @@
 package org.trostheide.lif.photoorg;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.trostheide.lif.core.AdaptiveLimiter;
+import org.trostheide.lif.core.CircuitBreaker;
+import org.trostheide.lif.core.ExecutionMode;
+import org.trostheide.lif.core.ExecutorFactory;
+import org.trostheide.lif.core.LatencyHistogram;
 import org.trostheide.lif.core.LifIndexManager;
-import java.awt.image.BufferedImage;
+import org.trostheide.lif.core.MemoryBudget;
+import org.trostheide.lif.core.MetadataCache;
+import org.trostheide.lif.core.PhotoMetadata;
+import org.trostheide.lif.core.MetricsRegistry;
+import org.trostheide.lif.core.Pipeline;
+import org.trostheide.lif.core.RetryExecutor;
+import org.trostheide.lif.core.RetryPolicy;
+
 import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public class PhotoProcessor {
+    private static final Logger log = LoggerFactory.getLogger(PhotoProcessor.class);
+    private static final LatencyHistogram PROCESS = MetricsRegistry.global().histogram("photo.process");
+    private static final LatencyHistogram INDEX_WRITE = MetricsRegistry.global().histogram("index.write");
+    private static final MetricsRegistry.Counter FAILED = MetricsRegistry.global().counter("photo.failed");
+    /** Typical JPEG compression ratio, to estimate the decoded size when the header can't be read. */
+    private static final int FALLBACK_EXPANSION = 10;
+    /** Passthrough copies from this size on get their own threads, so they cannot hold up the photos. */
+    private static final long LARGE_COPY_BYTES = 64L * 1024 * 1024;
+    private static final int LARGE_COPY_THREADS = 2;
+
     private final Path sourceRoot;
     private final Path targetRoot;
     private final LifIndexManager indexMgr;
     private final PhotoDecoder decoder;
     private final String orderMode;
     private final EventManager eventManager;
+    private final PassthroughCopier copier;
     private final DateExtractor dateExtractor = new DateExtractor();
+    /**
+     * Retry file system hiccups (e.g. a NAS dropping out) in the stages that touch files.
+     * Source and target have a breaker each, so a failing source share does not stop writes.
+     */
+    private final RetryExecutor sourceRetry = ioRetry("source-io");
+    private final RetryExecutor targetRetry = ioRetry("target-io");
+
+    /** Result of processing one source file, used for progress reporting. */
+    public enum Outcome { WRITTEN, SKIPPED, FAILED }
 
     public PhotoProcessor(
             File sourceRootDir, File targetRootDir, LifIndexManager indexMgr,
             PhotoDecoder decoder, String orderMode, EventManager eventManager
     ) {
-        this.sourceRoot = sourceRootDir.toPath();
+        this(sourceRootDir, targetRootDir, indexMgr, decoder, orderMode, eventManager,
+                new PassthroughCopier(PassthroughCopier.Method.COPY));
+    }
+
+    /**
+     * @param copier copies the files that need no conversion: videos, and JPEGs in jpeg
+     *               mode when they are not resized
+     */
+    public PhotoProcessor(
+            File sourceRootDir, File targetRootDir, LifIndexManager indexMgr,
+            PhotoDecoder decoder, String orderMode, EventManager eventManager, PassthroughCopier copier
+    ) {
+        // scanned files arrive as absolute paths, so relativize against an absolute root
+        this.sourceRoot = sourceRootDir.toPath().toAbsolutePath().normalize();
         this.targetRoot = targetRootDir.toPath();
         this.indexMgr = indexMgr;
         this.decoder = decoder;
         this.orderMode = orderMode;
         this.eventManager = eventManager;
+        this.copier = copier;
     }
 
-    public void process(File srcFile) {
-        try {
-            String threadName = Thread.currentThread().getName();
-            System.out.println(String.format("[%s] START Processing: %s", threadName, srcFile.getAbsolutePath()));
+    /**
+     * Frees what the stage threads of a finished pipeline set up and kept, i.e. the JPEG
+     * writers; a later pipeline sets them up again.
+     */
+    public void releasePipelineResources() {
+        if (decoder instanceof JpegDecoder) {
+            ((JpegDecoder) decoder).encoder().dispose();
+        }
+    }
+
+    private Outcome reportFailure(File srcFile, Throwable e) {
+        System.err.println("Failed processing " + srcFile.getAbsolutePath());
+        e.printStackTrace(System.err);
+        FAILED.increment();
+        return Outcome.FAILED;
+    }
+
+    private static RetryExecutor ioRetry(String name) {
+        return new RetryExecutor(
+                new RetryPolicy(3, 1_000).withMaxDelay(15_000).withDeadline(60_000).retryOn(PhotoProcessor::isTransientIo),
+                new CircuitBreaker(name, 20, 30_000));
+    }
 
-            Path outDir = determineOutputDir(srcFile, threadName);
-            Files.createDirectories(outDir);
+    /**
+     * I/O errors are worth retrying (e.g. EIO or a stale NFS handle) unless they concern the
+     * one file: missing, not accessible, or already there. Those are not retried and, not
+     * being transient, do not count toward the breaker either.
+     */
+    private static boolean isTransientIo(Throwable e) {
+        return e instanceof IOException
+                && !(e instanceof NoSuchFileException)
+                && !(e instanceof AccessDeniedException)
+                && !(e instanceof FileAlreadyExistsException)
+                && !(e instanceof NotDirectoryException);
+    }
 
-            String baseName = srcFile.getName().replaceAll("\\.[^.]+$", "");
-            Path outFilePath = outDir.resolve(baseName + ".jpg");
-            File outFile = outFilePath.toFile();
+    /**
+     * Like {@link #buildPipeline(AdaptiveLimiter, AdaptiveLimiter, MemoryBudget, ExecutionMode, Consumer)}
+     * with fixed thread counts and no memory budget.
+     */
+    public Pipeline<PhotoJob> buildPipeline(int ioThreads, int cpuThreads, ExecutionMode ioMode,
+                                            Consumer<PhotoJob> onDone) {
+        return buildPipeline(AdaptiveLimiter.fixed("io", ioThreads), AdaptiveLimiter.fixed("cpu", cpuThreads),
+                null, ioMode, onDone);
+    }
 
-            if (outFile.exists()) {
-                System.out.println(String.format("[%s] Skipping existing: %s", threadName, outFile.getAbsolutePath()));
-                return;
+    /**
+     * Builds the staged pipeline used by the CLI: plan → read → decode → resize → encode → write → index
+     * (plan → convert → index in raw mode, where convert hands several files to each
+     * darktable-cli run). Files that need no conversion take plan → copy → index
+     * instead and skip the other stages; copies of large files (videos) run in a copy-large
+     * stage with threads of its own, so a multi-GB copy never holds up the photos. Read, write
+     * and the other copies share the {@code io} limit, the
+     * image work (or darktable) the {@code cpu} limit; queues between the image stages are
+     * kept short because they hold decoded images. The limiters outlive the pipeline, so
+     * a limit found in one batch carries over to the next.
+     * <p>
+     * With a {@code memory} budget, an admit stage between read and decode reserves each
+     * image's decoded size (from its header) before it is decoded, and encode gives it back,
+     * so the images in flight never exceed the budget however many threads there are. The
+     * admit stage has its own thread and no limiter: a decode thread waiting for memory
+     * would hold a CPU permit that resize and encode need to free memory.
+     * <p>
+     * Read, write and the copies retry transient file system errors with backoff; a worker
+     * waiting for its next attempt gives up its {@code io} permit meanwhile.
+     * <p>
+     * The stages that mostly wait (file I/O, the darktable-cli process, index) run on threads of
+     * {@code ioMode}; decode, resize and encode always use platform threads.
+     *
+     * @param memory budget for decoded images, or null for no bound
+     * @param onDone called once per file after it left the pipeline, with its outcome set
+     */
+    public Pipeline<PhotoJob> buildPipeline(AdaptiveLimiter io, AdaptiveLimiter cpu, MemoryBudget memory,
+                                            ExecutionMode ioMode, Consumer<PhotoJob> onDone) {
+        Pipeline<PhotoJob> pipeline = new Pipeline<>("photo-org", new Pipeline.Listener<>() {
+            @Override
+            public void completed(PhotoJob job) {
+                PROCESS.stop(job.startNanos);
+                onDone.accept(job);
             }
 
-            if (decoder instanceof DarktableDecoder) {
-                ((DarktableDecoder) decoder).convertTo(srcFile, outFilePath);
-            } else {
-                BufferedImage img = decoder.decode(srcFile);
-                ExifPreservingWriter.writeJpegWithExif(srcFile, img, outFilePath);
+            @Override
+            public void failed(PhotoJob job, String stage, Exception error) {
+                PROCESS.stop(job.startNanos);
+                job.outcome = reportFailure(job.srcFile, error);
+                releaseMemory(job, memory);
+                job.sourceBytes = null;
+                job.image = null;
+                job.encoded = null;
+                onDone.accept(job);
+            }
+        });
+        int imageQueue = Math.max(2, cpu.max());
+        Predicate<PhotoJob> convert = job -> !job.passthrough;
+        pipeline.addStage("plan", 1, 256, ExecutorFactory.threadFactory(ioMode, "photo-org-plan"), this::plan)
+                .addStage("copy", io, 64, ExecutorFactory.threadFactory(ioMode, "photo-org-copy"), this::copy)
+                .onlyIf(job -> job.passthrough && job.sourceSize < LARGE_COPY_BYTES)
+                .retrying(targetRetry)
+                .addStage("copy-large", LARGE_COPY_THREADS, 16, ExecutorFactory.threadFactory(ioMode, "photo-org-copy-large"), this::copy)
+                .onlyIf(job -> job.passthrough && job.sourceSize >= LARGE_COPY_BYTES)
+                .retrying(targetRetry);
+        if (decoder instanceof DarktableDecoder) {
+            // darktable does the CPU work in its own process; we only wait for it
+            int batchSize = ((DarktableDecoder) decoder).batchSize();
+            pipeline.addBatchStage("convert", cpu, Math.max(64, 2 * batchSize), batchSize,
+                            ExecutorFactory.threadFactory(ioMode, "photo-org-convert"), this::convertBatch)
+                    .onlyIf(convert);
+        } else {
+            pipeline.addStage("read", io, 64, ExecutorFactory.threadFactory(ioMode, "photo-org-read"), this::read)
+                    .onlyIf(convert)
+                    .retrying(sourceRetry);
+            if (memory != null) {
+                pipeline.addStage("admit", 1, imageQueue, ExecutorFactory.threadFactory(ExecutionMode.PLATFORM, "photo-org-admit"),
+                        job -> admit(job, memory)).onlyIf(convert);
             }
-            System.out.println(String.format("[%s] Wrote to: %s", threadName, outFile.getAbsolutePath()));
+            pipeline.addStage("decode", cpu, imageQueue, ExecutorFactory.threadFactory(ExecutionMode.PLATFORM, "photo-org-decode"), this::decode)
+                    .onlyIf(convert)
+                    .addStage("resize", cpu, imageQueue, ExecutorFactory.threadFactory(ExecutionMode.PLATFORM, "photo-org-resize"), this::resize)
+                    .onlyIf(convert)
+                    .addStage("encode", cpu, imageQueue, ExecutorFactory.threadFactory(ExecutionMode.PLATFORM, "photo-org-encode"), job -> {
+                        encode(job);
+                        releaseMemory(job, memory);
+                        return true;
+                    })
+                    .onlyIf(convert)
+                    .addStage("write", io, imageQueue * 2, ExecutorFactory.threadFactory(ioMode, "photo-org-write"), this::write)
+                    .onlyIf(convert)
+                    .retrying(targetRetry);
+        }
+        pipeline.addStage("index", 1, 256, ExecutorFactory.threadFactory(ioMode, "photo-org-index"), this::index);
+        return pipeline;
+    }
+
+    /**
+     * Skips files that are indexed or already converted and determines the output path and
+     * whether the file is copied unchanged. Copied videos keep their name; everything else
+     * becomes a .jpg.
+     */
+    boolean plan(PhotoJob job) throws Exception {
+        job.startNanos = PROCESS.start();
+        File srcFile = job.srcFile;
+        log.debug("START Processing: {}", srcFile.getAbsolutePath());
+
+        String indexedOutput = indexMgr.lookupOutput(srcFile);
+        if (indexedOutput != null && new File(indexedOutput).exists()) {
+            log.debug("Skipping unchanged (indexed): {}", indexedOutput);
+            job.outcome = Outcome.SKIPPED;
+            return false;
+        }
+
+        Path outDir = determineOutputDir(srcFile);
+        Files.createDirectories(outDir);
 
-            indexMgr.writeIndexEntry(srcFile, outFile);
+        job.passthrough = isPassthrough(srcFile.getName());
+        String baseName = srcFile.getName().replaceAll("\\.[^.]+$", "");
+        job.outFile = outDir.resolve(DirectoryScanner.isVideo(srcFile.getName()) ? srcFile.getName() : baseName + ".jpg");
 
+        if (Files.exists(job.outFile)) {
+            log.debug("Skipping existing: {}", job.outFile.toAbsolutePath());
+            job.outcome = Outcome.SKIPPED;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Videos are never converted, and in jpeg mode without resizing JPEGs are not either.
+     */
+    private boolean isPassthrough(String fileName) {
+        if (DirectoryScanner.isVideo(fileName)) return true;
+        String name = fileName.toLowerCase();
+        return decoder instanceof JpegDecoder && ((JpegDecoder) decoder).longSide() <= 0
+                && (name.endsWith(".jpg") || name.endsWith(".jpeg"));
+    }
+
+    boolean copy(PhotoJob job) throws Exception {
+        Path part = partFile(job.outFile);
+        copier.copy(job.srcFile.toPath(), part);
+        try {
+            publish(part, job);
         } catch (Exception e) {
-            System.err.println("Failed processing " + srcFile.getAbsolutePath());
-            e.printStackTrace(System.err);
+            PassthroughCopier.deleteAfterFailure(part, e);
+            throw e;
         }
+        log.debug("Copied to: {}", job.outFile.toAbsolutePath());
+        return true;
     }
 
-    private Path determineOutputDir(File srcFile, String threadName) {
+    /**
+     * Converts the jobs in one darktable-cli run where possible; each failure is reported
+     * for its own file.
+     */
+    void convertBatch(List<PhotoJob> jobs, BiConsumer<PhotoJob, Exception> failed) throws Exception {
+        Map<File, Path> parts = new LinkedHashMap<>();
+        for (PhotoJob job : jobs) {
+            Path part = partFile(job.outFile);
+            // darktable picks a new name instead of overwriting a leftover from a crashed run
+            Files.deleteIfExists(part);
+            parts.put(job.srcFile, part);
+        }
+        Map<File, Exception> failures = ((DarktableDecoder) decoder).convertAll(parts);
+        for (PhotoJob job : jobs) {
+            Exception error = failures.get(job.srcFile);
+            if (error != null) {
+                failed.accept(job, error);
+                continue;
+            }
+            try {
+                Files.move(parts.get(job.srcFile), job.outFile, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                failed.accept(job, e);
+                continue;
+            }
+            log.debug("Wrote to: {}", job.outFile.toAbsolutePath());
+        }
+    }
+
+    boolean read(PhotoJob job) throws Exception {
+        if (decoder instanceof JpegDecoder) {
+            job.sourceBytes = Files.readAllBytes(job.srcFile.toPath());
+        }
+        return true;
+    }
+
+    /**
+     * Waits until the decoded image fits into the budget. Besides the pixels, the reservation
+     * covers the source bytes, which stay in memory until encode, and the encoder's copies
+     * of the output, which are smaller than the source.
+     */
+    boolean admit(PhotoJob job, MemoryBudget memory) throws Exception {
+        if (job.sourceBytes == null) return true;
+        long decoded = JpegDecoder.estimateDecodedBytes(job.sourceBytes, ((JpegDecoder) decoder).longSide());
+        if (decoded < 0) decoded = (long) job.sourceBytes.length * FALLBACK_EXPANSION;
+        long bytes = decoded + 2L * job.sourceBytes.length;
+        memory.acquire(bytes);
+        job.reservedBytes = bytes;
+        return true;
+    }
+
+    private static void releaseMemory(PhotoJob job, MemoryBudget memory) {
+        if (memory != null && job.reservedBytes > 0) {
+            memory.release(job.reservedBytes);
+            job.reservedBytes = 0;
+        }
+    }
+
+    boolean decode(PhotoJob job) throws Exception {
+        job.image = job.sourceBytes != null
+                ? ((JpegDecoder) decoder).decode(job.sourceBytes, job.srcFile)
+                : decoder.decode(job.srcFile);
+        return true;
+    }
+
+    boolean resize(PhotoJob job) throws Exception {
+        if (decoder instanceof JpegDecoder) {
+            job.image = ((JpegDecoder) decoder).resize(job.image);
+        }
+        return true;
+    }
+
+    boolean encode(PhotoJob job) throws Exception {
+        job.encoded = ExifPreservingWriter.encodeWithExif(job.srcFile, job.sourceBytes, job.image, ((JpegDecoder) decoder).encoder());
+        job.image = null;
+        job.sourceBytes = null;
+        return true;
+    }
+
+    boolean write(PhotoJob job) throws Exception {
+        Path part = partFile(job.outFile);
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            job.encoded.writeTo(channel);
+        }
+        // kept until published, since the stage retries a failed write as a whole
+        publish(part, job);
+        job.encoded = null;
+        log.debug("Wrote to: {}", job.outFile.toAbsolutePath());
+        return true;
+    }
+
+    /**
+     * Renames the finished part file to the output.
+     */
+    private static void publish(Path part, PhotoJob job) throws Exception {
+        Files.move(part, job.outFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // the output carries the source's EXIF, so tagging can skip parsing it again
+        PhotoMetadata metadata = MetadataCache.global().peek(job.srcFile);
+        if (metadata != null) {
+            MetadataCache.global().put(job.outFile.toFile(), metadata);
+        }
+    }
+
+    boolean index(PhotoJob job) throws Exception {
+        long tIndex = INDEX_WRITE.start();
+        indexMgr.writeIndexEntry(job.srcFile, job.outFile.toFile());
+        INDEX_WRITE.stop(tIndex);
+        return true;
+    }
+
+    /**
+     * Outputs are written under this name and renamed when complete, so an existing
+     * output is always a finished one, even after a crash mid-write. Hidden, and with a
+     * .jpg extension since darktable derives the format from it.
+     */
+    private static Path partFile(Path outFile) {
+        return outFile.resolveSibling("." + outFile.getFileName() + ".part.jpg");
+    }
+
+    private Path determineOutputDir(File srcFile) {
+        boolean byDate = "date".equalsIgnoreCase(orderMode) || "event".equalsIgnoreCase(orderMode);
+        DateExtractor.PathInfo info = null;
+        if (byDate) {
+            // videos are no supported images; only their path and file date tell when they were taken
+            info = dateExtractor.extractFileInfo(srcFile);
+            if (info == null) info = dateExtractor.extractFileInfoFromPath(srcFile);
+        }
+
         if ("event".equalsIgnoreCase(orderMode) && eventManager != null) {
-            DateExtractor.PathInfo info = dateExtractor.extractPathInfo(srcFile);
             LocalDate photoDate = info.date();
-            System.out.println(String.format("[%s] Date for file '%s' is: %s", threadName, srcFile.getName(), photoDate));
+            log.debug("Date for file '{}' is: {}", srcFile.getName(), photoDate);
 
             if (photoDate != null) {
                 EventManager.Event event = eventManager.findBestEventForDate(photoDate);
                 if (event != null) {
-                    System.out.println(String.format("[%s] Matched event '%s' (%s - %s) for date %s", threadName, event.name(), event.startDate(), event.endDate(), photoDate));
+                    log.debug("Matched event '{}' ({} - {}) for date {}", event.name(), event.startDate(), event.endDate(), photoDate);
                     Path finalPath = targetRoot.resolve(String.valueOf(photoDate.getYear())).resolve(String.format("%02d", photoDate.getMonthValue())).resolve(event.name());
-                    System.out.println(String.format("[%s] Final path determined by event: %s", threadName, finalPath));
+                    log.debug("Final path determined by event: {}", finalPath);
                     return finalPath;
                 } else {
-                    System.out.println(String.format("[%s] No matching event found for date %s", threadName, photoDate));
+                    log.debug("No matching event found for date {}", photoDate);
                 }
             }
         }
 
-        if ("date".equalsIgnoreCase(orderMode) || "event".equalsIgnoreCase(orderMode)) {
-            DateExtractor.PathInfo info = dateExtractor.extractPathInfo(srcFile);
+        if (byDate) {
             LocalDate d = info.date();
             Path dir = targetRoot.resolve(String.valueOf(d.getYear())).resolve(String.format("%02d", d.getMonthValue()));
             if (info.qualifier() != null) {
                 dir = dir.resolve(info.qualifier());
             }
-            System.out.println(String.format("[%s] Final path determined by date/path: %s", threadName, dir));
+            log.debug("Final path determined by date/path: {}", dir);
             return dir;
         }
 
         Path rel = sourceRoot.relativize(srcFile.toPath().getParent());
         Path finalPath = targetRoot.resolve(rel);
-        System.out.println(String.format("[%s] Final path determined by structure: %s", threadName, finalPath));
+        log.debug("Final path determined by structure: {}", finalPath);
         return finalPath;
     }
 }
@@ -0,0 +1,157 @@
+package org.trostheide.lif.photoorg;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.trostheide.lif.photoorg.DateExtractor.PathInfo;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link DateExtractor#classify} must give the same result as the regular expressions it
+ * replaced ({@link RegexDateRules}), including exceptions (e.g. month 13). The names are
+ * generated in every rule's shape with valid and near-miss parts (years out of range,
+ * invalid months, mixed case, stray and non-ASCII whitespace, line breaks, punctuation in
+ * qualifiers), plus random token sequences.
+ */
+class DateExtractorTest {
+    private static final int NAMES_PER_SEED = 300_000;
+    private static final int MAX_REPORTED = 20;
+
+    private static final String[] YEARS = {
+            "1980", "1989", "1990", "1999", "2000", "2019", "2099", "1979", "2100", "1899", "0000", "199", "20190"
+    };
+    private static final String[] MONTHS = {
+            "januar", "january", "februar", "february", "märz", "maerz", "march", "april", "mai", "may",
+            "juni", "june", "juli", "july", "august", "september", "oktober", "october", "november",
+            "dezember", "december",
+            // near misses
+            "mär", "marz", "Mä", "septembe", "mayo", "jan", "MÄRZ", "juli2019"
+    };
+    private static final String[] NUMERIC_MONTHS = {"1", "01", "7", "09", "10", "12", "0", "00", "13", "123", ""};
+    private static final String[] SPACES = {" ", "  ", "\t", " \t ", "\n", "\r\n", "\f", "\u000B", " ", " ", "\u0085", ""};
+    private static final String[] DASHES = {"-", "_", "–", ".", ""};
+    private static final String[] QUALIFIERS = {
+            "Rom", "Hochzeit Dirk", "Ostern!", "Café de Flore", "Grüße aus Köln", "Straße", "x/y (2)", "A&B",
+            "2019", "Mai", "-", "_", "...", "Toskana  Teil 2", "ÄÖÜ äöü ß", "emoji 📷", "line\nbreak"
+    };
+
+    @Test
+    void classifiesEachRule() {
+        assertEquals(new PathInfo(LocalDate.of(2019, 5, 1), "Rom"), DateExtractor.classify("Rom Mai 2019"));
+        assertEquals(new PathInfo(LocalDate.of(2019, 5, 1), "Rom"), DateExtractor.classify("2019 Mai Rom"));
+        assertEquals(new PathInfo(LocalDate.of(2019, 3, 1), null), DateExtractor.classify("März 2019"));
+        assertEquals(new PathInfo(LocalDate.of(2019, 12, 1), null), DateExtractor.classify("2019 december"));
+        assertEquals(new PathInfo(LocalDate.of(2019, 7, 1), "Ostern"), DateExtractor.classify("2019-07 Ostern!"));
+        assertEquals(new PathInfo(LocalDate.of(2019, 7, 1), null), DateExtractor.classify("2019_7"));
+        assertEquals(new PathInfo(LocalDate.of(2019, 1, 1), "Toskana"), DateExtractor.classify("2019 - Toskana"));
+        assertEquals(new PathInfo(LocalDate.of(2019, 1, 1), null), DateExtractor.classify("2019"));
+        assertNull(DateExtractor.classify("Urlaub"));
+        assertNull(DateExtractor.classify("2100"));
+        assertThrows(RuntimeException.class, () -> DateExtractor.classify("2019-13"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {42, 1, 7})
+    void agreesWithRegexCascade(long seed) {
+        Random random = new Random(seed);
+        List<String> differences = new ArrayList<>();
+        int classified = 0;
+        for (int i = 0; i < NAMES_PER_SEED; i++) {
+            String name = name(random);
+            String expected = outcome(() -> RegexDateRules.classify(name));
+            String actual = outcome(() -> DateExtractor.classify(name));
+            if (!expected.equals(actual) && differences.size() < MAX_REPORTED) {
+                differences.add(String.format("\"%s\": regex=%s classify=%s", escape(name), expected, actual));
+            }
+            if (!expected.equals("null") && !expected.startsWith("throws")) classified++;
+        }
+        assertEquals(List.of(), differences);
+        // the generator must keep hitting the rules, not only produce misses
+        assertTrue(classified > NAMES_PER_SEED / 10, "only " + classified + " names classified");
+    }
+
+    private static String outcome(Supplier<PathInfo> classifier) {
+        try {
+            return String.valueOf(classifier.get());
+        } catch (RuntimeException e) {
+            return "throws " + e.getClass().getSimpleName();
+        }
+    }
+
+    /** A name in the shape of one of the eight rules, or a random sequence of their parts. */
+    private static String name(Random r) {
+        String y = pick(r, YEARS);
+        String m = monthName(r);
+        String s = pick(r, SPACES);
+        String q = pick(r, QUALIFIERS);
+        String body = switch (r.nextInt(10)) {
+            case 0 -> q + s + m + pick(r, SPACES) + y;
+            case 1 -> y + s + m + pick(r, SPACES) + q;
+            case 2 -> m + s + y;
+            case 3 -> y + s + m;
+            case 4 -> y + pick(r, DASHES) + pick(r, NUMERIC_MONTHS) + s + q;
+            case 5 -> y + pick(r, DASHES) + pick(r, NUMERIC_MONTHS);
+            case 6 -> y + s + pick(r, DASHES) + pick(r, SPACES) + q;
+            case 7 -> y;
+            default -> randomTokens(r);
+        };
+        // stray whitespace around the name
+        if (r.nextInt(8) == 0) body = pick(r, SPACES) + body;
+        if (r.nextInt(4) == 0) body = body + pick(r, SPACES);
+        return body;
+    }
+
+    private static String randomTokens(Random r) {
+        StringBuilder sb = new StringBuilder();
+        int tokens = 1 + r.nextInt(6);
+        for (int t = 0; t < tokens; t++) {
+            switch (r.nextInt(6)) {
+                case 0 -> sb.append(pick(r, YEARS));
+                case 1 -> sb.append(monthName(r));
+                case 2 -> sb.append(pick(r, NUMERIC_MONTHS));
+                case 3 -> sb.append(pick(r, DASHES));
+                case 4 -> sb.append(pick(r, QUALIFIERS));
+                default -> sb.append(pick(r, SPACES));
+            }
+        }
+        return sb.toString();
+    }
+
+    /** A month name in random case. */
+    private static String monthName(Random r) {
+        String month = pick(r, MONTHS);
+        return switch (r.nextInt(4)) {
+            case 0 -> month.toUpperCase();
+            case 1 -> Character.toUpperCase(month.charAt(0)) + month.substring(1);
+            case 2 -> {
+                StringBuilder sb = new StringBuilder(month.length());
+                for (char c : month.toCharArray()) sb.append(r.nextBoolean() ? Character.toUpperCase(c) : c);
+                yield sb.toString();
+            }
+            default -> month;
+        };
+    }
+
+    private static String pick(Random r, String[] options) {
+        return options[r.nextInt(options.length)];
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (char c : s.toCharArray()) {
+            if (c < 0x20 || (c >= 0x7F && c < 0xA0) || c == 0x2028) sb.append(String.format("\\u%04X", (int) c));
+            else sb.append(c);
+        }
+        return sb.toString();
+    }
+}
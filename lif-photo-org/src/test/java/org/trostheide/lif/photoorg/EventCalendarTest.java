@@ -0,0 +1,118 @@
+package org.trostheide.lif.photoorg;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.trostheide.lif.photoorg.EventManager.Event;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link EventCalendar} must answer like the linear scans it replaced in
+ * {@link EventManager}, on random calendars: overlapping and nested events, equal
+ * durations (the first event added must win), events ending before they start, events
+ * added after lookups, and segments reloaded through {@link EventCalendar#addAll}. Name
+ * lookups are compared with {@link String#equalsIgnoreCase}, using names that differ in
+ * case, also outside ASCII.
+ */
+class EventCalendarTest {
+    private static final int CALENDARS_PER_SEED = 1_000;
+    private static final int MAX_REPORTED = 20;
+    private static final LocalDate FIRST = LocalDate.of(2010, 1, 1);
+    private static final String[] NAMES = {"Rom", "rom", "ROM", "Straße", "STRASSE", "straße", "İzmir", "izmir", "Σίσυφος", "ΣΊΣΥΦΟΣ"};
+
+    @Test
+    void shortestEventWins() {
+        Event year = new Event("Year", LocalDate.of(2020, 1, 1), LocalDate.of(2020, 12, 31));
+        Event trip = new Event("Trip", LocalDate.of(2020, 5, 1), LocalDate.of(2020, 5, 14));
+        Event sameLength = new Event("Other trip", LocalDate.of(2020, 5, 1), LocalDate.of(2020, 5, 14));
+        EventCalendar calendar = new EventCalendar();
+        calendar.add(year);
+        calendar.add(trip);
+        calendar.add(sameLength);
+
+        assertSame(year, calendar.bestFor(LocalDate.of(2020, 4, 30)));
+        assertSame(trip, calendar.bestFor(LocalDate.of(2020, 5, 1)));
+        assertSame(trip, calendar.bestFor(LocalDate.of(2020, 5, 14)));
+        assertSame(year, calendar.bestFor(LocalDate.of(2020, 5, 15)));
+        assertNull(calendar.bestFor(LocalDate.of(2021, 1, 1)));
+        assertTrue(calendar.containsName("TRIP"));
+        assertFalse(calendar.containsName("Tri"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {42, 1, 7})
+    void agreesWithLinearScan(long seed) {
+        Random random = new Random(seed);
+        List<String> differences = new ArrayList<>();
+        for (int c = 0; c < CALENDARS_PER_SEED; c++) {
+            // a short range keeps events overlapping; a few calendars spread out more
+            int days = random.nextInt(10) == 0 ? 3_000 : 60;
+            List<Event> events = new ArrayList<>();
+            EventCalendar calendar = new EventCalendar();
+            int size = random.nextInt(40);
+            for (int i = 0; i < size; i++) {
+                Event event = event(random, days, i);
+                events.add(event);
+                calendar.add(event);
+                // lookups between adds, so the index is rebuilt after later adds
+                if (random.nextInt(8) == 0) compareDates(calendar, events, days, c, differences);
+            }
+            compareDates(calendar, events, days, c, differences);
+            compareNames(calendar, events, c, differences);
+
+            EventCalendar reloaded = new EventCalendar();
+            reloaded.addAll(events, calendar.segments());
+            compareDates(reloaded, events, days, c, differences);
+        }
+        assertEquals(List.of(), differences);
+    }
+
+    private static Event event(Random r, int days, int i) {
+        String name = r.nextInt(3) == 0 ? NAMES[r.nextInt(NAMES.length)] : "Event " + i;
+        LocalDate start = FIRST.plusDays(r.nextInt(days));
+        // a few events end before they start, and match no date
+        int length = r.nextInt(12) == 0 ? -1 - r.nextInt(5) : r.nextInt(r.nextBoolean() ? 4 : 30);
+        return new Event(name, start, start.plusDays(length));
+    }
+
+    private static void compareDates(EventCalendar calendar, List<Event> events, int days, int c,
+                                     List<String> differences) {
+        for (int d = -3; d < days + 40; d++) {
+            LocalDate date = FIRST.plusDays(d);
+            Event expected = linearBest(events, date);
+            Event actual = calendar.bestFor(date);
+            // identity: of equally long events the first added must win
+            if (expected != actual && differences.size() < MAX_REPORTED) {
+                differences.add(String.format("calendar %d, %s: linear=%s calendar=%s", c, date, expected, actual));
+            }
+        }
+    }
+
+    private static void compareNames(EventCalendar calendar, List<Event> events, int c, List<String> differences) {
+        for (String name : NAMES) {
+            boolean expected = events.stream().anyMatch(e -> e.name().equalsIgnoreCase(name));
+            if (expected != calendar.containsName(name) && differences.size() < MAX_REPORTED) {
+                differences.add(String.format("calendar %d, name %s: linear=%s calendar=%s", c, name, expected, !expected));
+            }
+        }
+    }
+
+    /** EventManager.findBestEventForDate before the calendar was indexed. */
+    private static Event linearBest(List<Event> events, LocalDate date) {
+        return events.stream()
+                .filter(event -> !date.isBefore(event.startDate()) && !date.isAfter(event.endDate()))
+                .min(Comparator.comparingLong(Event::durationInDays))
+                .orElse(null);
+    }
+}
@@ -0,0 +1,69 @@
+package org.trostheide.lif.photoorg;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JpegDecoderTest {
+    private static final int WIDTH = 4000;
+    private static final int HEIGHT = 3000;
+
+    @Test
+    void subsamplesByPowersOfTwoAboveTheHeadroom() {
+        long smooth = WIDTH * HEIGHT / 16;
+        assertEquals(1, JpegDecoder.subsampling(WIDTH, HEIGHT, smooth, 0));
+        assertEquals(1, JpegDecoder.subsampling(WIDTH, HEIGHT, smooth, 2048));
+        assertEquals(2, JpegDecoder.subsampling(WIDTH, HEIGHT, smooth, 1000));
+        assertEquals(4, JpegDecoder.subsampling(WIDTH, HEIGHT, smooth, 500));
+    }
+
+    @Test
+    void detailedImagesAreNotSubsampled() {
+        long detailed = WIDTH * HEIGHT / 4;
+        assertEquals(1, JpegDecoder.subsampling(WIDTH, HEIGHT, detailed, 500));
+    }
+
+    @Test
+    void decodesSmoothImagesReduced() throws Exception {
+        BufferedImage img = image();
+        Graphics2D g = img.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, new Color(40, 90, 160), WIDTH, HEIGHT, new Color(230, 200, 120)));
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.dispose();
+
+        BufferedImage decoded = new JpegDecoder(500, 90).decode(jpeg(img), new File("smooth.jpg"));
+        assertEquals(WIDTH / 4, decoded.getWidth());
+    }
+
+    @Test
+    void decodesFineStripesInFull() throws Exception {
+        // skipping every other column would turn these stripes into a flat colour
+        BufferedImage img = image();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                img.setRGB(x, y, x % 2 == 0 ? 0xF0F0F0 : 0x101010);
+            }
+        }
+
+        BufferedImage decoded = new JpegDecoder(500, 90).decode(jpeg(img), new File("stripes.jpg"));
+        assertEquals(WIDTH, decoded.getWidth());
+    }
+
+    private static BufferedImage image() {
+        return new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+    }
+
+    private static byte[] jpeg(BufferedImage img) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "jpg", out);
+        return out.toByteArray();
+    }
+}
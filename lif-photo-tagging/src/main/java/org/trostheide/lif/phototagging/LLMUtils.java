@@ -1,7 +1,13 @@
 package org.trostheide.lif.phototagging;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.trostheide.lif.core.CircuitBreaker;
+import org.trostheide.lif.core.LatencyHistogram;
+import org.trostheide.lif.core.MetricsRegistry;
+import org.trostheide.lif.core.RetryExecutor;
+import org.trostheide.lif.core.RetryPolicy;
 
 import java.io.IOException;
 import java.net.URI;
@@ -9,14 +15,64 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.*;
 
 public class LLMUtils {
 
     private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final LatencyHistogram QUERY = MetricsRegistry.global().histogram("llm.query");
+    private static final HttpClient CLIENT = HttpClient.newHttpClient();
+    /** Retries connection problems, 429 and 5xx; stops hammering the endpoint once it is clearly down. */
+    private static final RetryExecutor RETRY = new RetryExecutor(
+            new RetryPolicy(4, 2_000).withMaxDelay(30_000).withDeadline(120_000).retryOn(LLMUtils::isTransient),
+            new CircuitBreaker("llm-endpoint", 5, 60_000));
 
+    /**
+     * Non-2xx response from the LLM endpoint.
+     */
+    static class HttpStatusException extends IOException {
+        final int statusCode;
+
+        HttpStatusException(int statusCode, String body) {
+            super("LLM API call failed with HTTP " + statusCode + ": " + body);
+            this.statusCode = statusCode;
+        }
+    }
+
+    /**
+     * Queries the LLM on the calling thread, retrying transient failures with backoff. Blocks until done.
+     */
     public static LLMResult queryLLM(Path image, PhotoTaggingConfig config) throws IOException, InterruptedException {
+        return queryLLM(image, config, Thread::sleep);
+    }
+
+    /**
+     * Like {@link #queryLLM(Path, PhotoTaggingConfig)}, with {@code backoff} doing the waiting
+     * between attempts, e.g. to give up a concurrency permit meanwhile.
+     */
+    public static LLMResult queryLLM(Path image, PhotoTaggingConfig config, RetryExecutor.Backoff backoff)
+            throws IOException, InterruptedException {
+        try {
+            return RETRY.execute(() -> queryOnce(image, config), backoff);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static boolean isTransient(Throwable e) {
+        if (e instanceof HttpStatusException) {
+            int status = ((HttpStatusException) e).statusCode;
+            return status == 429 || status >= 500;
+        }
+        // network errors are transient; a missing image or an unparsable response is not
+        return e instanceof IOException && !(e instanceof NoSuchFileException) && !(e instanceof JsonProcessingException);
+    }
+
+    private static LLMResult queryOnce(Path image, PhotoTaggingConfig config) throws IOException, InterruptedException {
         String base64 = Base64.getEncoder().encodeToString(Files.readAllBytes(image));
 
         Map<String, Object> payload = new HashMap<>();
@@ -45,11 +101,13 @@ public class LLMUtils {
                 .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
                 .build();
 
-        HttpResponse<String> response = HttpClient.newHttpClient()
+        long t0 = QUERY.start();
+        HttpResponse<String> response = CLIENT
                 .send(request, HttpResponse.BodyHandlers.ofString());
+        QUERY.stop(t0);
 
         if (response.statusCode() >= 400) {
-            throw new IOException("LLM API call failed with HTTP " + response.statusCode() + ": " + response.body());
+            throw new HttpStatusException(response.statusCode(), response.body());
         }
 
         JsonNode root = MAPPER.readTree(response.body());
@@ -67,7 +67,8 @@ public class MetadataEmbedder {
             }
 
             // --- Embed IPTC (Caption and Keywords) ---
-            File finalOutput = File.createTempFile("final-", ".jpg");
+            // next to the photo, so replacing it is an atomic rename rather than a cross-device copy
+            File finalOutput = File.createTempFile(".lif-embed-", ".jpg", imageFile.getAbsoluteFile().getParentFile());
             PhotoshopApp13Data existingIptc = (jpegMetadata != null &&
                     jpegMetadata.getPhotoshop() != null)
                     ? jpegMetadata.getPhotoshop().photoshopApp13Data
@@ -106,7 +107,7 @@ public class MetadataEmbedder {
             }
 
             // Overwrite original image in-place
-            Files.move(finalOutput.toPath(), imageFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(finalOutput.toPath(), imageFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 
         } catch (ImageReadException | ImageWriteException e) {
             throw new IOException("Failed to embed metadata: " + e.getMessage(), e);
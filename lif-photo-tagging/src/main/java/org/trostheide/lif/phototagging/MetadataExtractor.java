@@ -1,10 +1,7 @@
 package org.trostheide.lif.phototagging;
 
 import org.apache.commons.imaging.ImageReadException;
-import org.apache.commons.imaging.Imaging;
-import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
-import org.apache.commons.imaging.formats.tiff.TiffField;
-import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
+import org.trostheide.lif.core.MetadataCache;
 
 import java.io.File;
 import java.io.IOException;
@@ -12,12 +9,12 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Extracts EXIF metadata from JPEG image files using Apache Commons Imaging.
+ * Extracts the EXIF fields of image files via the shared {@link MetadataCache}.
  */
 public class MetadataExtractor {
 
     /**
-     * Extracts available EXIF fields from the given JPEG image.
+     * Extracts the available EXIF fields (date, camera, lens, exposure, GPS, ...) from the given image.
      *
      * @param imageFile the image file to inspect
      * @return a nested Map with key "exif", mapping to a sub-map of tags and values
@@ -28,20 +25,7 @@ public class MetadataExtractor {
         Map<String, String> exifData = new HashMap<>();
 
         try {
-            Object metadata = Imaging.getMetadata(imageFile);
-            if (metadata instanceof JpegImageMetadata jpegMetadata) {
-                TiffImageMetadata exif = jpegMetadata.getExif();
-                if (exif != null) {
-                    for (TiffField field : exif.getAllFields()) {
-                        String name = field.getTagName();
-                        String value = field.getValueDescription();
-                        if (value != null && !value.isBlank()) {
-                            // Remove double quotes from value string
-                            exifData.put(name, value.replace("\"", ""));
-                        }
-                    }
-                }
-            }
+            exifData.putAll(MetadataCache.global().get(imageFile).fields());
         } catch (ImageReadException e) {
             throw new IOException("Failed to extract metadata from " + imageFile.getName(), e);
         }
@@ -1,7 +1,10 @@
 package org.trostheide.lif.phototagging;
 
 import org.apache.commons.cli.*;
+import org.trostheide.lif.core.ExecutionMode;
+import org.trostheide.lif.core.MetricsRegistry;
 
+import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDate;
@@ -49,6 +52,11 @@ public class PhotoTaggingCLI {
                 .desc("Update .yaml files if they already exist")
                 .build());
 
+        options.addOption(Option.builder()
+                .longOpt("resume")
+                .desc("Continue an interrupted run from its checkpoint, without rescanning the input directory")
+                .build());
+
         options.addOption(Option.builder()
                 .longOpt("embed")
                 .desc("Write description and tags into JPEG metadata")
@@ -82,6 +90,27 @@ public class PhotoTaggingCLI {
                 .argName("tags")
                 .build());
 
+        options.addOption(Option.builder()
+                .longOpt("executor")
+                .desc("Thread type for concurrent LLM requests: platform or virtual (default: platform; virtual needs Java 21+)")
+                .hasArg()
+                .argName("platform|virtual")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("concurrency")
+                .desc("Number of photos processed at once, or auto to adapt to the endpoint's latency (default: 1)")
+                .hasArg()
+                .argName("n|auto")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("metrics")
+                .desc("Write LLM latency metrics to this JSON file (plus a .prom file)")
+                .hasArg()
+                .argName("file")
+                .build());
+
         options.addOption("h", "help", false, "Show this help message");
 
         CommandLineParser parser = new DefaultParser();
@@ -116,6 +145,7 @@ public class PhotoTaggingCLI {
             config.setRerun(cmd.hasOption("rerun"));
             config.setUpdate(cmd.hasOption("update"));
             config.setEmbedMetadata(cmd.hasOption("embed"));
+            config.setResume(cmd.hasOption("resume"));
 
             if (cmd.hasOption("width")) {
                 try {
@@ -138,9 +168,38 @@ public class PhotoTaggingCLI {
                 config.setTagList(cmd.getOptionValue("tags"));
             }
 
+            if (cmd.hasOption("executor")) {
+                try {
+                    config.setExecutionMode(ExecutionMode.parse(cmd.getOptionValue("executor")));
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                    return;
+                }
+            }
+
+            if ("auto".equalsIgnoreCase(cmd.getOptionValue("concurrency"))) {
+                config.setAdaptiveConcurrency(true);
+            } else if (cmd.hasOption("concurrency")) {
+                try {
+                    config.setConcurrency(Integer.parseInt(cmd.getOptionValue("concurrency")));
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid number for --concurrency");
+                    return;
+                }
+            }
+
+            MetricsRegistry metrics = MetricsRegistry.global();
+            if (cmd.hasOption("metrics")) {
+                metrics.enable();
+            }
+
             // ✅ Launch processing
             PhotoTaggingProcessor.run(config);
 
+            if (cmd.hasOption("metrics")) {
+                metrics.dump(new File(cmd.getOptionValue("metrics")));
+            }
+
         } catch (ParseException e) {
             System.err.println(e.getMessage());
             formatter.printHelp("lif-photo-tagging", options);
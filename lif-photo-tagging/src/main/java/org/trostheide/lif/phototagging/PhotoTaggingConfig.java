@@ -1,5 +1,7 @@
 package org.trostheide.lif.phototagging;
 
+import org.trostheide.lif.core.ExecutionMode;
+
 import java.nio.file.Path;
 import java.time.LocalDate;
 
@@ -18,9 +20,14 @@ public class PhotoTaggingConfig {
     private boolean update = false;
     private boolean rerun = false;
     private boolean embedMetadata = false;
+    private boolean resume = false;
 
     private Path logFilePath;
 
+    private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+    private int concurrency = 1;
+    private boolean adaptiveConcurrency = false;
+
     public Path getInputDir() { return inputDir; }
     public void setInputDir(Path inputDir) { this.inputDir = inputDir; }
 
@@ -56,6 +63,20 @@ public class PhotoTaggingConfig {
     public boolean isEmbedMetadata() { return embedMetadata; }
     public void setEmbedMetadata(boolean embedMetadata) { this.embedMetadata = embedMetadata; }
 
+    public boolean isResume() { return resume; }
+    public void setResume(boolean resume) { this.resume = resume; }
+
     public Path getLogFilePath() { return logFilePath; }
     public void setLogFilePath(Path logFilePath) { this.logFilePath = logFilePath; }
+
+    public ExecutionMode getExecutionMode() { return executionMode; }
+    public void setExecutionMode(ExecutionMode executionMode) { this.executionMode = executionMode; }
+
+    public int getConcurrency() { return concurrency; }
+    public void setConcurrency(int concurrency) {
+        if (concurrency > 0) this.concurrency = concurrency;
+    }
+
+    public boolean isAdaptiveConcurrency() { return adaptiveConcurrency; }
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) { this.adaptiveConcurrency = adaptiveConcurrency; }
 }
\ No newline at end of file
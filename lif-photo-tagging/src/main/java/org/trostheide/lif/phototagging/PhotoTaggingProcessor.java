@@ -1,5 +1,15 @@
 package org.trostheide.lif.phototagging;
 
+import org.slf4j.Logger;
+import org.trostheide.lif.core.AdaptiveLimiter;
+import org.trostheide.lif.core.Checkpoint;
+import org.trostheide.lif.core.ExecutorFactory;
+import org.trostheide.lif.core.FingerprintService;
+import org.trostheide.lif.core.LoggerService;
+import org.trostheide.lif.core.ProgressTracker;
+import org.trostheide.lif.core.RetryExecutor;
+
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
@@ -7,61 +17,219 @@ import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class PhotoTaggingProcessor {
+    private static final Logger log = LoggerService.getLogger(PhotoTaggingProcessor.class);
+    /** Upper bound for --concurrency auto; local LLM servers rarely serve more in parallel. */
+    private static final int MAX_ADAPTIVE_CONCURRENCY = 16;
 
     public static void run(PhotoTaggingConfig config) {
         List<Path> images = new ArrayList<>();
         Path root = config.getInputDir();
+        File checkpointDir = root.resolve(".lif-tagging-checkpoint").toFile();
 
-        System.out.println("Scanning directory: " + root);
+        FingerprintService fingerprints = openFingerprints(config);
 
-        try {
-            Files.walkFileTree(root, new SimpleFileVisitor<>() {
-                @Override
-                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
-                    String fileName = path.getFileName().toString().toLowerCase();
-                    if (fileName.endsWith(".jpg") || fileName.endsWith(".jpeg") || fileName.endsWith(".png")) {
-                        if (shouldIncludeFile(path, attrs, config)) {
-                            images.add(path);
+        Checkpoint checkpoint = null;
+        if (config.isResume() && !config.isDryRun()) {
+            try {
+                checkpoint = Checkpoint.resume(checkpointDir);
+            } catch (IOException e) {
+                System.err.println("Failed to read checkpoint: " + e.getMessage());
+                closeFingerprints(fingerprints);
+                return;
+            }
+            if (checkpoint == null) {
+                System.out.println("No checkpoint found, starting a full run.");
+            } else {
+                images.addAll(checkpoint.remaining());
+                System.out.println("Resuming: " + checkpoint.completed() + " of " + checkpoint.planned() + " images already tagged.");
+            }
+        }
+
+        if (checkpoint == null) {
+            System.out.println("Scanning directory: " + root);
+            List<Path> tagged = new ArrayList<>();
+            try {
+                Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                        String fileName = path.getFileName().toString().toLowerCase();
+                        // hidden files include unfinished outputs (.name.part.jpg) left by a crash
+                        if (fileName.startsWith(".")) return FileVisitResult.CONTINUE;
+                        if (fileName.endsWith(".jpg") || fileName.endsWith(".jpeg") || fileName.endsWith(".png")) {
+                            if (shouldIncludeFile(path, attrs, config, tagged)) {
+                                images.add(path);
+                            }
                         }
+                        return FileVisitResult.CONTINUE;
                     }
-                    return FileVisitResult.CONTINUE;
+                });
+            } catch (IOException e) {
+                System.err.println("Failed to walk directory tree: " + e.getMessage());
+                closeFingerprints(fingerprints);
+                return;
+            }
+            images.addAll(changedSinceTagging(tagged, fingerprints));
+            if (!config.isDryRun()) {
+                try {
+                    checkpoint = Checkpoint.begin(checkpointDir, images);
+                } catch (IOException e) {
+                    System.err.println("Could not create checkpoint, this run cannot be resumed: " + e.getMessage());
                 }
-            });
-        } catch (IOException e) {
-            System.err.println("Failed to walk directory tree: " + e.getMessage());
-            return;
+            }
         }
 
         System.out.println("Found " + images.size() + " images to process.\n");
 
-        for (Path photo : images) {
-            System.out.println("➡Processing: " + photo);
-
+        Checkpoint done = checkpoint;
+        boolean interrupted = false;
+        ProgressTracker progress = new ProgressTracker();
+        progress.startTask(images.size());
+        if (config.getConcurrency() <= 1 && !config.isAdaptiveConcurrency()) {
+            for (Path photo : images) {
+                tagPhoto(photo, config, fingerprints, progress, done, Thread::sleep);
+            }
+        } else {
+            // requests mostly wait on the LLM endpoint, so several can be in flight at once;
+            // with auto, as many as the endpoint serves without its latency climbing
+            AdaptiveLimiter limiter = config.isAdaptiveConcurrency()
+                    ? new AdaptiveLimiter("llm", 2, 1, MAX_ADAPTIVE_CONCURRENCY)
+                    : AdaptiveLimiter.fixed("llm", config.getConcurrency());
+            if (limiter.isAdaptive()) progress.showLimit(limiter);
+            // a worker waiting to retry gives its permit to one of the spare workers
+            ExecutorService exec = ExecutorFactory.newBoundedExecutor(config.getExecutionMode(),
+                    2 * limiter.max(), "lif-tagging");
+            for (Path photo : images) {
+                exec.submit(() -> {
+                    try {
+                        limiter.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    long t0 = System.nanoTime();
+                    long[] waited = new long[1];
+                    boolean tagged = tagPhoto(photo, config, fingerprints, progress, done, millis -> {
+                        limiter.releaseFailed();
+                        long w0 = System.nanoTime();
+                        try {
+                            Thread.sleep(millis);
+                        } finally {
+                            limiter.acquire();
+                            waited[0] += System.nanoTime() - w0;
+                        }
+                    });
+                    // the time spent waiting to retry says nothing about the endpoint's latency
+                    if (tagged) {
+                        limiter.release(System.nanoTime() - t0 - waited[0]);
+                    } else {
+                        limiter.releaseFailed();
+                    }
+                });
+            }
+            exec.shutdown();
             try {
-                Path thumb = ThumbnailUtils.resizeToTemp(photo, config.getThumbnailWidth());
+                exec.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.err.println("Processing was interrupted. Continue with --resume.");
+                interrupted = true;
+            }
+        }
+        progress.onComplete();
+
+        closeCheckpoint(checkpoint, !interrupted);
+        closeFingerprints(fingerprints);
+        System.out.println("Processing complete.");
+    }
+
+    /**
+     * @param backoff waits between two attempts to query the LLM
+     * @return true if the photo was tagged
+     */
+    private static boolean tagPhoto(Path photo, PhotoTaggingConfig config, FingerprintService fingerprints,
+                                    ProgressTracker progress, Checkpoint checkpoint, RetryExecutor.Backoff backoff) {
+        log.debug("Processing: {}", photo);
+
+        boolean tagged = false;
+        try {
+            Path thumb = ThumbnailUtils.resizeToTemp(photo, config.getThumbnailWidth());
 
-                LLMResult result = LLMUtils.queryLLM(thumb, config);
+            LLMResult result = LLMUtils.queryLLM(thumb, config, backoff);
 
-                System.out.println("Description: " + result.getDescription());
-                System.out.println("Tags: " + result.getTags());
+            log.debug("Description: {}", result.getDescription());
+            log.debug("Tags: {}", result.getTags());
 
-                if (!config.isDryRun()) {
-                    SidecarWriter.writeYaml(photo, result, config);
+            if (!config.isDryRun()) {
+                SidecarWriter.writeYaml(photo, result, config);
+                if (fingerprints != null) {
+                    // --embed rewrites the photo; remember the tagged state, not the old one
+                    fingerprints.refresh(photo);
                 }
+            }
+            if (checkpoint != null) {
+                checkpoint.complete(photo);
+            }
+            progress.stage("tagged");
+            tagged = true;
+
+        } catch (Exception e) {
+            System.err.println("Error processing " + photo + ": " + e.getMessage());
+            progress.stage("failed");
+        }
+
+        progress.step(1, photo.toFile().length());
+        return tagged;
+    }
 
-            } catch (Exception e) {
-                System.err.println("Error processing " + photo + ": " + e.getMessage());
+    /**
+     * Deletes the checkpoint after a completed run, or keeps it for --resume.
+     */
+    private static void closeCheckpoint(Checkpoint checkpoint, boolean completed) {
+        if (checkpoint == null) return;
+        try {
+            if (completed) {
+                checkpoint.finish();
+            } else {
+                checkpoint.close();
             }
+        } catch (IOException e) {
+            System.err.println("Failed to close checkpoint: " + e.getMessage());
+        }
+    }
 
-            System.out.println(); // spacer
+    private static FingerprintService openFingerprints(PhotoTaggingConfig config) {
+        if (config.isDryRun()) {
+            return null;
+        }
+        try {
+            return new FingerprintService(config.getInputDir().resolve(".lif-fingerprints.jsonl").toFile(),
+                    Runtime.getRuntime().availableProcessors());
+        } catch (IOException e) {
+            System.err.println("Fingerprint cache unavailable, falling back to sidecar checks: " + e.getMessage());
+            return null;
         }
+    }
 
-        System.out.println("Processing complete.");
+    private static void closeFingerprints(FingerprintService fingerprints) {
+        if (fingerprints == null) return;
+        try {
+            fingerprints.close();
+        } catch (IOException e) {
+            System.err.println("Failed to save fingerprint cache: " + e.getMessage());
+        }
     }
 
-    private static boolean shouldIncludeFile(Path path, BasicFileAttributes attrs, PhotoTaggingConfig config) {
+    /**
+     * @param tagged collects the tagged photos to skip unless they changed since, see
+     *               {@link #changedSinceTagging}
+     */
+    private static boolean shouldIncludeFile(Path path, BasicFileAttributes attrs, PhotoTaggingConfig config,
+                                             List<Path> tagged) {
         if (config.getSinceDate() != null) {
             LocalDate fileDate = attrs.creationTime()
                     .toInstant()
@@ -82,10 +250,35 @@ public class PhotoTaggingProcessor {
                 return true; // update existing sidecar
             }
             if (!config.isRerun()) {
-                return false; // skip if no update or rerun
+                tagged.add(path);
+                return false;
             }
         }
 
         return true;
     }
+
+    /**
+     * The tagged photos that changed since they were tagged. The checks run in parallel
+     * after the walk; each reads the edges of a photo whose stat data changed, and the
+     * whole photo only if the edges still match.
+     */
+    private static List<Path> changedSinceTagging(List<Path> tagged, FingerprintService fingerprints) {
+        if (fingerprints == null || tagged.isEmpty()) return List.of();
+        Map<Path, FingerprintService.Status> status = fingerprints.statusAll(tagged);
+        List<Path> changed = new ArrayList<>();
+        List<Path> untracked = new ArrayList<>();
+        for (Path path : tagged) {
+            FingerprintService.Status s = status.get(path);
+            if (s == FingerprintService.Status.CHANGED) {
+                changed.add(path);
+            } else if (s == FingerprintService.Status.NEW) {
+                untracked.add(path);
+            }
+        }
+        // tagged before fingerprints were kept: their current state is the tagged one.
+        // Without a full hash, a later touch that leaves the edges alone counts as a change.
+        fingerprints.fingerprintAll(untracked, false);
+        return changed;
+    }
 }
@@ -8,7 +8,9 @@ import org.yaml.snakeyaml.representer.Representer;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.ZonedDateTime;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -59,9 +61,12 @@ public class SidecarWriter {
         Representer representer = new Representer(options);
         representer.addClassTag(LinkedHashMap.class, Tag.MAP);
 
-        try (FileWriter writer = new FileWriter(yamlFile)) {
+        // written aside and renamed, so a sidecar that exists is always complete
+        File tmpFile = new File(yamlFile.getParentFile(), "." + yamlFile.getName() + ".part");
+        try (FileWriter writer = new FileWriter(tmpFile)) {
             new Yaml(representer, options).dump(root, writer);
         }
+        Files.move(tmpFile.toPath(), yamlFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 
         // Optional: embed tags + description into the photo metadata
         if (config.isEmbedMetadata()) {